@@ -0,0 +1,47 @@
+package tw.edu.nctu.mbc.mirtarbase.bench;
+
+import tw.edu.nctu.mbc.mirtarbase.converter.MtiRowSource;
+
+/**
+ * MTI rows already in memory (to measure building the BioPAX objects without parsing the input).
+ */
+final class ArrayRowSource implements MtiRowSource {
+    private final String[][] table;
+    private int r = -1;
+
+    ArrayRowSource(String[][] table) {
+        this.table = table;
+    }
+
+    public boolean next() {
+        return ++r < table.length;
+    }
+
+    public int getRowNumber() {
+        return r + 1; //the header is row 0
+    }
+
+    public String getString(int column) {
+        return table[r][column];
+    }
+
+    public int getInteger(int column) {
+        String s = table[r][column];
+        if (s == null || s.isEmpty())
+            return MISSING;
+        // the generated values are plain (not too long) non-negative integers or text
+        if (s.length() > 9)
+            return NOT_AN_INTEGER;
+        int value = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9')
+                return NOT_AN_INTEGER;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    public void close() {
+    }
+}
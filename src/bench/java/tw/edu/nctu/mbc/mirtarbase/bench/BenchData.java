@@ -0,0 +1,61 @@
+package tw.edu.nctu.mbc.mirtarbase.bench;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.LogManager;
+import org.biopax.paxtools.trove.TProvider;
+import org.biopax.paxtools.util.BPCollections;
+import tw.edu.nctu.mbc.mirtarbase.converter.MtiFormat;
+import tw.edu.nctu.mbc.mirtarbase.converter.MtiRowSource;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Benchmark inputs: synthetic MTI files, generated locally once
+ * (in the directory set by the 'mirtarbase.bench.dir' system property; target/bench-data by default),
+ * and the same environment as the command line converter has.
+ */
+final class BenchData {
+
+    private BenchData() {
+    }
+
+    static File dir() {
+        return new File(System.getProperty("mirtarbase.bench.dir", "target/bench-data"));
+    }
+
+    static File file(int rows, boolean xlsx) throws IOException {
+        return MtiGenerator.get(dir(), rows, xlsx);
+    }
+
+    /**
+     * Reads all the rows (as text) into memory.
+     * @param rows number of data rows
+     * @return cell values
+     * @throws IOException when there is an I/O error
+     */
+    static String[][] table(int rows) throws IOException {
+        String[][] table = new String[rows][];
+        MtiRowSource source = MtiFormat.TSV.open(file(rows, false));
+        try {
+            int r = 0;
+            while (source.next()) {
+                String[] row = new String[MtiRowSource.COLUMNS];
+                for (int c = 0; c < row.length; c++)
+                    row[c] = source.getString(c);
+                table[r++] = row;
+            }
+        } finally {
+            source.close();
+        }
+        return table;
+    }
+
+    /**
+     * Like in the command line converter: trove collections, and no logging (there are bad rows).
+     */
+    static void setUp() {
+        BPCollections.I.setProvider(new TProvider());
+        LogManager.getLoggerRepository().setThreshold(Level.OFF);
+    }
+}
@@ -0,0 +1,56 @@
+package tw.edu.nctu.mbc.mirtarbase.bench;
+
+import org.biopax.paxtools.model.Model;
+import org.openjdk.jmh.annotations.*;
+import tw.edu.nctu.mbc.mirtarbase.converter.MirBase;
+import tw.edu.nctu.mbc.mirtarbase.converter.MirtarbaseToBiopaxConverter;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the BioPAX model from the MTI rows already in memory,
+ * with and without the organism pathways, or streaming it (to nowhere) without building the model
+ * (one operation - all the rows).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MINUTES)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConvertBenchmark {
+
+    @Param({"10000"})
+    public int rows;
+
+    @Param({"false", "true"})
+    public boolean pathways;
+
+    private String[][] table;
+    private MirBase mirBase;
+
+    @Setup
+    public void setUp() throws IOException {
+        BenchData.setUp();
+        table = BenchData.table(rows);
+        mirBase = MirBase.getDefault();
+    }
+
+    @Benchmark
+    public Model convert() throws IOException {
+        return newConverter().convert(new ArrayRowSource(table), mirBase);
+    }
+
+    @Benchmark
+    public void convertToOWL() throws IOException {
+        newConverter().convertToOWL(new ArrayRowSource(table), mirBase, new WriteBenchmark.NullOutputStream());
+    }
+
+    private MirtarbaseToBiopaxConverter newConverter() {
+        MirtarbaseToBiopaxConverter converter = new MirtarbaseToBiopaxConverter();
+        converter.setXmlBase("http://mirtarbase.mbc.nctu.edu.tw/#");
+        converter.setMakePathwayPerOrganism(pathways);
+        return converter;
+    }
+}
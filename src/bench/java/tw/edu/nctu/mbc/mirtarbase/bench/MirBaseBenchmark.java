@@ -0,0 +1,35 @@
+package tw.edu.nctu.mbc.mirtarbase.bench;
+
+import org.openjdk.jmh.annotations.*;
+import tw.edu.nctu.mbc.mirtarbase.converter.MirBase;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading the miRBase aliases and organisms: the pre-compiled index vs. the text files.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MirBaseBenchmark {
+
+    @Benchmark
+    public MirBase readIndex() throws IOException {
+        InputStream in = MirBase.class.getResourceAsStream(MirBase.INDEX_RESOURCE);
+        try {
+            return MirBase.read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Benchmark
+    public MirBase parseText() throws IOException {
+        return MirBase.parse(MirBase.class.getResourceAsStream("/aliases.txt"),
+                MirBase.class.getResourceAsStream("/organisms.txt"));
+    }
+}
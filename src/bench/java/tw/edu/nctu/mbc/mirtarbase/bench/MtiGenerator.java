@@ -0,0 +1,315 @@
+package tw.edu.nctu.mbc.mirtarbase.bench;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Generates synthetic miRTarBase MTI data (XLSX or TSV) of any size, for benchmarks and scale tests.
+ *
+ * The rows look like the real ones: MIRT IDs in order, each with one or more rows (publications;
+ * mostly a few, sometimes dozens, some with the same PMID again), the miRNAs drawn from the mature
+ * miRNA names in the built-in miRBase aliases.txt and their species names from organisms.txt
+ * (mostly human and mouse, a few miRNAs with many targets and many with few), thousands of target genes,
+ * typical 'Experiments' values made dirty (misspelled, mixed separators, case and spaces),
+ * and some bad cells (no or text gene ID, no or text PMID, no support type).
+ * The same number of rows always gives the same data, and fewer rows give the beginning of it.
+ */
+public final class MtiGenerator {
+
+    static final String[] HEADER = {"miRTarBase ID", "miRNA", "Species (miRNA)", "Target Gene",
+            "Target Gene (Entrez Gene ID)", "Species (Target Gene)", "Experiments", "Support Type", "References (PMID)"};
+
+    // miRBase organism codes, by weight (per 100 MIRT IDs); the rest are of other species
+    private static final String[] SPECIES = {"hsa", "mmu", "rno", "cel", "dme", "gga", "bta", "ssc", "dre", "ebv"};
+    private static final int[] SPECIES_WEIGHTS = {62, 21, 4, 2, 2, 1, 1, 1, 1, 1};
+
+    private static final String[] EXPERIMENTS = {
+            "Western blot", "Luciferase reporter assay", "qRT-PCR", "Microarray", "Reporter assay",
+            "Northern blot", "Flow cytometry", "Immunoprecipitaion", "5\"RACE", "3\"RACE", "real time RT PCR",
+            "pSILAC", "Proteomics", "GFP reporter assay", "CLIP-Seq", "HITS-CLIP", "PAR-CLIP", "Immunohistochemistry",
+            "ELISA", "Weastern blot", "Micorarray", "Western blotting", "Luciferase reporter assays", "qPCR",
+            "Immunofluorescence", "In situ hybridization", "Degradome sequencing", "NGS", "Other"
+    };
+    private static final String[] SEPARATORS = {"//", "//", "//", ";", "; ", ",", " / ", "//  "};
+
+    private static final String[] SUPPORT = {
+            "Functional MTI", "Functional MTI (Weak)", "Non-Functional MTI", "Functional MTI", null
+    };
+
+    private MtiGenerator() {
+    }
+
+    /**
+     * Writes the rows as XLSX (streaming, so that it works for millions of rows).
+     * @param rows number of data rows
+     * @param file output file
+     * @throws IOException when there is an I/O error
+     */
+    public static void writeXlsx(int rows, File file) throws IOException {
+        SXSSFWorkbook workbook = new SXSSFWorkbook(100);
+        try {
+            Sheet sheet = workbook.createSheet("miRTarBase_MTI");
+            Row header = sheet.createRow(0);
+            for (int c = 0; c < HEADER.length; c++)
+                header.createCell(c).setCellValue(HEADER[c]);
+            Generator g = new Generator();
+            for (int r = 1; r <= rows; r++) {
+                Object[] values = g.next();
+                Row row = sheet.createRow(r);
+                for (int c = 0; c < values.length; c++) {
+                    if (values[c] instanceof Integer)
+                        row.createCell(c).setCellValue((Integer) values[c]);
+                    else if (values[c] != null)
+                        row.createCell(c).setCellValue((String) values[c]);
+                }
+            }
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+            try {
+                workbook.write(out);
+            } finally {
+                out.close();
+            }
+        } finally {
+            workbook.dispose();
+        }
+    }
+
+    /**
+     * Writes the same rows as {@link #writeXlsx(int, File)} as tab-separated text.
+     * @param rows number of data rows
+     * @param file output file
+     * @throws IOException when there is an I/O error
+     */
+    public static void writeTsv(int rows, File file) throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            writeLine(out, HEADER);
+            Generator g = new Generator();
+            for (int r = 1; r <= rows; r++)
+                writeLine(out, g.next());
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Gets the synthetic file, generating it once (in the directory).
+     * @param dir directory
+     * @param rows number of data rows
+     * @param xlsx XLSX or TSV
+     * @return file
+     * @throws IOException when there is an I/O error
+     */
+    public static File get(File dir, int rows, boolean xlsx) throws IOException {
+        File file = new File(dir, "mti-" + rows + (xlsx ? ".xlsx" : ".tsv"));
+        if (!file.isFile()) {
+            dir.mkdirs();
+            File tmp = new File(dir, file.getName() + ".tmp");
+            if (xlsx)
+                writeXlsx(rows, tmp);
+            else
+                writeTsv(rows, tmp);
+            if (!tmp.renameTo(file))
+                throw new IOException("Cannot rename " + tmp + " to " + file);
+        }
+        return file;
+    }
+
+    private static void writeLine(Writer out, Object[] values) throws IOException {
+        for (int c = 0; c < values.length; c++) {
+            if (c > 0)
+                out.write('\t');
+            if (values[c] != null)
+                out.write(values[c].toString());
+        }
+        out.write('\n');
+    }
+
+    // makes the rows, in order
+    static final class Generator {
+        private final Random random = new Random(42);
+        private final String[][] mirnas = new String[SPECIES.length + 1][]; //by species; the last - others
+        private final Map<String, String> speciesNames = new HashMap<String, String>();
+        private int mirt = 0;
+        private int left = 0;
+        private Object[] group;
+        private int lastPmid;
+
+        Generator() {
+            try {
+                readOrganisms();
+                readMirnas();
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot read the built-in miRBase files", e);
+            }
+        }
+
+        private void readOrganisms() throws IOException {
+            BufferedReader in = open("/organisms.txt");
+            try {
+                for (String line; (line = in.readLine()) != null; ) {
+                    String[] cols = line.split("\t");
+                    if (!line.startsWith("#") && cols.length > 2)
+                        speciesNames.put(cols[0], cols[2]);
+                }
+            } finally {
+                in.close();
+            }
+        }
+
+        // mature miRNA names (the last alias is the current name) by species
+        private void readMirnas() throws IOException {
+            List<List<String>> names = new ArrayList<List<String>>();
+            for (int i = 0; i < mirnas.length; i++)
+                names.add(new ArrayList<String>());
+            List<String> species = Arrays.asList(SPECIES);
+            BufferedReader in = open("/aliases.txt");
+            try {
+                for (String line; (line = in.readLine()) != null; ) {
+                    if (!line.startsWith("MIMAT"))
+                        continue;
+                    String[] aliases = line.substring(line.indexOf('\t') + 1).split(";");
+                    String name = aliases[aliases.length - 1].trim();
+                    int dash = name.indexOf('-');
+                    if (dash < 0 || !speciesNames.containsKey(name.substring(0, dash)))
+                        continue;
+                    int s = species.indexOf(name.substring(0, dash));
+                    names.get((s < 0) ? SPECIES.length : s).add(name);
+                }
+            } finally {
+                in.close();
+            }
+            for (int i = 0; i < mirnas.length; i++) {
+                //popular miRNAs at random positions (ranks), not by the miRBase order
+                Collections.shuffle(names.get(i), new Random(i));
+                mirnas[i] = names.get(i).toArray(new String[names.get(i).size()]);
+            }
+        }
+
+        private static BufferedReader open(String resource) throws IOException {
+            InputStream in = MtiGenerator.class.getResourceAsStream(resource);
+            if (in == null)
+                throw new FileNotFoundException(resource);
+            return new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        }
+
+        Object[] next() {
+            if (left == 0) {
+                mirt++;
+                left = groupSize();
+                String mirna = mirna();
+                String species = speciesNames.get(mirna.substring(0, mirna.indexOf('-')));
+                String targetSpecies = (random.nextInt(10) < 9) ? species : speciesNames.get("hsa");
+                int gene = skewed(20000, 2);
+                Object geneId = 1000 + gene;
+                int bad = random.nextInt(200);
+                if (bad < 2)
+                    geneId = "n/a";
+                else if (bad < 3)
+                    geneId = " " + geneId + " ";
+                else if (bad < 4)
+                    geneId = geneId + ".0";
+                group = new Object[]{String.format("MIRT%06d", mirt), mirna, species, "GENE" + gene,
+                        geneId, targetSpecies};
+            }
+            left--;
+            Object[] row = new Object[9];
+            System.arraycopy(group, 0, row, 0, group.length);
+            row[6] = (random.nextInt(20) == 0) ? null : experiments();
+            row[7] = SUPPORT[random.nextInt(SUPPORT.length)];
+            int p = random.nextInt(200);
+            if (p < 2) {
+                row[8] = null;
+            } else if (p < 3) {
+                row[8] = "PMID:" + (10000000 + random.nextInt(20000000));
+            } else {
+                // sometimes the same publication as the previous row (another experiment)
+                if (p >= 20 || lastPmid == 0)
+                    lastPmid = 10000000 + random.nextInt(20000000);
+                row[8] = lastPmid;
+            }
+            return row;
+        }
+
+        // rows per MIRT ID: mostly 1-3, sometimes (CLIP-Seq, reviews) dozens
+        private int groupSize() {
+            if (random.nextInt(100) == 0)
+                return 10 + random.nextInt(60);
+            int n = 1;
+            while (n < 10 && random.nextInt(100) < 45)
+                n++;
+            return n;
+        }
+
+        private String mirna() {
+            int w = random.nextInt(100);
+            int s = 0;
+            while (s < SPECIES.length && w >= SPECIES_WEIGHTS[s])
+                w -= SPECIES_WEIGHTS[s++];
+            String[] names = (mirnas[s].length > 0) ? mirnas[s] : mirnas[0];
+            return names[skewed(names.length, 3)];
+        }
+
+        // 0..n-1, low values much more often
+        private int skewed(int n, int power) {
+            return (int) (n * Math.pow(random.nextDouble(), power));
+        }
+
+        // one to three methods, with the separators, case and spaces of the real data
+        private String experiments() {
+            StringBuilder sb = new StringBuilder();
+            int n = 1 + ((random.nextInt(3) == 0) ? 1 + random.nextInt(2) : 0);
+            for (int i = 0; i < n; i++) {
+                if (i > 0)
+                    sb.append(SEPARATORS[random.nextInt(SEPARATORS.length)]);
+                String method = EXPERIMENTS[random.nextInt(EXPERIMENTS.length)];
+                switch (random.nextInt(40)) {
+                    case 0:
+                        method = method.toLowerCase();
+                        break;
+                    case 1:
+                        method = method.toUpperCase();
+                        break;
+                    case 2: //a typo: two letters swapped
+                        if (method.length() > 3) {
+                            int k = 1 + random.nextInt(method.length() - 2);
+                            method = method.substring(0, k) + method.charAt(k + 1) + method.charAt(k)
+                                    + method.substring(k + 2);
+                        }
+                        break;
+                    case 3:
+                        method = method.replace(" ", "  ");
+                        break;
+                    default:
+                }
+                sb.append(method);
+            }
+            if (random.nextInt(50) == 0)
+                sb.append("//");
+            if (random.nextInt(50) == 0)
+                sb.insert(0, ' ').append(' ');
+            return sb.toString();
+        }
+    }
+
+    /**
+     * @param args number of rows, output file (.xlsx or .tsv)
+     * @throws IOException when there is an I/O error
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: MtiGenerator <rows> <output.xlsx|output.tsv>");
+            System.exit(-1);
+        }
+        int rows = Integer.parseInt(args[0]);
+        File file = new File(args[1]);
+        if (file.getName().endsWith(".xlsx"))
+            writeXlsx(rows, file);
+        else
+            writeTsv(rows, file);
+    }
+}
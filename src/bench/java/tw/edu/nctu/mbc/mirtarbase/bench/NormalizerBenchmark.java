@@ -0,0 +1,55 @@
+package tw.edu.nctu.mbc.mirtarbase.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import tw.edu.nctu.mbc.mirtarbase.converter.ExperimentNormalizer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixing, splitting the 'Experiments' values of 10000 synthetic rows
+ * with the built-in rules, without (cacheSize=0) and with the results cache.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NormalizerBenchmark {
+
+    @Param({"0", "10000"})
+    public int cacheSize;
+
+    private String[] experiments;
+    private ExperimentNormalizer normalizer;
+
+    @Setup
+    public void setUp() throws IOException {
+        List<String> values = new ArrayList<String>();
+        MtiGenerator.Generator generator = new MtiGenerator.Generator();
+        while (values.size() < 10000) {
+            Object value = generator.next()[6];
+            if (value != null)
+                values.add(((String) value).trim());
+        }
+        experiments = values.toArray(new String[values.size()]);
+
+        InputStream rules = ExperimentNormalizer.class.getResourceAsStream("/experiment-rules.txt");
+        try {
+            normalizer = new ExperimentNormalizer(rules, cacheSize);
+        } finally {
+            rules.close();
+        }
+    }
+
+    @Benchmark
+    public void normalize(Blackhole bh) {
+        for (String s : experiments)
+            bh.consume(normalizer.normalize(s));
+    }
+}
@@ -0,0 +1,54 @@
+package tw.edu.nctu.mbc.mirtarbase.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import tw.edu.nctu.mbc.mirtarbase.converter.MtiFormat;
+import tw.edu.nctu.mbc.mirtarbase.converter.MtiRowSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading all the cells of a synthetic MTI file, XLSX vs. TSV (one operation - the whole file).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MINUTES)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RowParsingBenchmark {
+
+    @Param({"10000"})
+    public int rows;
+
+    @Param({"xlsx", "tsv"})
+    public String format;
+
+    private File file;
+
+    @Setup
+    public void setUp() throws IOException {
+        BenchData.setUp();
+        file = BenchData.file(rows, "xlsx".equals(format));
+    }
+
+    @Benchmark
+    public int readRows(Blackhole bh) throws IOException {
+        MtiRowSource source = MtiFormat.valueOf(format.toUpperCase()).open(file);
+        int n = 0;
+        try {
+            while (source.next()) {
+                for (int c = 0; c < MtiRowSource.COLUMNS; c++)
+                    bh.consume(source.getString(c));
+                bh.consume(source.getInteger(4));
+                bh.consume(source.getInteger(8));
+                n++;
+            }
+        } finally {
+            source.close();
+        }
+        return n;
+    }
+}
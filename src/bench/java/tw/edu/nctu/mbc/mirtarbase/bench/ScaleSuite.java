@@ -0,0 +1,334 @@
+package tw.edu.nctu.mbc.mirtarbase.bench;
+
+import java.io.*;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Memory-ceiling regression suite: converts synthetic MTI files (see {@link MtiGenerator}) of increasing sizes
+ * with the command line converter in a new JVM under each fixed -Xmx, in the model (convert) and streaming
+ * (convertToOWL, -w) modes, and records the peak heap, GC time and throughput of each run (from the -j stats)
+ * to a JSON report. For each mode and heap, the rows are doubled until a run fails (out of memory, or the time limit),
+ * then the gap is bisected a few times; the largest size converted is the supported row count.
+ *
+ * The supported row counts are compared with the baseline file (mode.heap=rows, e.g., model.256m=200000);
+ * the suite fails (exit code 1) when any is lower than its baseline by more than the tolerance.
+ * With -update, the baseline is replaced with the new values instead.
+ *
+ * Options (all optional): -heaps 256m,512m -modes model,stream -from 25000 -max 1600000 -steps 2
+ * -timeout 600 (seconds per run) -xlsx (XLSX input instead of TSV) -baseline src/bench/scale-baseline.properties
+ * -tolerance 0.1 -update -report target/scale-report.json -jvmArgs "-XX:+UseSerialGC"
+ */
+public final class ScaleSuite {
+
+    private static final String CONVERTER = "tw.edu.nctu.mbc.mirtarbase.MirtarbaseToBiopax";
+
+    private List<String> heaps = Arrays.asList("256m", "512m");
+    private List<String> modes = Arrays.asList("model", "stream");
+    private int from = 25000;
+    private int max = 1600000;
+    private int steps = 2;
+    private long timeoutSeconds = 600;
+    private boolean xlsx = false;
+    private File baseline = new File("src/bench/scale-baseline.properties");
+    private double tolerance = 0.1;
+    private boolean update = false;
+    private File report = new File("target/scale-report.json");
+    private List<String> jvmArgs = new ArrayList<String>();
+    private final File workDir = new File(BenchData.dir(), "scale");
+
+    private final List<Run> runs = new ArrayList<Run>();
+
+    private ScaleSuite() {
+    }
+
+    // one conversion
+    private static final class Run {
+        String mode;
+        String heap;
+        int rows;
+        boolean ok;
+        String failure;
+        double seconds;
+        long peakHeapBytes;
+        long gcMillis;
+        double rowsPerSecond;
+    }
+
+    /**
+     * @param args options (see the class description)
+     * @throws Exception when the suite cannot run
+     */
+    public static void main(String[] args) throws Exception {
+        ScaleSuite suite = new ScaleSuite();
+        try {
+            suite.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(-1);
+        }
+        System.exit(suite.run() ? 0 : 1);
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if ("-update".equals(option)) {
+                update = true;
+                continue;
+            }
+            if ("-xlsx".equals(option)) {
+                xlsx = true;
+                continue;
+            }
+            if (i + 1 >= args.length)
+                throw new IllegalArgumentException("No value for " + option);
+            String value = args[++i];
+            if ("-heaps".equals(option))
+                heaps = Arrays.asList(value.split(","));
+            else if ("-modes".equals(option))
+                modes = Arrays.asList(value.split(","));
+            else if ("-from".equals(option))
+                from = Integer.parseInt(value);
+            else if ("-max".equals(option))
+                max = Integer.parseInt(value);
+            else if ("-steps".equals(option))
+                steps = Integer.parseInt(value);
+            else if ("-timeout".equals(option))
+                timeoutSeconds = Long.parseLong(value);
+            else if ("-baseline".equals(option))
+                baseline = new File(value);
+            else if ("-tolerance".equals(option))
+                tolerance = Double.parseDouble(value);
+            else if ("-report".equals(option))
+                report = new File(value);
+            else if ("-jvmArgs".equals(option))
+                jvmArgs = Arrays.asList(value.trim().split("\\s+"));
+            else
+                throw new IllegalArgumentException("Unknown option: " + option);
+        }
+        for (String mode : modes)
+            if (!"model".equals(mode) && !"stream".equals(mode))
+                throw new IllegalArgumentException("Unknown mode: " + mode);
+        if (from < 1 || max < from)
+            throw new IllegalArgumentException("Invalid -from/-max");
+    }
+
+    // runs all; returns false when a supported row count has regressed
+    private boolean run() throws IOException, InterruptedException {
+        Map<String, Integer> supported = new LinkedHashMap<String, Integer>();
+        for (String mode : modes)
+            for (String heap : heaps)
+                supported.put(mode + "." + heap, ceiling(mode, heap));
+        writeReport(supported);
+        System.out.println("Report: " + report);
+
+        Properties previous = new Properties();
+        if (baseline.isFile()) {
+            InputStream in = new FileInputStream(baseline);
+            try {
+                previous.load(in);
+            } finally {
+                in.close();
+            }
+        }
+        boolean ok = true;
+        for (Map.Entry<String, Integer> e : supported.entrySet()) {
+            String base = previous.getProperty(e.getKey());
+            String line = "Supported rows " + e.getKey() + ": " + e.getValue();
+            if (base == null) {
+                System.out.println(line + " (no baseline)");
+            } else if (e.getValue() < Integer.parseInt(base.trim()) * (1 - tolerance)) {
+                System.out.println(line + " - REGRESSION, the baseline is " + base);
+                ok = false;
+            } else {
+                System.out.println(line + " (baseline " + base + ")");
+            }
+        }
+        if (update) {
+            Properties values = new Properties();
+            for (Map.Entry<String, Integer> e : supported.entrySet())
+                values.setProperty(e.getKey(), String.valueOf(e.getValue()));
+            OutputStream out = new FileOutputStream(baseline);
+            try {
+                values.store(out, "Supported MTI rows by conversion mode and -Xmx (see ScaleSuite; " + options() + ")");
+            } finally {
+                out.close();
+            }
+            System.out.println("Updated the baseline: " + baseline);
+            return true;
+        }
+        return ok;
+    }
+
+    // the largest number of rows converted with the mode and heap
+    private int ceiling(String mode, String heap) throws IOException, InterruptedException {
+        int ok = 0;
+        int failed = 0;
+        for (int rows = from; rows <= max; rows *= 2) {
+            if (run(mode, heap, rows).ok) {
+                ok = rows;
+            } else {
+                failed = rows;
+                break;
+            }
+            if (rows > max / 2)
+                break;
+        }
+        for (int i = 0; i < steps && failed > 0; i++) {
+            int rows = (ok + failed) / 2 / 1000 * 1000;
+            if (rows <= ok || rows >= failed)
+                break;
+            if (run(mode, heap, rows).ok)
+                ok = rows;
+            else
+                failed = rows;
+        }
+        return ok;
+    }
+
+    private Run run(String mode, String heap, int rows) throws IOException, InterruptedException {
+        Run run = new Run();
+        run.mode = mode;
+        run.heap = heap;
+        run.rows = rows;
+        runs.add(run);
+
+        File input = MtiGenerator.get(BenchData.dir(), rows, xlsx);
+        workDir.mkdirs();
+        String name = mode + "-" + heap + "-" + rows;
+        File output = new File(workDir, name + ".owl");
+        File stats = new File(workDir, name + ".json");
+        File log = new File(workDir, name + ".log");
+        stats.delete();
+
+        List<String> command = new ArrayList<String>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        command.add("-Xmx" + heap);
+        command.addAll(jvmArgs);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(CONVERTER);
+        command.addAll(Arrays.asList("-i", input.getPath(), "-o", output.getPath(), "-j", stats.getPath()));
+        if ("stream".equals(mode))
+            command.add("-w");
+
+        long t = System.nanoTime();
+        final Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        Timer timer = new Timer(true);
+        final boolean[] killed = new boolean[1];
+        timer.schedule(new TimerTask() {
+            public void run() {
+                killed[0] = true;
+                process.destroy();
+            }
+        }, timeoutSeconds * 1000);
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(log));
+        try {
+            InputStream in = process.getInputStream();
+            byte[] buffer = new byte[1 << 16];
+            for (int n; (n = in.read(buffer)) >= 0; )
+                out.write(buffer, 0, n);
+        } finally {
+            out.close();
+        }
+        int exit = process.waitFor();
+        timer.cancel();
+        run.seconds = (System.nanoTime() - t) / 1e9;
+        output.delete();
+
+        String json = stats.isFile() ? read(stats) : null;
+        if (killed[0]) {
+            run.failure = "timeout";
+        } else if (exit != 0 || json == null) {
+            run.failure = "exit code " + exit + (contains(log, "OutOfMemoryError") ? " (out of memory)" : "");
+        } else if (number(json, "rows") != rows) {
+            run.failure = "converted " + (long) number(json, "rows") + " rows";
+        } else {
+            run.ok = true;
+            run.peakHeapBytes = (long) number(json, "peakHeapBytes");
+            run.gcMillis = (long) number(json, "gcMs");
+            run.rowsPerSecond = number(json, "rowsPerSecond");
+        }
+        System.out.println(String.format(Locale.US, "%-6s -Xmx%-5s %9d rows: %s in %.1f s; peak heap %d MB, GC %d ms, %.0f rows/s",
+                mode, heap, rows, run.ok ? "ok" : "FAILED (" + run.failure + ", see " + log + ")", run.seconds,
+                run.peakHeapBytes >> 20, run.gcMillis, run.rowsPerSecond));
+        return run;
+    }
+
+    private static String read(File file) throws IOException {
+        Reader in = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        try {
+            StringBuilder sb = new StringBuilder();
+            char[] buffer = new char[8192];
+            for (int n; (n = in.read(buffer)) >= 0; )
+                sb.append(buffer, 0, n);
+            return sb.toString();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static boolean contains(File file, String text) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            for (String line; (line = in.readLine()) != null; )
+                if (line.contains(text))
+                    return true;
+            return false;
+        } finally {
+            in.close();
+        }
+    }
+
+    // a top-level number of the stats JSON
+    private static double number(String json, String name) {
+        Matcher m = Pattern.compile("\"" + name + "\": (-?[0-9.]+)").matcher(json);
+        return m.find() ? Double.parseDouble(m.group(1)) : -1;
+    }
+
+    private String options() {
+        return "-from " + from + " -max " + max + " -steps " + steps + (xlsx ? " -xlsx" : "")
+                + (jvmArgs.isEmpty() ? "" : " -jvmArgs \"" + join(jvmArgs, " ") + "\"");
+    }
+
+    private static String join(Collection<String> values, String separator) {
+        StringBuilder sb = new StringBuilder();
+        for (String value : values) {
+            if (sb.length() > 0)
+                sb.append(separator);
+            sb.append(value);
+        }
+        return sb.toString();
+    }
+
+    private void writeReport(Map<String, Integer> supported) throws IOException {
+        File dir = report.getAbsoluteFile().getParentFile();
+        if (dir != null)
+            dir.mkdirs();
+        Writer out = new OutputStreamWriter(new FileOutputStream(report), "UTF-8");
+        try {
+            out.write("{\n  \"options\": \"" + options().replace("\"", "\\\"") + "\",\n");
+            out.write("  \"java\": \"" + System.getProperty("java.version") + "\",\n");
+            out.write("  \"supportedRows\": {");
+            String sep = "\n";
+            for (Map.Entry<String, Integer> e : supported.entrySet()) {
+                out.write(sep + "    \"" + e.getKey() + "\": " + e.getValue());
+                sep = ",\n";
+            }
+            out.write("\n  },\n  \"runs\": [");
+            sep = "\n";
+            for (Run run : runs) {
+                out.write(sep + String.format(Locale.US, "    {\"mode\": \"%s\", \"heap\": \"%s\", \"rows\": %d, \"ok\": %s, "
+                                + "\"failure\": %s, \"seconds\": %.1f, \"peakHeapBytes\": %d, \"gcMs\": %d, \"rowsPerSecond\": %.1f}",
+                        run.mode, run.heap, run.rows, run.ok, (run.failure == null) ? "null" : "\"" + run.failure + "\"",
+                        run.seconds, run.peakHeapBytes, run.gcMillis, run.rowsPerSecond));
+                sep = ",\n";
+            }
+            out.write("\n  ]\n}\n");
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package tw.edu.nctu.mbc.mirtarbase.bench;
+
+import org.biopax.paxtools.io.SimpleIOHandler;
+import org.biopax.paxtools.model.Model;
+import org.openjdk.jmh.annotations.*;
+import tw.edu.nctu.mbc.mirtarbase.converter.MirBase;
+import tw.edu.nctu.mbc.mirtarbase.converter.MirtarbaseToBiopaxConverter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializing the converted model to RDF/XML (to nowhere): SimpleIOHandler
+ * vs. the converter's writer (same output) using all the processors.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MINUTES)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WriteBenchmark {
+
+    @Param({"10000"})
+    public int rows;
+
+    private Model model;
+    private MirtarbaseToBiopaxConverter converter;
+
+    @Setup
+    public void setUp() throws IOException {
+        BenchData.setUp();
+        converter = new MirtarbaseToBiopaxConverter();
+        converter.setXmlBase("http://mirtarbase.mbc.nctu.edu.tw/#");
+        converter.setMakePathwayPerOrganism(true);
+        model = converter.convert(new ArrayRowSource(BenchData.table(rows)), MirBase.getDefault());
+        converter.setThreads(Runtime.getRuntime().availableProcessors());
+    }
+
+    @Benchmark
+    public void convertToOWL() {
+        new SimpleIOHandler().convertToOWL(model, new NullOutputStream());
+    }
+
+    @Benchmark
+    public void parallelWrite() throws IOException {
+        converter.write(model, new NullOutputStream());
+    }
+
+    static final class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package tw.edu.nctu.mbc.mirtarbase;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.biopax.paxtools.model.Model;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tw.edu.nctu.mbc.mirtarbase.converter.*;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local HTTP conversion service that keeps the miRBase data, the experiment rules (and their cache)
+ * and the JIT-compiled converter warm between the conversions, so that a job only pays for its own rows.
+ *
+ * POST /convert - converts the MTI data in the request body, or in the server-local file given by the 'input'
+ * parameter, and streams the BioPAX RDF/XML back. Query parameters (all optional): input, format
+ * (xlsx, xls, tsv, csv or columnar; detected by default), organisms (comma-separated, see -g), pathways (true/false),
+ * stream (true - write while converting, see -w), sort (true - group the rows by MIRT ID first, see -k),
+ * threads (1 to the number of CPUs). The 'input' parameter is only allowed when the server listens
+ * on a loopback address (there is no authentication).
+ * A job that fails before the output has started gets a 400 (bad parameters) or 500 response; when it fails
+ * while streaming, an error element is written after the RDF/XML root, which makes the output invalid.
+ *
+ * GET /status - the numbers of running, completed and failed jobs, etc., as JSON.
+ *
+ * At most the given number of jobs run at once; other conversion requests wait in the jobs queue.
+ * The requests are received (and /status is answered) by a separate small pool of threads,
+ * so that the status is available while all the job threads are busy.
+ */
+public final class ConversionServer {
+    private static Logger log = LoggerFactory.getLogger(ConversionServer.class);
+
+    private static final String TEXT = "text/plain; charset=UTF-8";
+
+    private final MirBase mirBase;
+    private final ExperimentNormalizer normalizer;
+    private final HttpServer server;
+    private final ExecutorService http;
+    private final ExecutorService executor;
+    // whether the 'input' parameter (a server-local file) is allowed
+    private final boolean localInput;
+    private final long started = System.currentTimeMillis();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rows = new AtomicLong();
+
+    /**
+     * Starts the server.
+     * @param address where to listen (e.g., 127.0.0.1:8080)
+     * @param mirBase miRBase data for all the jobs
+     * @param normalizer 'Experiments' normalizer for all the jobs (thread-safe)
+     * @param jobs max. number of concurrent jobs
+     * @throws IOException when the server cannot be started
+     */
+    public ConversionServer(InetSocketAddress address, MirBase mirBase, ExperimentNormalizer normalizer, int jobs)
+            throws IOException
+    {
+        if (jobs < 1)
+            throw new IllegalArgumentException("jobs < 1");
+        this.mirBase = mirBase;
+        this.normalizer = normalizer;
+        this.localInput = address.getAddress() != null && address.getAddress().isLoopbackAddress();
+        executor = Executors.newFixedThreadPool(jobs, threads("mirtarbase-job-"));
+        http = Executors.newFixedThreadPool(2, threads("mirtarbase-http-"));
+        server = HttpServer.create(address, 0);
+        server.setExecutor(http);
+        server.createContext("/convert", new HttpHandler() {
+            public void handle(final HttpExchange exchange) throws IOException {
+                if (!"POST".equals(exchange.getRequestMethod())) {
+                    try {
+                        respond(exchange, 405, TEXT, "Use POST");
+                    } finally {
+                        exchange.close();
+                    }
+                    return;
+                }
+                // the job thread responds and closes the exchange
+                executor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            convert(exchange);
+                        } catch (IOException e) {
+                            log.warn("Job " + exchange.getRequestURI() + ": " + e);
+                        } finally {
+                            exchange.close();
+                        }
+                    }
+                });
+            }
+        });
+        server.createContext("/status", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    respond(exchange, 200, "application/json; charset=UTF-8", status());
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+        log.info("Listening on http://" + address.getHostName() + ":" + server.getAddress().getPort()
+                + "/ (POST /convert, GET /status); max. " + jobs + " concurrent jobs"
+                + ((localInput) ? "" : "; the input parameter (server-local file) is not allowed (not a loopback address)"));
+    }
+
+    private static ThreadFactory threads(final String prefix) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            public Thread newThread(Runnable r) {
+                return new Thread(r, prefix + count.incrementAndGet());
+            }
+        };
+    }
+
+    /**
+     * @return the local port (e.g., when started with port 0)
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops accepting requests, waits for the running jobs up to the delay, and stops.
+     * @param delaySeconds max. time to wait
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        http.shutdownNow();
+        executor.shutdown();
+        try {
+            executor.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor.shutdownNow();
+    }
+
+    private void convert(HttpExchange exchange) throws IOException {
+        final long t = System.currentTimeMillis();
+        final int job = running.incrementAndGet();
+        boolean started = false;
+        MtiRowSource rows = null;
+        try {
+            Map<String, String> params = parameters(exchange.getRequestURI().getRawQuery());
+            MirtarbaseToBiopaxConverter converter = new MirtarbaseToBiopaxConverter();
+            converter.setXmlBase(MirtarbaseToBiopax.XML_BASE);
+            converter.setExperimentNormalizer(normalizer);
+            converter.setMakePathwayPerOrganism(Boolean.parseBoolean(params.get("pathways")));
+            if (params.containsKey("threads")) {
+                int threads = Integer.parseInt(params.get("threads"));
+                int max = Runtime.getRuntime().availableProcessors();
+                if (threads < 1 || threads > max)
+                    throw new IllegalArgumentException("threads must be 1 to " + max);
+                converter.setThreads(threads);
+            }
+            if (params.containsKey("input") && !localInput)
+                throw new SecurityException("The input parameter is only allowed on a loopback address");
+            if (params.containsKey("organisms"))
+                converter.setOrganisms(Arrays.asList(params.get("organisms").trim().split("\\s*,\\s*")));
+
+            rows = open(exchange, params.get("input"), params.get("format"));
+            if (Boolean.parseBoolean(params.get("sort")))
+                rows = new SortedRowSource(rows);
+
+            // the converter closes the output; the exchange is closed later (also after an error)
+            OutputStream out = new FilterOutputStream(exchange.getResponseBody()) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    this.out.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    flush();
+                }
+            };
+            if (Boolean.parseBoolean(params.get("stream"))) {
+                sendRdfXmlHeaders(exchange);
+                started = true;
+                converter.convertToOWL(rows, mirBase, out);
+            } else {
+                Model model = converter.convert(rows, mirBase);
+                sendRdfXmlHeaders(exchange);
+                started = true;
+                converter.write(model, out);
+            }
+            this.rows.addAndGet(converter.getStats().getRows());
+            completed.incrementAndGet();
+            log.info("Job " + exchange.getRequestURI() + " (" + job + " running) done in "
+                    + (System.currentTimeMillis() - t) + " ms; " + converter.getStats());
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            log.error("Job " + exchange.getRequestURI() + " failed", e);
+            int code = (e instanceof IllegalArgumentException) ? 400 : ((e instanceof SecurityException) ? 403 : 500);
+            if (!started) {
+                respond(exchange, code, TEXT, e.toString());
+            } else {
+                // the RDF/XML footer has been already written; make the output invalid (a second root)
+                Writer w = new OutputStreamWriter(exchange.getResponseBody(), "UTF-8");
+                w.write("\n<conversion-error>" + e.toString().replace("&", "&amp;").replace("<", "&lt;")
+                        + "</conversion-error>\n");
+                w.flush();
+            }
+        } finally {
+            running.decrementAndGet();
+            if (rows != null)
+                rows.close();
+        }
+    }
+
+    // the server-local input file, or the request body
+    private static MtiRowSource open(HttpExchange exchange, String input, String format) throws IOException {
+        MtiFormat mtiFormat = null;
+        if (format != null) {
+            try {
+                mtiFormat = MtiFormat.valueOf(format.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unsupported input format: " + format);
+            }
+        }
+        if (input != null) {
+            File file = new File(input);
+            if (!file.isFile())
+                throw new IllegalArgumentException("No such input file: " + input);
+            return ((mtiFormat != null) ? mtiFormat : MtiFormat.detect(file)).open(file);
+        }
+        InputStream in = new BufferedInputStream(exchange.getRequestBody(), 1 << 16);
+        return ((mtiFormat != null) ? mtiFormat : MtiFormat.detect(in)).open(in);
+    }
+
+    private static Map<String, String> parameters(String query) throws UnsupportedEncodingException {
+        Map<String, String> params = new HashMap<String, String>();
+        if (query == null)
+            return params;
+        for (String param : query.split("&")) {
+            if (param.isEmpty())
+                continue;
+            int i = param.indexOf('=');
+            if (i < 0)
+                params.put(URLDecoder.decode(param, "UTF-8"), "true");
+            else
+                params.put(URLDecoder.decode(param.substring(0, i), "UTF-8"),
+                        URLDecoder.decode(param.substring(i + 1), "UTF-8"));
+        }
+        return params;
+    }
+
+    private String status() {
+        return "{\"running\": " + running.get()
+                + ", \"completed\": " + completed.get()
+                + ", \"failed\": " + failed.get()
+                + ", \"rows\": " + rows.get()
+                + ", \"uptimeSeconds\": " + (System.currentTimeMillis() - started) / 1000
+                + ", \"mirbaseNames\": " + mirBase.getNumberOfNames()
+                + ", \"normalizerCache\": {\"hits\": " + normalizer.getHits()
+                + ", \"misses\": " + normalizer.getMisses() + "}}\n";
+    }
+
+    // chunked
+    private static void sendRdfXmlHeaders(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/rdf+xml; charset=UTF-8");
+        exchange.sendResponseHeaders(200, 0);
+    }
+
+    private static void respond(HttpExchange exchange, int code, String contentType, String text) throws IOException {
+        byte[] bytes = text.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(code, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+}
@@ -1,8 +1,18 @@
 package tw.edu.nctu.mbc.mirtarbase;
 
+import tw.edu.nctu.mbc.mirtarbase.converter.ColumnarRowWriter;
+import tw.edu.nctu.mbc.mirtarbase.converter.ConversionCache;
+import tw.edu.nctu.mbc.mirtarbase.converter.ConversionStats;
+import tw.edu.nctu.mbc.mirtarbase.converter.ExperimentNormalizer;
+import tw.edu.nctu.mbc.mirtarbase.converter.MirBase;
 import tw.edu.nctu.mbc.mirtarbase.converter.MirtarbaseToBiopaxConverter;
+import tw.edu.nctu.mbc.mirtarbase.converter.MtiFingerprints;
+import tw.edu.nctu.mbc.mirtarbase.converter.MtiFormat;
+import tw.edu.nctu.mbc.mirtarbase.converter.MtiIndex;
+import tw.edu.nctu.mbc.mirtarbase.converter.MtiRowSource;
+import tw.edu.nctu.mbc.mirtarbase.converter.RejectWriter;
+import tw.edu.nctu.mbc.mirtarbase.converter.SortedRowSource;
 import org.apache.commons.cli.*;
-import org.biopax.paxtools.io.SimpleIOHandler;
 import org.biopax.paxtools.model.Model;
 import org.biopax.paxtools.trove.TProvider;
 import org.biopax.paxtools.util.BPCollections;
@@ -10,64 +20,293 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.xml.bind.JAXBException;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
 
 public class MirtarbaseToBiopax {
     private static Logger log = LoggerFactory.getLogger(MirtarbaseToBiopax.class);
     private static final String helpText = MirtarbaseToBiopax.class.getSimpleName();
 
+    static final String XML_BASE = "http://mirtarbase.mbc.nctu.edu.tw/#";
+
     public static void main( String[] args ) throws JAXBException {
         final CommandLineParser clParser = new GnuParser();
         Options gnuOptions = new Options();
         gnuOptions
-            .addOption("i", "input", true, "input: MTI.xsl(x) file from miRTarBase [required]")
-            .addOption("o", "output", true, "output: (BioPAX) file name [required]")
+            .addOption("i", "input", true, "input: MTI.xls(x), .tsv or .csv file from miRTarBase [required]")
+            .addOption("f", "format", true, "input format: xlsx, xls, tsv, csv or columnar (see -b) [optional; detected from the file content by default]")
+            .addOption("o", "output", true, "output: (BioPAX) file name, or directory with -x [required]")
             .addOption("m", "mirbase-aliases", true, "miRNA aliases from mirBase (txt) [optional; use the embedded aliases.txt by default]")
             .addOption("s", "mirbase-organisms", true, "miRNA organisms from mirBase (txt) [optional]")
-            .addOption("p", "organism-pathway", false, "Generate a large 'pathway' to group target species interactions [optional]");
+            .addOption("e", "experiment-rules", true, "'Experiments' column fixes: regex<TAB>replacement per line [optional; use the embedded experiment-rules.txt by default]")
+            .addOption("p", "organism-pathway", false, "Generate a large 'pathway' to group target species interactions [optional]")
+            .addOption("w", "stream", false, "write the BioPAX output while converting, without building the whole model " +
+                    "(uses less memory; the input rows with the same MIRT ID must be adjacent) [optional]")
+            .addOption("t", "threads", true, "number of threads to read, prepare the rows and write the model " +
+                    "(the output is the same as with one) [optional; default: 1]")
+            .addOption("j", "stats", true, "save the conversion stats (stage timings, counters, peak heap) " +
+                    "to this JSON file [optional]")
+            .addOption("d", "delta", true, "fingerprints file of the previous run: convert only the interactions " +
+                    "(MIRT IDs) added or changed since, list the added/removed/changed IDs in <output>.delta.txt, " +
+                    "and update the file (created when missing) [optional]")
+            .addOption("g", "organisms", true, "convert only the interactions where the miRNA and the target " +
+                    "are of these organisms: comma-separated miRBase codes (e.g., hsa,mmu,rno), " +
+                    "NCBI taxonomy IDs or names [optional; all by default]")
+            .addOption("x", "shards", false, "write one BioPAX file per taxon (of the miRNA) with all the objects " +
+                    "it refers to, and manifest.json, to the output directory (-o); -t files at a time [optional]")
+            .addOption("z", "gzip", false, "gzip the per-taxon files (with -x) [optional]")
+            .addOption("k", "sort", false, "group the input rows by MIRT ID first, using temporary files " +
+                    "(java.io.tmpdir) and bounded memory, e.g., to stream (-w) unordered input [optional]")
+            .addOption("c", "checkpoint", true, "save checkpoints of the streaming conversion (-w) to this directory " +
+                    "(every " + MirtarbaseToBiopaxConverter.DEFAULT_CHECKPOINT_INTERVAL + " rows) [optional]")
+            .addOption("r", "resume", false, "continue the streaming conversion (-w) from the last checkpoint " +
+                    "in the -c directory, if any, with the same input and options [optional]")
+            .addOption("a", "cache", true, "cache directory: copy the result of a previous conversion of the same " +
+                    "input files with the same options, if any, or save this result there [optional]")
+            .addOption("l", "cache-limit", true, "max. size of the cache (-a), MB; the least recently used " +
+                    "results are deleted to fit [optional; default: " + (ConversionCache.DEFAULT_MAX_BYTES >> 20) + "]")
+            .addOption("b", "save-columnar", true, "also save the input rows, as they are read, to this columnar binary " +
+                    "file, to convert (-i) later instead of the original input, without parsing it again [optional]")
+            .addOption("n", "serve", true, "run the local conversion service at this [host:]port (default host: " +
+                    "127.0.0.1), with the miRBase data (-m, -s) and experiment rules (-e) loaded once; " +
+                    "POST /convert?organisms=..&pathways=true&stream=true with the MTI data in the body, " +
+                    "or ?input=<server file> (on a loopback address only); GET /status (-i, -o are not used) [optional]")
+            .addOption("q", "jobs", true, "max. number of concurrent conversions of the service (-n) " +
+                    "[optional; default: the number of processors]")
+            .addOption("u", "rejects", true, "write the rows with a missing required cell, a bad gene ID or PMID, or a duplicate evidence, " +
+                    "to this tab-separated file (row, MIRT ID, reason, value; continued when resuming, -r) " +
+                    "[optional; only counted and logged by default]")
+            .addOption("y", "index", true, "also save the miRNA - target gene index of the converted rows " +
+                    "(with PMIDs and support types) to this file, for lookups with the MtiIndex API [optional]");
 
         try {
             CommandLine commandLine = clParser.parse(gnuOptions, args);
 
             // input and output files are required!
-            if(!commandLine.hasOption("o") || !commandLine.hasOption("i")) {
+            if(!commandLine.hasOption("n") && (!commandLine.hasOption("o") || !commandLine.hasOption("i"))) {
                 HelpFormatter helpFormatter = new HelpFormatter();
                 helpFormatter.printHelp(helpText, gnuOptions);
                 System.exit(-1);
             }
 
+            if(commandLine.hasOption("x") && commandLine.hasOption("w"))
+                throw new ParseException("Options -x (shards) and -w (stream) cannot be used together");
+            if(commandLine.hasOption("c") && !commandLine.hasOption("w"))
+                throw new ParseException("Option -c (checkpoint) requires -w (stream)");
+            if(commandLine.hasOption("r") && !commandLine.hasOption("c"))
+                throw new ParseException("Option -r (resume) requires -c (checkpoint)");
+            if(commandLine.hasOption("a") && (commandLine.hasOption("d") || commandLine.hasOption("c")))
+                throw new ParseException("Option -a (cache) cannot be used with -d (delta) or -c (checkpoint)");
+            // (nothing would be written on a cache hit)
+            if(commandLine.hasOption("a") && (commandLine.hasOption("u") || commandLine.hasOption("b")))
+                throw new ParseException("Option -a (cache) cannot be used with -u (rejects) or -b (columnar)");
+            if(commandLine.hasOption("y") && (commandLine.hasOption("a") || commandLine.hasOption("d")
+                    || commandLine.hasOption("r")))
+                throw new ParseException("Option -y (index) cannot be used with -a (cache), -d (delta) or -r (resume)");
+
             // Memory efficiency fix for huge BioPAX models (enable trove collections)
             BPCollections.I.setProvider(new TProvider());
 
-            FileInputStream aliasesStream = null;
+            File aliasesFile = null;
             if(commandLine.hasOption("m")) {
                 String f = commandLine.getOptionValue("m");
                 log.info("Using mirBase aliases file: " + f);
-                aliasesStream = new FileInputStream(f);
+                aliasesFile = new File(f);
             }
 
-            FileInputStream organismsStream = null;
+            File organismsFile = null;
             if(commandLine.hasOption("s")) {
                 String f = commandLine.getOptionValue("s");
                 log.info("Using mirBase organisms file: " + f);
-                organismsStream = new FileInputStream(f);
+                organismsFile = new File(f);
             }
+            // create the converter
+            MirtarbaseToBiopaxConverter converter = new MirtarbaseToBiopaxConverter();
+            final ConversionStats stats = converter.getStats();
 
-            final String mtiFile = commandLine.getOptionValue("i");
-            log.info("MiRTarBase input: " + mtiFile);
+            // the built-in or cached pre-compiled index, if possible
+            final MirBase mirBase;
+            ConversionStats.Timer timer = stats.start(ConversionStats.Stage.LOAD_MIRBASE);
+            try {
+                mirBase = MirBase.load(aliasesFile, organismsFile);
+            } finally {
+                timer.stop();
+            }
 
-            // create, init the converter; run...
-            MirtarbaseToBiopaxConverter converter = new MirtarbaseToBiopaxConverter();
-            converter.setXmlBase("http://mirtarbase.mbc.nctu.edu.tw/#");
+            if(commandLine.hasOption("e")) {
+                String f = commandLine.getOptionValue("e");
+                log.info("Using experiment rules file: " + f);
+                FileInputStream rulesStream = new FileInputStream(f);
+                try {
+                    converter.setExperimentNormalizer(
+                        new ExperimentNormalizer(rulesStream, ExperimentNormalizer.DEFAULT_CACHE_SIZE));
+                } finally {
+                    rulesStream.close();
+                }
+            }
+            if(commandLine.hasOption("n")) {
+                serve(commandLine, mirBase, converter.getExperimentNormalizer());
+                return;
+            }
+
+            final File mtiFile = new File(commandLine.getOptionValue("i"));
+            MtiFormat format;
+            if(commandLine.hasOption("f")) {
+                String f = commandLine.getOptionValue("f");
+                try {
+                    format = MtiFormat.valueOf(f.toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    throw new ParseException("Unsupported input format: " + f);
+                }
+            } else {
+                format = MtiFormat.detect(mtiFile);
+            }
+            log.info("MiRTarBase input: " + mtiFile + " (" + format + ")");
+
+            // init the converter; run...
+            converter.setXmlBase(XML_BASE);
             if(commandLine.hasOption("p"))
                 converter.setMakePathwayPerOrganism(true);
-            // do convert
-            Model model = converter.convert(new FileInputStream(mtiFile), aliasesStream, organismsStream);
-
+            if(commandLine.hasOption("t")) {
+                String t = commandLine.getOptionValue("t");
+                try {
+                    converter.setThreads(Integer.parseInt(t));
+                } catch (IllegalArgumentException e) {
+                    throw new ParseException("Invalid number of threads: " + t);
+                }
+            }
+            if(commandLine.hasOption("g")) {
+                String g = commandLine.getOptionValue("g");
+                log.info("Converting only the interactions of organisms: " + g);
+                converter.setOrganisms(Arrays.asList(g.trim().split("\\s*,\\s*")));
+            }
+            if(commandLine.hasOption("c")) {
+                String c = commandLine.getOptionValue("c");
+                log.info("Saving checkpoints to: " + c);
+                converter.setCheckpointDir(new File(c));
+                // the rows of another input, or in another order, cannot continue the checkpoint
+                converter.setInputId(new ConversionCache.Key().add("input", mtiFile).add("format", format.name())
+                        .add("k", String.valueOf(commandLine.hasOption("k"))).toString());
+            }
+            // do convert (or copy the cached result)
             final String outputFile = commandLine.getOptionValue("o");
-            log.info("Writing the BioPAX model to: " + outputFile);
-            (new SimpleIOHandler()).convertToOWL(model, new FileOutputStream(outputFile));
+            ConversionCache cache = null;
+            ConversionCache.Key cacheKey = null;
+            boolean cached = false;
+            if(commandLine.hasOption("a")) {
+                long limit = ConversionCache.DEFAULT_MAX_BYTES;
+                if(commandLine.hasOption("l")) {
+                    String l = commandLine.getOptionValue("l");
+                    try {
+                        limit = Long.parseLong(l) << 20;
+                    } catch (NumberFormatException e) {
+                        throw new ParseException("Invalid cache size limit: " + l);
+                    }
+                }
+                cache = new ConversionCache(new File(commandLine.getOptionValue("a")), limit);
+                cacheKey = cacheKey(commandLine, format, mtiFile, aliasesFile, organismsFile);
+                cached = cache.get(cacheKey, new File(outputFile));
+                stats.cache(cached);
+                log.info("Conversion cache " + ((cached) ? "hit" : "miss") + " (" + cacheKey + "); totals: "
+                        + cache.getCounts());
+            }
+            if(!cached) {
+                MtiFingerprints fingerprints = null;
+                if(commandLine.hasOption("d")) {
+                    File f = new File(commandLine.getOptionValue("d"));
+                    MtiFingerprints previous = new MtiFingerprints();
+                    if(f.exists()) {
+                        log.info("Using the previous run's fingerprints: " + f);
+                        previous = MtiFingerprints.read(f);
+                    }
+                    MtiRowSource rows = format.open(mtiFile);
+                    try {
+                        fingerprints = MtiFingerprints.compute(rows);
+                    } finally {
+                        rows.close();
+                    }
+                    // a rebuilt converter, other options or data may convert the same rows differently
+                    fingerprints.setOptions(converter.getOutputOptions(mirBase) + "; build=" + new ConversionCache.Key()
+                            .add("build", MirtarbaseToBiopax.class.getResourceAsStream("/build.properties")));
+                    MtiFingerprints.Delta delta = fingerprints.diff(previous);
+                    if(delta.isOptionsChanged())
+                        log.warn("The previous run's fingerprints were made with other options, miRBase data, " +
+                                "experiment rules or converter build; converting all the interactions");
+                    log.info("Interactions since the previous run: " + delta);
+                    Writer deltaWriter = new OutputStreamWriter(new FileOutputStream(outputFile + ".delta.txt"), "UTF-8");
+                    try {
+                        delta.write(deltaWriter);
+                    } finally {
+                        deltaWriter.close();
+                    }
+                    converter.setIds(delta.getAddedOrChanged());
+                }
+                MtiRowSource rows = format.open(mtiFile);
+                if(commandLine.hasOption("b")) {
+                    String b = commandLine.getOptionValue("b");
+                    log.info("Saving the input rows to the columnar file: " + b);
+                    rows = new ColumnarRowWriter(rows, new File(b));
+                }
+                if(commandLine.hasOption("k"))
+                    rows = new SortedRowSource(rows);
+                MtiIndex.Builder indexBuilder = null;
+                if(commandLine.hasOption("y")) {
+                    indexBuilder = new MtiIndex.Builder();
+                    converter.setIndexBuilder(indexBuilder);
+                }
+                RejectWriter rejects = null;
+                if(commandLine.hasOption("u")) {
+                    String u = commandLine.getOptionValue("u");
+                    log.info("Writing the rejected rows to: " + u);
+                    // continued from the checkpoint when resuming
+                    rejects = new RejectWriter(new File(u), commandLine.hasOption("r"));
+                    converter.setRejects(rejects);
+                }
+                try {
+                    if(commandLine.hasOption("w")) {
+                        log.info("Converting and writing the BioPAX objects to: " + outputFile);
+                        converter.convertToOWL(rows, mirBase, new File(outputFile), commandLine.hasOption("r"));
+                    } else if(commandLine.hasOption("x")) {
+                        Model model = converter.convert(rows, mirBase);
+                        log.info("Writing the BioPAX files per taxon to: " + outputFile);
+                        converter.writeShards(model, new File(outputFile), commandLine.hasOption("z"));
+                    } else {
+                        Model model = converter.convert(rows, mirBase);
+                        log.info("Writing the BioPAX model to: " + outputFile);
+                        converter.write(model, new FileOutputStream(outputFile));
+                    }
+                } finally {
+                    rows.close();
+                    if(rejects != null)
+                        rejects.close();
+                }
+                if(indexBuilder != null) {
+                    String y = commandLine.getOptionValue("y");
+                    log.info("Saving the miRNA - target gene index to: " + y);
+                    indexBuilder.write(new File(y));
+                }
+                if(fingerprints != null) {
+                    String f = commandLine.getOptionValue("d");
+                    log.info("Saving the fingerprints for the next run: " + f);
+                    fingerprints.write(new File(f));
+                }
+                if(cache != null) {
+                    log.info("Saving the result to the cache: " + commandLine.getOptionValue("a"));
+                    cache.put(cacheKey, new File(outputFile));
+                }
+            }
+
+            if(commandLine.hasOption("j")) {
+                String f = commandLine.getOptionValue("j");
+                log.info("Saving the conversion stats to: " + f);
+                Writer statsWriter = new OutputStreamWriter(new FileOutputStream(f), "UTF-8");
+                try {
+                    stats.writeJson(statsWriter);
+                } finally {
+                    statsWriter.close();
+                }
+            }
 
             log.info("All done.");
         } catch (ParseException e) {
@@ -80,4 +319,48 @@ public class MirtarbaseToBiopax {
         }
     }
 
+    // starts the conversion service (the server threads keep running)
+    private static void serve(CommandLine commandLine, MirBase mirBase, ExperimentNormalizer normalizer)
+            throws ParseException, IOException
+    {
+        String address = commandLine.getOptionValue("n");
+        int i = address.lastIndexOf(':');
+        String host = (i < 0) ? "127.0.0.1" : address.substring(0, i);
+        int port, jobs;
+        try {
+            port = Integer.parseInt(address.substring(i + 1));
+            jobs = (commandLine.hasOption("q")) ? Integer.parseInt(commandLine.getOptionValue("q"))
+                    : Runtime.getRuntime().availableProcessors();
+        } catch (NumberFormatException e) {
+            throw new ParseException("Invalid port or number of jobs: " + e.getMessage());
+        }
+        final ConversionServer server = new ConversionServer(new InetSocketAddress(host, port), mirBase, normalizer, jobs);
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            public void run() {
+                log.info("Stopping the conversion service...");
+                server.stop(10);
+            }
+        }));
+    }
+
+    // the SHA-256 of the input files, built-in data and the options that affect the output
+    private static ConversionCache.Key cacheKey(CommandLine commandLine, MtiFormat format, File mtiFile,
+                                                File aliasesFile, File organismsFile) throws IOException
+    {
+        ConversionCache.Key key = new ConversionCache.Key();
+        key.add("input", mtiFile).add("format", format.name());
+        key.add("aliases", (aliasesFile != null)
+                ? new FileInputStream(aliasesFile) : MirBase.class.getResourceAsStream("/aliases.txt"));
+        key.add("organisms", (organismsFile != null)
+                ? new FileInputStream(organismsFile) : MirBase.class.getResourceAsStream("/organisms.txt"));
+        key.add("experiment-rules", (commandLine.hasOption("e"))
+                ? new FileInputStream(commandLine.getOptionValue("e"))
+                : ExperimentNormalizer.class.getResourceAsStream("/experiment-rules.txt"));
+        // the converter version and build time, so that a rebuilt converter does not reuse the old results
+        key.add("build", MirtarbaseToBiopax.class.getResourceAsStream("/build.properties"));
+        for(String option : new String[]{"p", "w", "g", "x", "z", "k"})
+            key.add(option, (commandLine.hasOption(option)) ? String.valueOf(commandLine.getOptionValue(option)) : null);
+        return key;
+    }
+
 }
@@ -0,0 +1,183 @@
+package tw.edu.nctu.mbc.mirtarbase.converter;
+
+import org.biopax.paxtools.io.SimpleIOHandler;
+import org.biopax.paxtools.model.BioPAXElement;
+import org.biopax.paxtools.model.BioPAXLevel;
+import org.biopax.paxtools.model.Model;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Writes BioPAX L3 RDF/XML one element at a time,
+ * in the same format as {@link SimpleIOHandler#convertToOWL(Model, OutputStream)},
+ * so that a complete model never has to be built.
+ *
+ * Object properties are written as references (URIs); it is up to the caller
+ * to write every referenced element exactly once.
+ *
+ * Writing a model with {@link #writeAll(Collection, ExecutorService)} and closing
+ * gives exactly the same bytes as convertToOWL, only the elements are serialized in parallel.
+ */
+final class BiopaxStreamWriter implements Closeable {
+    private static final String FOOTER = "</rdf:RDF>";
+    private static final int CHUNK_SIZE = 1000;
+
+    private final SimpleIOHandler handler = new SimpleIOHandler(BioPAXLevel.L3);
+    private final CountingOutputStream bytes;
+    private final Writer writer;
+    private final String xmlBase;
+    private int count = 0;
+
+    /**
+     * Writes the RDF/XML header.
+     * @param out output stream (gets closed by {@link #close()})
+     * @param xmlBase xml:base, used to shorten the URIs
+     * @throws IOException when there is an I/O error
+     */
+    BiopaxStreamWriter(OutputStream out, String xmlBase) throws IOException {
+        this(out, xmlBase, 0L, 0, true);
+    }
+
+    /**
+     * Continues an output that has been flushed (see {@link #flush()}) and cut there
+     * (the header is not written again).
+     * @param out output stream, positioned after the bytes written before (gets closed by {@link #close()})
+     * @param xmlBase xml:base, the same as before
+     * @param bytes number of bytes written before
+     * @param count number of elements written before
+     * @throws IOException when there is an I/O error
+     */
+    BiopaxStreamWriter(OutputStream out, String xmlBase, long bytes, int count) throws IOException {
+        this(out, xmlBase, bytes, count, false);
+    }
+
+    private BiopaxStreamWriter(OutputStream out, String xmlBase, long bytes, int count, boolean writeHeader)
+            throws IOException
+    {
+        this.bytes = new CountingOutputStream(out, bytes);
+        writer = new BufferedWriter(new OutputStreamWriter(this.bytes, "UTF-8"), 1 << 16);
+        this.xmlBase = xmlBase;
+        this.count = count;
+        String header = header(handler, xmlBase); //also initializes the handler
+        if (writeHeader)
+            writer.write(header);
+    }
+
+    // makes the handler write the header and initialize its exporter (namespaces, xml:base)
+    private static String header(SimpleIOHandler handler, String xmlBase) throws IOException {
+        Model empty = BioPAXLevel.L3.getDefaultFactory().createModel();
+        empty.setXmlBase(xmlBase);
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        handler.convertToOWL(empty, header);
+        String s = header.toString("UTF-8").trim();
+        if (!s.endsWith(FOOTER))
+            throw new IllegalStateException("Unexpected RDF/XML header: " + s);
+        return s.substring(0, s.length() - FOOTER.length()).trim();
+    }
+
+    void write(BioPAXElement element) throws IOException {
+        handler.writeObject(writer, element);
+        count++;
+    }
+
+    /**
+     * Writes the elements, in the iteration order, serializing chunks of them in parallel.
+     * @param elements elements to write
+     * @param executor threads to use
+     * @throws IOException when there is an I/O error
+     */
+    void writeAll(Collection<? extends BioPAXElement> elements, ExecutorService executor) throws IOException {
+        final ThreadLocal<SimpleIOHandler> handlers = new ThreadLocal<SimpleIOHandler>();
+        // chunks in order; not too many in memory at once
+        final Queue<Future<String>> chunks = new LinkedList<Future<String>>();
+        final int maxChunks = 4 * Runtime.getRuntime().availableProcessors();
+        Iterator<? extends BioPAXElement> it = elements.iterator();
+        try {
+            while (it.hasNext() || !chunks.isEmpty()) {
+                while (it.hasNext() && chunks.size() < maxChunks) {
+                    final List<BioPAXElement> chunk = new ArrayList<BioPAXElement>(CHUNK_SIZE);
+                    while (it.hasNext() && chunk.size() < CHUNK_SIZE)
+                        chunk.add(it.next());
+                    chunks.add(executor.submit(new Callable<String>() {
+                        public String call() throws IOException {
+                            SimpleIOHandler h = handlers.get();
+                            if (h == null) {
+                                h = new SimpleIOHandler(BioPAXLevel.L3);
+                                header(h, xmlBase);
+                                handlers.set(h);
+                            }
+                            StringWriter w = new StringWriter();
+                            for (BioPAXElement element : chunk)
+                                h.writeObject(w, element);
+                            return w.toString();
+                        }
+                    }));
+                    count += chunk.size();
+                }
+                writer.write(chunks.remove().get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        } finally {
+            for (Future<String> f : chunks)
+                f.cancel(true);
+        }
+    }
+
+    /**
+     * @return the number of elements written so far
+     */
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * Writes out the buffered text.
+     * @return the number of bytes written so far
+     * @throws IOException when there is an I/O error
+     */
+    long flush() throws IOException {
+        writer.flush();
+        return bytes.count;
+    }
+
+    /**
+     * Writes the RDF/XML footer and closes the output.
+     * @throws IOException when there is an I/O error
+     */
+    public void close() throws IOException {
+        try {
+            writer.write("\n" + FOOTER);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out, long count) {
+            super(out);
+            this.count = count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
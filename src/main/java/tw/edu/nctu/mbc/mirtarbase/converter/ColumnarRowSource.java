@@ -0,0 +1,172 @@
+package tw.edu.nctu.mbc.mirtarbase.converter;
+
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads MTI rows saved in the columnar binary format by {@link ColumnarRowWriter}
+ * (memory-mapped, when it's a file), so that the same data can be converted again without parsing
+ * the Excel or text input. The rows and cell values (as they were read, not trimmed) are the same
+ * as of the original row source; only the integer values of the gene ID and PMID columns are kept
+ * (the converter uses them so anyway), and the text of the cells there that are not integers
+ * (e.g., 'n/a', for the rejects).
+ *
+ * File format (big-endian): MAGIC, VERSION, number of rows, the row numbers column (int per row);
+ * then, for each text column (0-3, 5-7): the dictionary (number of values, then length-prefixed UTF-8 values)
+ * and the column (int dictionary index per row, -1 for a missing value); then, for each integer column (4, 8),
+ * the {@link #getInteger(int)} values (int per row), and the number of its cells that are not integers,
+ * then (row index, length-prefixed UTF-8 cell text) for each of them.
+ */
+public final class ColumnarRowSource implements MtiRowSource {
+    static final int MAGIC = 0x4D544942; //"MTIB"
+    static final int VERSION = 3;
+
+    static final int[] TEXT_COLUMNS = {0, 1, 2, 3, 5, 6, 7};
+    static final int[] INTEGER_COLUMNS = {4, 8};
+
+    private final int rows;
+    private final IntBuffer rowNumbers;
+    private final String[][] dictionaries = new String[COLUMNS][];
+    private final IntBuffer[] codes = new IntBuffer[COLUMNS];
+    // the text of the integer column cells that are not integers, by row index
+    private final TIntObjectHashMap<String>[] badTexts = newMapArray(COLUMNS);
+    private int r = -1;
+
+    /**
+     * Maps the file into memory.
+     * @param file columnar MTI file
+     * @throws IOException when there is an I/O error or it's not a columnar MTI file
+     */
+    public ColumnarRowSource(File file) throws IOException {
+        this(map(file));
+    }
+
+    /**
+     * @param in columnar MTI data (read into memory, and closed)
+     * @throws IOException when there is an I/O error or invalid data
+     */
+    public ColumnarRowSource(InputStream in) throws IOException {
+        this(read(in));
+    }
+
+    private ColumnarRowSource(ByteBuffer buffer) throws IOException {
+        try {
+            if (buffer.getInt() != MAGIC)
+                throw new IOException("Not a columnar MTI file");
+            int version = buffer.getInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported columnar MTI file version " + version);
+            rows = buffer.getInt();
+            rowNumbers = intColumn(buffer, rows);
+            for (int c : TEXT_COLUMNS) {
+                dictionaries[c] = readDictionary(buffer);
+                codes[c] = intColumn(buffer, rows);
+            }
+            for (int c : INTEGER_COLUMNS) {
+                codes[c] = intColumn(buffer, rows);
+                badTexts[c] = new TIntObjectHashMap<String>();
+                for (int n = buffer.getInt(); n > 0; n--) {
+                    int row = buffer.getInt();
+                    byte[] bytes = new byte[buffer.getInt()];
+                    buffer.get(bytes);
+                    badTexts[c].put(row, new String(bytes, "UTF-8"));
+                }
+            }
+        } catch (RuntimeException e) { //BufferUnderflowException, IllegalArgumentException
+            throw new IOException("Invalid columnar MTI data", e);
+        }
+    }
+
+    @SuppressWarnings("unchecked") //no generic array creation
+    private static TIntObjectHashMap<String>[] newMapArray(int n) {
+        return new TIntObjectHashMap[n];
+    }
+
+    static ByteBuffer map(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); //stays valid after closing
+        } finally {
+            in.close();
+        }
+    }
+
+    private static ByteBuffer read(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+            byte[] buf = new byte[1 << 16];
+            for (int n; (n = in.read(buf)) >= 0; )
+                bytes.write(buf, 0, n);
+            return ByteBuffer.wrap(bytes.toByteArray());
+        } finally {
+            in.close();
+        }
+    }
+
+    // a view of the next n bytes; moves the buffer position after them
+    static ByteBuffer slice(ByteBuffer buffer, int n) {
+        ByteBuffer slice = buffer.slice();
+        slice.limit(n);
+        buffer.position(buffer.position() + n);
+        return slice;
+    }
+
+    static IntBuffer intColumn(ByteBuffer buffer, int rows) {
+        return slice(buffer, 4 * rows).asIntBuffer();
+    }
+
+    static String[] readDictionary(ByteBuffer buffer) throws IOException {
+        String[] values = new String[buffer.getInt()];
+        for (int i = 0; i < values.length; i++) {
+            byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            values[i] = new String(bytes, "UTF-8");
+        }
+        return values;
+    }
+
+    /**
+     * @return number of rows
+     */
+    public int size() {
+        return rows;
+    }
+
+    public boolean next() {
+        if (r + 1 >= rows)
+            return false;
+        r++;
+        return true;
+    }
+
+    public int getRowNumber() {
+        return rowNumbers.get(r);
+    }
+
+    public String getString(int column) {
+        if (dictionaries[column] == null) { //integer column
+            int value = codes[column].get(r);
+            if (value == NOT_AN_INTEGER)
+                return badTexts[column].get(r);
+            return (value != MISSING) ? String.valueOf(value) : null;
+        }
+        int code = codes[column].get(r);
+        return (code < 0) ? null : dictionaries[column][code];
+    }
+
+    public int getInteger(int column) {
+        if (dictionaries[column] == null)
+            return codes[column].get(r);
+        int code = codes[column].get(r);
+        return (code < 0) ? MISSING : IntegerCells.parse(dictionaries[column][code]);
+    }
+
+    public void close() {
+        //nothing to release (the mapping is released by GC)
+    }
+}
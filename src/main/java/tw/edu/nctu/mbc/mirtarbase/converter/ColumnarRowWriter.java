@@ -0,0 +1,159 @@
+package tw.edu.nctu.mbc.mirtarbase.converter;
+
+import gnu.trove.list.array.TIntArrayList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Passes the rows through from another row source while collecting them, column by column
+ * (the text values dictionary-encoded), and saves them in the columnar binary format
+ * (see {@link ColumnarRowSource}) once all the rows have been read; so, after the first
+ * conversion, the same input can be converted again with {@link MtiFormat#COLUMNAR}.
+ *
+ * Nothing is saved when the rows are not read to the end.
+ */
+public final class ColumnarRowWriter implements MtiRowSource {
+    private static Logger log = LoggerFactory.getLogger(ColumnarRowWriter.class);
+
+    private final MtiRowSource rows;
+    private final File file;
+
+    private final TIntArrayList rowNumbers = new TIntArrayList();
+    private final Dictionary[] dictionaries = new Dictionary[COLUMNS];
+    private final TIntArrayList[] codes = new TIntArrayList[COLUMNS];
+    // the rows (indices) and text of the integer column cells that are not integers
+    private final TIntArrayList[] badRows = new TIntArrayList[COLUMNS];
+    private final List<String>[] badTexts = newListArray(COLUMNS);
+    private boolean saved = false;
+
+    /**
+     * @param rows input rows (closed by {@link #close()})
+     * @param file where to save the rows
+     */
+    public ColumnarRowWriter(MtiRowSource rows, File file) {
+        this.rows = rows;
+        this.file = file;
+        for (int c : ColumnarRowSource.TEXT_COLUMNS) {
+            dictionaries[c] = new Dictionary();
+            codes[c] = new TIntArrayList();
+        }
+        for (int c : ColumnarRowSource.INTEGER_COLUMNS) {
+            codes[c] = new TIntArrayList();
+            badRows[c] = new TIntArrayList();
+            badTexts[c] = new ArrayList<String>();
+        }
+    }
+
+    @SuppressWarnings("unchecked") //no generic array creation
+    private static List<String>[] newListArray(int n) {
+        return new List[n];
+    }
+
+    public boolean next() throws IOException {
+        if (!rows.next()) {
+            if (!saved) {
+                save();
+                saved = true;
+            }
+            return false;
+        }
+
+        rowNumbers.add(rows.getRowNumber());
+        for (int c : ColumnarRowSource.TEXT_COLUMNS)
+            codes[c].add(dictionaries[c].code(rows.getString(c)));
+        for (int c : ColumnarRowSource.INTEGER_COLUMNS) {
+            int value = rows.getInteger(c);
+            if (value == NOT_AN_INTEGER) {
+                badRows[c].add(rowNumbers.size() - 1);
+                badTexts[c].add(rows.getString(c));
+            }
+            codes[c].add(value);
+        }
+        return true;
+    }
+
+    private void save() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+        try {
+            out.writeInt(ColumnarRowSource.MAGIC);
+            out.writeInt(ColumnarRowSource.VERSION);
+            out.writeInt(rowNumbers.size());
+            write(out, rowNumbers);
+            for (int c : ColumnarRowSource.TEXT_COLUMNS) {
+                dictionaries[c].write(out);
+                write(out, codes[c]);
+            }
+            for (int c : ColumnarRowSource.INTEGER_COLUMNS) {
+                write(out, codes[c]);
+                out.writeInt(badRows[c].size());
+                for (int i = 0; i < badRows[c].size(); i++) {
+                    out.writeInt(badRows[c].getQuick(i));
+                    byte[] bytes = badTexts[c].get(i).getBytes("UTF-8");
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        FileReplacer.replace(tmp, file);
+        log.info("Saved " + rowNumbers.size() + " MTI rows to the columnar file: " + file
+                + " (" + file.length() + " bytes)");
+    }
+
+    private static void write(DataOutputStream out, TIntArrayList column) throws IOException {
+        for (int i = 0; i < column.size(); i++)
+            out.writeInt(column.getQuick(i));
+    }
+
+    public int getRowNumber() {
+        return rows.getRowNumber();
+    }
+
+    public String getString(int column) {
+        return rows.getString(column);
+    }
+
+    public int getInteger(int column) {
+        return rows.getInteger(column);
+    }
+
+    public void close() throws IOException {
+        rows.close();
+    }
+
+    // distinct values of a column, in the order of appearance
+    private static final class Dictionary {
+        private final Map<String, Integer> codes = new HashMap<String, Integer>();
+        private final List<String> values = new ArrayList<String>();
+
+        // -1 for null
+        int code(String value) {
+            if (value == null)
+                return -1;
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = values.size();
+                codes.put(value, code);
+                values.add(value);
+            }
+            return code;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(values.size());
+            for (String value : values) {
+                byte[] bytes = value.getBytes("UTF-8");
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+    }
+}
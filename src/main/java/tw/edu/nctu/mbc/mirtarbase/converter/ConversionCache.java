@@ -0,0 +1,312 @@
+package tw.edu.nctu.mbc.mirtarbase.converter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Local on-disk cache of the conversion results (a BioPAX file or a directory of files),
+ * addressed by the SHA-256 of all the inputs and the options that affect the output (see {@link Key}),
+ * so that a repeated conversion of the same data only copies the previous result.
+ *
+ * Each entry is a sub-directory named by the key; its last-modified time is the last use,
+ * and the least recently used entries are deleted when the total size exceeds the limit.
+ * The hit/miss/eviction counts are kept in cache.properties (across the runs).
+ * Entries are stored via a temporary directory and a rename, and the counts via a temporary file,
+ * so a concurrent run never sees a partial entry or counts file (the counts may, however,
+ * miss a concurrent update).
+ */
+public final class ConversionCache {
+    private static Logger log = LoggerFactory.getLogger(ConversionCache.class);
+
+    public static final long DEFAULT_MAX_BYTES = 10L << 30; //10 GB
+
+    private static final String DATA = "data";
+    private static final String PROPERTIES = "cache.properties";
+    private static final String TMP_PREFIX = "tmp-";
+
+    private final File dir;
+    private final long maxBytes;
+
+    /**
+     * @param dir cache directory (created when missing)
+     * @param maxBytes max. total size of the entries
+     * @throws IOException when the directory cannot be created
+     */
+    public ConversionCache(File dir, long maxBytes) throws IOException {
+        if (maxBytes < 1)
+            throw new IllegalArgumentException("maxBytes < 1");
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Cannot create the cache directory: " + dir);
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Copies the cached result to the output, if there is one, and counts a hit or a miss.
+     * @param key cache key
+     * @param output output file or directory (as it was given to {@link #put(Key, File)})
+     * @return true on a hit
+     * @throws IOException when there is an I/O error
+     */
+    public boolean get(Key key, File output) throws IOException {
+        File entry = new File(dir, key.toString());
+        File data = new File(entry, DATA);
+        if (!data.exists()) {
+            count("misses", 1);
+            return false;
+        }
+        entry.setLastModified(System.currentTimeMillis());
+        copy(data, output);
+        count("hits", 1);
+        return true;
+    }
+
+    /**
+     * Stores a copy of the result, then evicts the least recently used entries over the size limit.
+     * @param key cache key
+     * @param output output file or directory
+     * @throws IOException when there is an I/O error
+     */
+    public void put(Key key, File output) throws IOException {
+        File entry = new File(dir, key.toString());
+        if (entry.exists())
+            return; //stored by a concurrent run
+        long size = size(output);
+        if (size > maxBytes) {
+            log.info("Not caching " + output + ": " + size + " bytes is over the cache size limit");
+            return;
+        }
+
+        File tmp = new File(dir, TMP_PREFIX + key + "-" + System.nanoTime());
+        try {
+            if (!tmp.mkdir())
+                throw new IOException("Cannot create " + tmp);
+            copy(output, new File(tmp, DATA));
+            if (!tmp.renameTo(entry) && !entry.exists())
+                throw new IOException("Cannot rename " + tmp + " to " + entry);
+        } finally {
+            if (tmp.exists())
+                delete(tmp);
+        }
+        evict(entry);
+    }
+
+    // deletes the least recently used entries (not this one) until the total size is within the limit
+    private void evict(File keep) throws IOException {
+        File[] entries = dir.listFiles(new FileFilter() {
+            public boolean accept(File f) {
+                return f.isDirectory() && !f.getName().startsWith(TMP_PREFIX);
+            }
+        });
+        if (entries == null)
+            return;
+        final Map<File, Long> lastUsed = new HashMap<File, Long>();
+        long total = 0;
+        for (File entry : entries) {
+            lastUsed.put(entry, entry.lastModified());
+            total += size(entry);
+        }
+        Arrays.sort(entries, new Comparator<File>() {
+            public int compare(File a, File b) {
+                return lastUsed.get(a).compareTo(lastUsed.get(b));
+            }
+        });
+        int evicted = 0;
+        for (int i = 0; i < entries.length && total > maxBytes; i++) {
+            if (entries[i].equals(keep))
+                continue;
+            total -= size(entries[i]);
+            delete(entries[i]);
+            evicted++;
+        }
+        if (evicted > 0) {
+            log.info("Evicted " + evicted + " least recently used entries from the cache: " + dir);
+            count("evictions", evicted);
+        }
+    }
+
+    /**
+     * @return total hits, misses and evictions recorded in the cache directory
+     * @throws IOException when there is an I/O error
+     */
+    public Map<String, Long> getCounts() throws IOException {
+        Properties properties = readProperties();
+        Map<String, Long> counts = new LinkedHashMap<String, Long>();
+        for (String name : new String[]{"hits", "misses", "evictions"})
+            counts.put(name, Long.parseLong(properties.getProperty(name, "0")));
+        return counts;
+    }
+
+    private synchronized void count(String name, long n) throws IOException {
+        Properties properties = readProperties();
+        properties.setProperty(name, String.valueOf(Long.parseLong(properties.getProperty(name, "0")) + n));
+        File tmp = new File(dir, TMP_PREFIX + PROPERTIES + "-" + System.nanoTime());
+        OutputStream out = new FileOutputStream(tmp);
+        try {
+            properties.store(out, "miRTarBase conversion cache counts");
+        } finally {
+            out.close();
+        }
+        FileReplacer.replace(tmp, new File(dir, PROPERTIES));
+    }
+
+    private Properties readProperties() throws IOException {
+        Properties properties = new Properties();
+        File f = new File(dir, PROPERTIES);
+        if (f.isFile()) {
+            InputStream in = new FileInputStream(f);
+            try {
+                properties.load(in);
+            } catch (IllegalArgumentException e) {
+                log.warn("Ignored the bad cache counts: " + f + "; " + e);
+            } finally {
+                in.close();
+            }
+        }
+        return properties;
+    }
+
+    private static long size(File f) {
+        if (!f.isDirectory())
+            return f.length();
+        long size = 0;
+        File[] files = f.listFiles();
+        if (files != null)
+            for (File file : files)
+                size += size(file);
+        return size;
+    }
+
+    // copies a file, or a directory recursively (into the existing directory, if any)
+    private static void copy(File from, File to) throws IOException {
+        if (from.isDirectory()) {
+            if (!to.isDirectory() && !to.mkdirs())
+                throw new IOException("Cannot create the directory: " + to);
+            File[] files = from.listFiles();
+            if (files == null)
+                throw new IOException("Cannot list " + from);
+            for (File file : files)
+                copy(file, new File(to, file.getName()));
+            return;
+        }
+        FileChannel in = new FileInputStream(from).getChannel();
+        try {
+            FileChannel out = new FileOutputStream(to).getChannel();
+            try {
+                long size = in.size();
+                for (long position = 0; position < size; )
+                    position += in.transferTo(position, size - position, out);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void delete(File f) throws IOException {
+        File[] files = f.listFiles();
+        if (files != null)
+            for (File file : files)
+                delete(file);
+        if (f.exists() && !f.delete())
+            throw new IOException("Cannot delete " + f);
+    }
+
+    /**
+     * SHA-256 of the conversion inputs (file contents, read as a stream) and options, in the order they are added.
+     */
+    public static final class Key {
+        private final MessageDigest digest;
+        private final byte[] buffer = new byte[1 << 16];
+        private String hex;
+
+        public Key() {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Adds a value.
+         * @param name what the value is (e.g., the option name)
+         * @param value value or null
+         * @return this key
+         */
+        public Key add(String name, String value) {
+            update(name);
+            update((value != null) ? "=" + value : "<null>");
+            return this;
+        }
+
+        /**
+         * Adds the input data.
+         * @param name what the input is
+         * @param in data (gets closed), or null
+         * @return this key
+         * @throws IOException when there is an I/O error
+         */
+        public Key add(String name, InputStream in) throws IOException {
+            update(name);
+            if (in == null) {
+                update("<null>");
+                return this;
+            }
+            DigestInputStream digestIn = new DigestInputStream(in, digest);
+            try {
+                while (digestIn.read(buffer) >= 0) {
+                    // digests the bytes
+                }
+            } finally {
+                digestIn.close();
+            }
+            update("<end>");
+            return this;
+        }
+
+        /**
+         * Adds the file contents.
+         * @param name what the file is
+         * @param file file
+         * @return this key
+         * @throws IOException when there is an I/O error
+         */
+        public Key add(String name, File file) throws IOException {
+            return add(name, new FileInputStream(file));
+        }
+
+        private void update(String s) {
+            if (hex != null)
+                throw new IllegalStateException("The key is complete");
+            try {
+                byte[] bytes = s.getBytes("UTF-8");
+                digest.update((byte) (bytes.length >>> 24));
+                digest.update((byte) (bytes.length >>> 16));
+                digest.update((byte) (bytes.length >>> 8));
+                digest.update((byte) bytes.length);
+                digest.update(bytes);
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * @return hex SHA-256 (no values can be added after this)
+         */
+        @Override
+        public String toString() {
+            if (hex == null)
+                hex = ShardWriter.toHex(digest.digest());
+            return hex;
+        }
+    }
+}
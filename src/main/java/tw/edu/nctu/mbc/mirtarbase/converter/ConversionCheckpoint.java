@@ -0,0 +1,138 @@
+package tw.edu.nctu.mbc.mirtarbase.converter;
+
+import org.biopax.paxtools.model.Model;
+
+import java.io.*;
+
+/**
+ * The state of a streaming conversion (see {@link MirtarbaseToBiopaxConverter#convertToOWL(MtiRowSource, MirBase, File, boolean)})
+ * after the last row of an interaction, when all the objects made so far have been written out:
+ * the number of input rows done, the output (and rejects file) length, and the URIs of the shared objects
+ * (organisms, miRNAs, transcriptions, xrefs, scores) by their keys, so that a conversion
+ * can continue from there and make the same output as an uninterrupted one.
+ *
+ * File format (big-endian): MAGIC, VERSION, converter options, input rows done, output bytes and objects,
+ * the last MIRT ID, the unordered flag, rejects file bytes (-1 for none), then the {@link EntityIndex} and {@link InteractionsBySpecies} data.
+ */
+final class ConversionCheckpoint {
+    static final String FILE_NAME = "checkpoint.bin";
+
+    private static final int MAGIC = 0x4D544943; //"MTIC"
+    private static final int VERSION = 3;
+
+    private final File file;
+    // the input ID, data digests and converter options the checkpoint is only valid for
+    String options;
+    // number of input rows done (skipped when resuming)
+    long position;
+    long outputBytes;
+    int outputCount;
+    String lastId;
+    boolean unordered;
+    // length of the rejects file, or -1 - none
+    long rejectsBytes = -1;
+
+    /**
+     * @param dir checkpoint directory
+     */
+    ConversionCheckpoint(File dir) {
+        this.file = new File(dir, FILE_NAME);
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    boolean exists() {
+        return file.isFile();
+    }
+
+    /**
+     * Reads the values, except for the objects (see {@link #restore(Model, EntityIndex, InteractionsBySpecies)}).
+     * @throws IOException when there is an I/O error or it's not a checkpoint file
+     */
+    void load() throws IOException {
+        DataInputStream in = open();
+        try {
+            readHeader(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads the index and the organism pathway components, adding the objects to the model.
+     * @param model model (of the resumed conversion)
+     * @param index index to fill
+     * @param interactionsBySpecies to fill
+     * @throws IOException when there is an I/O error or it's not a checkpoint file
+     */
+    void restore(Model model, EntityIndex index, InteractionsBySpecies interactionsBySpecies) throws IOException {
+        DataInputStream in = open();
+        try {
+            readHeader(in);
+            index.read(in, model);
+            interactionsBySpecies.read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Saves the values and the objects (to a temporary file first, which then replaces the checkpoint file).
+     * @param index index of the objects made so far
+     * @param interactionsBySpecies organism pathway components so far
+     * @throws IOException when there is an I/O error
+     */
+    void save(EntityIndex index, InteractionsBySpecies interactionsBySpecies) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(options);
+            out.writeLong(position);
+            out.writeLong(outputBytes);
+            out.writeInt(outputCount);
+            out.writeUTF(lastId);
+            out.writeBoolean(unordered);
+            out.writeLong(rejectsBytes);
+            index.write(out);
+            interactionsBySpecies.write(out);
+            out.flush();
+            fos.getFD().sync();
+        } finally {
+            out.close();
+        }
+        FileReplacer.replace(tmp, file);
+    }
+
+    /**
+     * Deletes the checkpoint file (after the conversion has completed).
+     * @throws IOException when the file cannot be deleted
+     */
+    void delete() throws IOException {
+        if (file.exists() && !file.delete())
+            throw new IOException("Failed to delete " + file);
+    }
+
+    private DataInputStream open() throws IOException {
+        return new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+    }
+
+    private void readHeader(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC)
+            throw new IOException("Not a conversion checkpoint file: " + file);
+        int version = in.readInt();
+        if (version != VERSION)
+            throw new IOException("Unsupported conversion checkpoint file version " + version + ": " + file);
+        options = in.readUTF();
+        position = in.readLong();
+        outputBytes = in.readLong();
+        outputCount = in.readInt();
+        lastId = in.readUTF();
+        unordered = in.readBoolean();
+        rejectsBytes = in.readLong();
+    }
+}
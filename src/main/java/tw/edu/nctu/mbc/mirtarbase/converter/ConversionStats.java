@@ -0,0 +1,403 @@
+package tw.edu.nctu.mbc.mirtarbase.converter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.*;
+import java.util.*;
+
+/**
+ * Conversion metrics: per-stage wall and CPU time, row counts and rate,
+ * rows with problems by reason, BioPAX objects created by type, experiment types,
+ * the peak heap usage and GC time - to see where the time goes and to compare releases.
+ *
+ * The values accumulate (over several conversions) until {@link #reset()}.
+ * CPU time is of the thread that ran the stage (with several threads,
+ * the time spent in the reader and worker threads is not included).
+ */
+public class ConversionStats {
+
+    /**
+     * Conversion stages.
+     */
+    public enum Stage {
+        /** loading the miRBase aliases and organisms */
+        LOAD_MIRBASE,
+        /** the row processing loop, from the first row to the last (includes READ, NORMALIZE, building the objects
+         * and, in the streaming mode, WRITE) */
+        CONVERT,
+        /** reading, decoding the rows (with several threads - waiting for them) */
+        READ,
+        /** fixing, splitting the 'Experiments' values (with several threads - it's done ahead, by the workers) */
+        NORMALIZE,
+        /** making the organism pathways */
+        PATHWAYS,
+        /** writing BioPAX RDF/XML */
+        WRITE
+    }
+
+    /**
+     * Reasons why a row was not converted completely.
+     */
+    public enum Problem {
+        /** the ID, miRNA, species, target gene or target species cell is empty (the row is skipped) */
+        MISSING_CELL,
+        /** the Entrez Gene ID is not a number (the target gene symbol is used instead) */
+        BAD_GENE_ID,
+        /** the PMID is missing or not a number (the row adds no evidence) */
+        BAD_PMID,
+        /** the evidence could not be made, e.g., same ID and PMID as in a previous row */
+        EVIDENCE_FAILED,
+        /** empty 'Experiments' cell */
+        NO_EXPERIMENTS,
+        /** empty 'Support Type' cell */
+        NO_SUPPORT_TYPE
+    }
+
+    private static final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+    private final long[] wallNanos = new long[Stage.values().length];
+    private final long[] cpuNanos = new long[Stage.values().length];
+    private final long[] problems = new long[Problem.values().length];
+    // by type; the names are only made for the results
+    private final Map<Class<?>, long[]> created = new IdentityHashMap<Class<?>, long[]>();
+    private final Map<String, long[]> experimentTypes = new TreeMap<String, long[]>();
+    private long rows;
+    private long normalizerHits;
+    private long normalizerMisses;
+    private long stringPoolHits;
+    private long stringPoolMisses;
+    private long cacheHits;
+    private long cacheMisses;
+    private long gcMillisAtReset;
+
+    /**
+     * Measures a stage (call {@link #stop()} in a finally block).
+     */
+    public final class Timer {
+        private final Stage stage;
+        private final long wall;
+        private final long cpu;
+
+        private Timer(Stage stage) {
+            this.stage = stage;
+            this.cpu = cpuTime();
+            this.wall = System.nanoTime();
+        }
+
+        public void stop() {
+            long w = System.nanoTime() - wall;
+            long c = cpuTime();
+            synchronized (ConversionStats.this) {
+                wallNanos[stage.ordinal()] += w;
+                if (c >= 0 && cpu >= 0 && cpuNanos[stage.ordinal()] >= 0)
+                    cpuNanos[stage.ordinal()] += c - cpu;
+                else
+                    cpuNanos[stage.ordinal()] = -1;
+            }
+        }
+    }
+
+    public ConversionStats() {
+        reset();
+    }
+
+    /**
+     * Clears all the values; starts measuring the peak heap usage anew.
+     */
+    public synchronized void reset() {
+        Arrays.fill(wallNanos, 0L);
+        Arrays.fill(cpuNanos, 0L);
+        Arrays.fill(problems, 0L);
+        created.clear();
+        experimentTypes.clear();
+        rows = 0;
+        normalizerHits = 0;
+        normalizerMisses = 0;
+        stringPoolHits = 0;
+        stringPoolMisses = 0;
+        cacheHits = 0;
+        cacheMisses = 0;
+        gcMillisAtReset = totalGcMillis();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP && pool.isValid())
+                pool.resetPeakUsage();
+    }
+
+    /**
+     * Starts timing the stage (wall and current thread CPU time).
+     * @param stage stage
+     * @return timer to stop
+     */
+    public Timer start(Stage stage) {
+        return new Timer(stage);
+    }
+
+    /**
+     * Adds wall time only (for fine-grained, per-row measurements).
+     * @param stage stage
+     * @param nanos time
+     */
+    synchronized void addWallTime(Stage stage, long nanos) {
+        wallNanos[stage.ordinal()] += nanos;
+        cpuNanos[stage.ordinal()] = -1; //not measured
+    }
+
+    synchronized void addRows(long n) {
+        rows += n;
+    }
+
+    synchronized void problem(Problem problem) {
+        problems[problem.ordinal()]++;
+    }
+
+    /**
+     * Adds the numbers of objects created (the converter counts them by itself while building
+     * the objects, so that creating an object takes no lock here).
+     * @param counts by type
+     */
+    synchronized void created(Map<Class<?>, long[]> counts) {
+        for (Map.Entry<Class<?>, long[]> e : counts.entrySet()) {
+            long[] count = created.get(e.getKey());
+            if (count == null)
+                created.put(e.getKey(), new long[]{e.getValue()[0]});
+            else
+                count[0] += e.getValue()[0];
+        }
+    }
+
+    synchronized void experimentType(String term) {
+        increment(experimentTypes, term);
+    }
+
+    synchronized void normalizerCache(long hits, long misses) {
+        normalizerHits += hits;
+        normalizerMisses += misses;
+    }
+
+    synchronized void stringPool(long hits, long misses) {
+        stringPoolHits += hits;
+        stringPoolMisses += misses;
+    }
+
+    /**
+     * Counts a conversion result looked up in the {@link ConversionCache}.
+     * @param hit whether it was found
+     */
+    public synchronized void cache(boolean hit) {
+        if (hit)
+            cacheHits++;
+        else
+            cacheMisses++;
+    }
+
+    private static void increment(Map<String, long[]> counts, String key) {
+        long[] count = counts.get(key);
+        if (count == null)
+            counts.put(key, new long[]{1L});
+        else
+            count[0]++;
+    }
+
+    private static long cpuTime() {
+        try {
+            return threadMXBean.isCurrentThreadCpuTimeSupported() ? threadMXBean.getCurrentThreadCpuTime() : -1L;
+        } catch (UnsupportedOperationException e) {
+            return -1L; // CPU time measurement is disabled
+        }
+    }
+
+    /**
+     * @param stage stage
+     * @return total wall time, ms
+     */
+    public synchronized double getWallMillis(Stage stage) {
+        return wallNanos[stage.ordinal()] / 1e6;
+    }
+
+    /**
+     * @param stage stage
+     * @return total CPU time, ms, or -1 when not measured
+     */
+    public synchronized double getCpuMillis(Stage stage) {
+        long cpu = cpuNanos[stage.ordinal()];
+        return (cpu < 0 || wallNanos[stage.ordinal()] == 0) ? -1 : cpu / 1e6;
+    }
+
+    /**
+     * @return number of processed MTI rows
+     */
+    public synchronized long getRows() {
+        return rows;
+    }
+
+    /**
+     * @return processed rows per second (of the {@link Stage#CONVERT} stage)
+     */
+    public synchronized double getRowsPerSecond() {
+        long wall = wallNanos[Stage.CONVERT.ordinal()];
+        return (wall > 0) ? rows * 1e9 / wall : 0;
+    }
+
+    /**
+     * @param problem reason
+     * @return number of rows with the problem
+     */
+    public synchronized long getProblems(Problem problem) {
+        return problems[problem.ordinal()];
+    }
+
+    /**
+     * @return number of BioPAX objects created, by type (simple class name)
+     */
+    public synchronized Map<String, Long> getCreated() {
+        return copy(createdByName());
+    }
+
+    /**
+     * @return the (normalized) experimental method terms, with the number of evidences they occur in
+     */
+    public synchronized Map<String, Long> getExperimentTypes() {
+        return copy(experimentTypes);
+    }
+
+    public synchronized long getNormalizerHits() {
+        return normalizerHits;
+    }
+
+    public synchronized long getNormalizerMisses() {
+        return normalizerMisses;
+    }
+
+    /**
+     * @return number of the model's string values that were already in the converter's string pool
+     */
+    public synchronized long getStringPoolHits() {
+        return stringPoolHits;
+    }
+
+    public synchronized long getStringPoolMisses() {
+        return stringPoolMisses;
+    }
+
+    /**
+     * @return number of the conversions served from the {@link ConversionCache}
+     */
+    public synchronized long getCacheHits() {
+        return cacheHits;
+    }
+
+    public synchronized long getCacheMisses() {
+        return cacheMisses;
+    }
+
+    /**
+     * @return peak heap usage (sum of the heap memory pools' peaks) since the last reset, in bytes
+     */
+    public long getPeakHeapBytes() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP && pool.isValid())
+                peak += pool.getPeakUsage().getUsed();
+        return peak;
+    }
+
+    /**
+     * @return time spent in garbage collection (all collectors) since the last reset, in ms
+     */
+    public synchronized long getGcMillis() {
+        return totalGcMillis() - gcMillisAtReset;
+    }
+
+    private static long totalGcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            if (gc.getCollectionTime() > 0) //-1 when not supported
+                millis += gc.getCollectionTime();
+        return millis;
+    }
+
+    private static Map<String, Long> copy(Map<String, long[]> counts) {
+        Map<String, Long> map = new LinkedHashMap<String, Long>();
+        for (Map.Entry<String, long[]> e : counts.entrySet())
+            map.put(e.getKey(), e.getValue()[0]);
+        return map;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d rows in %.0f ms (%.0f rows/s); peak heap %d MB; GC %d ms",
+                rows, getWallMillis(Stage.CONVERT), getRowsPerSecond(), getPeakHeapBytes() >> 20, getGcMillis());
+    }
+
+    /**
+     * Writes all the values as a JSON object.
+     * @param out output (not closed)
+     * @throws IOException when there is an I/O error
+     */
+    public synchronized void writeJson(Writer out) throws IOException {
+        out.write("{\n  \"rows\": " + rows + ",\n");
+        out.write("  \"rowsPerSecond\": " + String.format(Locale.US, "%.1f", getRowsPerSecond()) + ",\n");
+        out.write("  \"peakHeapBytes\": " + getPeakHeapBytes() + ",\n");
+        out.write("  \"gcMs\": " + getGcMillis() + ",\n");
+        out.write("  \"stages\": {");
+        String sep = "\n";
+        for (Stage stage : Stage.values()) {
+            out.write(sep + "    " + quote(stage.name().toLowerCase()) + ": {\"wallMs\": "
+                    + String.format(Locale.US, "%.3f", getWallMillis(stage)) + ", \"cpuMs\": "
+                    + ((getCpuMillis(stage) < 0) ? "null" : String.format(Locale.US, "%.3f", getCpuMillis(stage))) + "}");
+            sep = ",\n";
+        }
+        out.write("\n  },\n  \"problems\": {");
+        sep = "\n";
+        for (Problem problem : Problem.values()) {
+            out.write(sep + "    " + quote(problem.name().toLowerCase()) + ": " + problems[problem.ordinal()]);
+            sep = ",\n";
+        }
+        out.write("\n  },\n  \"normalizerCache\": {\"hits\": " + normalizerHits + ", \"misses\": " + normalizerMisses + "},\n");
+        out.write("  \"stringPool\": {\"hits\": " + stringPoolHits + ", \"misses\": " + stringPoolMisses + "},\n");
+        out.write("  \"cache\": {\"hits\": " + cacheHits + ", \"misses\": " + cacheMisses + "},\n");
+        out.write("  \"created\": ");
+        writeCounts(out, createdByName());
+        out.write(",\n  \"experimentTypes\": ");
+        writeCounts(out, experimentTypes);
+        out.write("\n}\n");
+    }
+
+    private static void writeCounts(Writer out, Map<String, long[]> counts) throws IOException {
+        out.write("{");
+        String sep = "\n";
+        for (Map.Entry<String, long[]> e : counts.entrySet()) {
+            out.write(sep + "    " + quote(e.getKey()) + ": " + e.getValue()[0]);
+            sep = ",\n";
+        }
+        out.write(counts.isEmpty() ? "}" : "\n  }");
+    }
+
+    private Map<String, long[]> createdByName() {
+        Map<String, long[]> byName = new TreeMap<String, long[]>();
+        for (Map.Entry<Class<?>, long[]> e : created.entrySet())
+            byName.put(e.getKey().getSimpleName(), e.getValue());
+        return byName;
+    }
+
+    // JSON string literal
+    static String quote(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20)
+                        sb.append(String.format("\\u%04x", (int) c));
+                    else
+                        sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,147 @@
+package tw.edu.nctu.mbc.mirtarbase.converter;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads MTI data rows from tab- or comma-separated text (the first line is the header).
+ *
+ * Fields may be enclosed in double quotes (to contain delimiters or line breaks;
+ * a quote inside such a field is doubled). The current record is kept in a reusable
+ * char buffer, and a String is only created when a cell value is requested.
+ */
+public class DelimitedTextRowSource implements MtiRowSource {
+
+    private final Reader reader;
+    private final char delimiter;
+
+    private final char[] buf = new char[65536]; //input buffer
+    private int pos = 0;
+    private int limit = 0;
+
+    private char[] line = new char[1024]; //current record (unquoted field values)
+    private final int[] start = new int[COLUMNS];
+    private final int[] end = new int[COLUMNS];
+    private int fields;
+    private int rowNumber = -1;
+
+    /**
+     * @param reader MTI text input (will be closed by {@link #close()})
+     * @param delimiter field separator, e.g., '\t' or ','
+     */
+    public DelimitedTextRowSource(Reader reader, char delimiter) {
+        this.reader = reader;
+        this.delimiter = delimiter;
+    }
+
+    public boolean next() throws IOException {
+        while (readRecord()) {
+            if (rowNumber > 0 && !isBlank()) //skip the header and empty lines
+                return true;
+        }
+        return false;
+    }
+
+    public int getRowNumber() {
+        return rowNumber;
+    }
+
+    public String getString(int column) {
+        //an empty field is the same as a missing cell
+        return (column < fields && end[column] > start[column])
+                ? new String(line, start[column], end[column] - start[column]) : null;
+    }
+
+    public int getInteger(int column) {
+        return (column < fields) ? IntegerCells.parse(line, start[column], end[column]) : MISSING;
+    }
+
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private boolean isBlank() {
+        for (int i = 0; i < fields; i++)
+            if (end[i] > start[i])
+                return false;
+        return true;
+    }
+
+    // reads the next record into the line buffer; returns false at the end of input
+    private boolean readRecord() throws IOException {
+        if (pos >= limit && !fill())
+            return false;
+
+        rowNumber++;
+        fields = 0;
+        int len = 0;
+        int fieldStart = 0;
+        boolean quoted = false;
+        boolean atFieldStart = true;
+
+        while (true) {
+            if (pos >= limit && !fill())
+                break; //the last line has no line break
+            char c = buf[pos++];
+
+            if (quoted) {
+                if (c == '"') {
+                    if (pos >= limit && !fill()) {
+                        quoted = false;
+                        continue;
+                    }
+                    if (buf[pos] == '"') { //escaped quote
+                        pos++;
+                    } else {
+                        quoted = false;
+                        continue;
+                    }
+                }
+            } else if (c == '"' && atFieldStart) {
+                quoted = true;
+                atFieldStart = false;
+                continue;
+            } else if (c == delimiter) {
+                addField(fieldStart, len);
+                fieldStart = len;
+                atFieldStart = true;
+                continue;
+            } else if (c == '\n') {
+                break;
+            } else if (c == '\r') {
+                continue;
+            } else if (c == '\uFEFF' && rowNumber == 0 && len == 0) {
+                continue; //byte order mark
+            }
+
+            atFieldStart = false;
+            if (len == line.length) {
+                char[] bigger = new char[line.length * 2];
+                System.arraycopy(line, 0, bigger, 0, len);
+                line = bigger;
+            }
+            line[len++] = c;
+        }
+
+        addField(fieldStart, len);
+        return true;
+    }
+
+    private void addField(int from, int to) {
+        if (fields < COLUMNS) {
+            start[fields] = from;
+            end[fields] = to;
+            fields++;
+        }
+    }
+
+    private boolean fill() throws IOException {
+        limit = reader.read(buf, 0, buf.length);
+        pos = 0;
+        if (limit < 0) {
+            limit = 0;
+            return false;
+        }
+        return true;
+    }
+}
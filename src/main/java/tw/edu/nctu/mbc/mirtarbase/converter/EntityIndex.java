@@ -0,0 +1,142 @@
+package tw.edu.nctu.mbc.mirtarbase.converter;
+
+import gnu.trove.iterator.TIntObjectIterator;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import org.biopax.paxtools.model.BioPAXElement;
+import org.biopax.paxtools.model.Model;
+import org.biopax.paxtools.model.level3.*;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Converter-local index of the BioPAX objects created so far.
+ *
+ * The objects are looked up by the values that are already at hand
+ * (PMID, Entrez Gene ID, cell values, etc.) rather than by their URIs,
+ * so that finding an existing object in the row processing loop
+ * does not require building temporary URI strings.
+ */
+final class EntityIndex {
+
+    // by MIRT ID
+    final Map<String, TemplateReactionRegulation> regulations = new HashMap<String, TemplateReactionRegulation>();
+    // by PMID
+    final TIntObjectHashMap<PublicationXref> publications = new TIntObjectHashMap<PublicationXref>();
+    // by Entrez Gene ID
+    final TIntObjectHashMap<TemplateReaction> transcriptionsByGeneId = new TIntObjectHashMap<TemplateReaction>();
+    // by target gene symbol (when there is no gene ID)
+    final Map<String, TemplateReaction> transcriptionsBySymbol = new HashMap<String, TemplateReaction>();
+    final Map<String, RelationshipXref> symbolXrefs = new HashMap<String, RelationshipXref>();
+    // by miRNA name as is, and by the lower-case name (the name used in the URI)
+    final Map<String, Rna> mirnas = new HashMap<String, Rna>();
+    final Map<String, Rna> mirnasByLcName = new HashMap<String, Rna>();
+    // by miRBase accession
+    final Map<String, RelationshipXref> mirbaseXrefs = new HashMap<String, RelationshipXref>();
+    // by the 'Support Type' cell value, and by the local ID made from the normalized value
+    final Map<String, Score> scores = new HashMap<String, Score>();
+    final Map<String, Score> scoresById = new HashMap<String, Score>();
+    // by miRBase organism code, and by NCBI taxonomy ID
+    final Map<String, BioSource> organisms = new HashMap<String, BioSource>();
+    final Map<String, BioSource> organismsByTaxon = new HashMap<String, BioSource>();
+
+    void clear() {
+        regulations.clear();
+        publications.clear();
+        transcriptionsByGeneId.clear();
+        transcriptionsBySymbol.clear();
+        symbolXrefs.clear();
+        mirnas.clear();
+        mirnasByLcName.clear();
+        mirbaseXrefs.clear();
+        scores.clear();
+        scoresById.clear();
+        organisms.clear();
+        organismsByTaxon.clear();
+    }
+
+    /**
+     * Saves the keys and URIs of the shared objects (for a checkpoint; the control interactions are not saved).
+     * @param out output
+     * @throws IOException when there is an I/O error
+     */
+    void write(DataOutput out) throws IOException {
+        write(out, publications);
+        write(out, transcriptionsByGeneId);
+        write(out, transcriptionsBySymbol);
+        write(out, symbolXrefs);
+        write(out, mirnas);
+        write(out, mirnasByLcName);
+        write(out, mirbaseXrefs);
+        write(out, scores);
+        write(out, scoresById);
+        write(out, organisms);
+        write(out, organismsByTaxon);
+    }
+
+    /**
+     * Reads what {@link #write(DataOutput)} saved, adding the objects to the model (only their URIs are set,
+     * which is enough to refer to the objects that have been already written out).
+     * @param in input
+     * @param model model where to find or add the objects
+     * @throws IOException when there is an I/O error
+     */
+    void read(DataInput in, Model model) throws IOException {
+        read(in, publications, PublicationXref.class, model);
+        read(in, transcriptionsByGeneId, TemplateReaction.class, model);
+        read(in, transcriptionsBySymbol, TemplateReaction.class, model);
+        read(in, symbolXrefs, RelationshipXref.class, model);
+        read(in, mirnas, Rna.class, model);
+        read(in, mirnasByLcName, Rna.class, model);
+        read(in, mirbaseXrefs, RelationshipXref.class, model);
+        read(in, scores, Score.class, model);
+        read(in, scoresById, Score.class, model);
+        read(in, organisms, BioSource.class, model);
+        read(in, organismsByTaxon, BioSource.class, model);
+    }
+
+    private static <T extends BioPAXElement> void write(DataOutput out, TIntObjectHashMap<T> map) throws IOException {
+        out.writeInt(map.size());
+        for (TIntObjectIterator<T> it = map.iterator(); it.hasNext(); ) {
+            it.advance();
+            out.writeInt(it.key());
+            out.writeUTF(it.value().getUri());
+        }
+    }
+
+    private static <T extends BioPAXElement> void write(DataOutput out, Map<String, T> map) throws IOException {
+        out.writeInt(map.size());
+        for (Map.Entry<String, T> e : map.entrySet()) {
+            // the organism key is null for a species not in organisms.txt
+            out.writeBoolean(e.getKey() != null);
+            if (e.getKey() != null)
+                out.writeUTF(e.getKey());
+            out.writeUTF(e.getValue().getUri());
+        }
+    }
+
+    private static <T extends BioPAXElement> void read(DataInput in, TIntObjectHashMap<T> map,
+                                                       Class<T> type, Model model) throws IOException {
+        for (int n = in.readInt(); n > 0; n--) {
+            int key = in.readInt();
+            map.put(key, element(model, type, in.readUTF()));
+        }
+    }
+
+    private static <T extends BioPAXElement> void read(DataInput in, Map<String, T> map,
+                                                       Class<T> type, Model model) throws IOException {
+        for (int n = in.readInt(); n > 0; n--) {
+            String key = (in.readBoolean()) ? in.readUTF() : null;
+            map.put(key, element(model, type, in.readUTF()));
+        }
+    }
+
+    // the same object for the same URI (e.g., a miRNA is there by its name and by the lower-case name)
+    private static <T extends BioPAXElement> T element(Model model, Class<T> type, String uri) {
+        BioPAXElement element = model.getByID(uri);
+        return (element != null) ? type.cast(element) : model.addNew(type, uri);
+    }
+}
@@ -0,0 +1,193 @@
+package tw.edu.nctu.mbc.mirtarbase.converter;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Normalizes the miRTarBase 'Experiments' cell values:
+ * fixes typos using the (pre-compiled) regex rules, in order,
+ * and splits the result into experimental method terms.
+ *
+ * There are only a few distinct raw values compared to the number of rows,
+ * so the results are cached (when the cache is full, an arbitrary entry is removed for a new one).
+ * This class is thread-safe: the cache is a concurrent map, and a missing value is computed
+ * without a lock (a value computed by two threads at once is the same).
+ */
+public class ExperimentNormalizer {
+
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+
+    private static final Pattern TERM_SEPARATOR = Pattern.compile("[/;,]+");
+    private static final Pattern REPORTER = Pattern.compile("reporter(\\s+assay)?");
+
+    private final Pattern[] patterns;
+    private final String[] replacements;
+    private final String digest;
+    private final ConcurrentMap<String, Result> cache = new ConcurrentHashMap<String, Result>();
+    private final int cacheSize;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * The normalized experiments value.
+     */
+    public static final class Result {
+        private final String comment;
+        private final String[] terms;
+
+        Result(String comment, String[] terms) {
+            this.comment = comment;
+            this.terms = terms;
+        }
+
+        /**
+         * @return fixed experiments value (e.g., used as Evidence comment)
+         */
+        public String getComment() {
+            return comment;
+        }
+
+        /**
+         * @return non-empty experimental method terms, e.g., 'western blot'
+         */
+        public String[] getTerms() {
+            return terms;
+        }
+    }
+
+    /**
+     * Uses the built-in rules (experiment-rules.txt resource).
+     */
+    public ExperimentNormalizer() {
+        this(builtInRules(), DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param rules tab-separated regex and replacement pairs, one per line
+     *              (a line without tab deletes the matches; '#' starts a comment line)
+     * @param cacheSize max. number of cached results (0 - no cache)
+     * @throws IOException when the rules cannot be read
+     */
+    public ExperimentNormalizer(InputStream rules, int cacheSize) throws IOException {
+        this(readRules(rules), cacheSize);
+    }
+
+    private ExperimentNormalizer(List<String[]> rules, int cacheSize) {
+        patterns = new Pattern[rules.size()];
+        replacements = new String[rules.size()];
+        ConversionCache.Key key = new ConversionCache.Key();
+        for (int i = 0; i < rules.size(); i++) {
+            patterns[i] = Pattern.compile(rules.get(i)[0]);
+            replacements[i] = rules.get(i)[1];
+            key.add(rules.get(i)[0], rules.get(i)[1]);
+        }
+        digest = key.toString();
+        if (cacheSize < 0)
+            throw new IllegalArgumentException("cacheSize < 0");
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * Normalizes a (trimmed, non-null) 'Experiments' value.
+     * @param experiments cell value
+     * @return normalized comment and terms
+     */
+    public Result normalize(String experiments) {
+        Result result = cache.get(experiments);
+        if (result != null) {
+            hits.incrementAndGet();
+            return result;
+        }
+        misses.incrementAndGet();
+        result = compute(experiments);
+        if (cacheSize == 0)
+            return result;
+        if (cache.size() >= cacheSize) {
+            Iterator<String> it = cache.keySet().iterator();
+            if (it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+        Result previous = cache.putIfAbsent(experiments, result);
+        return (previous != null) ? previous : result;
+    }
+
+    /**
+     * @return SHA-256 (hex) of the rules, to tell whether two normalizers are the same
+     */
+    public String getDigest() {
+        return digest;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private Result compute(String experiments) {
+        // parse,fix the 'Experiment' data cell value, in order
+        String fixExperiments = experiments.trim().toLowerCase();
+        for (int i = 0; i < patterns.length; i++)
+            fixExperiments = patterns[i].matcher(fixExperiments).replaceAll(replacements[i]);
+
+        //perhaps, '//' chains or orders the exp. methods, whereas ';' or ',' separates different protocols/chains used...
+        List<String> terms = new ArrayList<String>();
+        for (String s : TERM_SEPARATOR.split(fixExperiments)) {
+            String expType = s.trim();
+            //fix semi-fixed mirtarbase terms
+            if (expType.contains("western"))
+                expType = "western blot"; //MI:0113
+            else if (expType.contains("northern"))
+                expType = "northern blot"; //MI:0929
+            else if (expType.startsWith("flow"))
+                expType = "flow cytometry"; //MI:0054
+//            else if(expType.contains("2dge"))
+//                expType = "electrophoresis"; // electrophoresis MI:0982 ?
+
+            if (expType.contains("reporter") && !expType.startsWith("reporter")) {
+                expType = REPORTER.matcher(expType).replaceAll("assay");
+            }
+
+            if (!expType.isEmpty())
+                terms.add(expType);
+        }
+
+        return new Result(fixExperiments, terms.toArray(new String[terms.size()]));
+    }
+
+    private static List<String[]> builtInRules() {
+        InputStream rules = ExperimentNormalizer.class.getResourceAsStream("/experiment-rules.txt");
+        try {
+            return readRules(rules);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to load the built-in experiment-rules.txt", e);
+        }
+    }
+
+    private static List<String[]> readRules(InputStream rules) throws IOException {
+        List<String[]> table = new ArrayList<String[]>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(rules, "UTF-8"));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith("#") || line.isEmpty())
+                continue;
+            int tab = line.indexOf('\t');
+            if (tab < 0)
+                table.add(new String[]{line, ""});
+            else
+                table.add(new String[]{line.substring(0, tab), line.substring(tab + 1)});
+        }
+        reader.close();
+        return table;
+    }
+}
@@ -0,0 +1,34 @@
+package tw.edu.nctu.mbc.mirtarbase.converter;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Replaces a file with its new version written to a temporary file, by a rename.
+ *
+ * On a POSIX file system (both files in the same directory) that is a single atomic rename,
+ * so that there is always either the previous or the new complete file. Where a rename cannot
+ * replace an existing file (Windows), the previous file is deleted and the rename is tried again;
+ * the replace is not atomic there - if it gets interrupted in between, only the temporary file is left.
+ */
+final class FileReplacer {
+
+    private FileReplacer() {
+    }
+
+    /**
+     * @param tmp the new version (deleted when it cannot replace the file; kept when the file has been deleted)
+     * @param file file to replace
+     * @throws IOException when the rename fails
+     */
+    static void replace(File tmp, File file) throws IOException {
+        if (tmp.renameTo(file))
+            return;
+        if (!file.exists() || !file.delete()) {
+            tmp.delete();
+            throw new IOException("Failed to save " + file + " (kept the previous version, if any)");
+        }
+        if (!tmp.renameTo(file))
+            throw new IOException("Failed to save " + file + "; the new version is in " + tmp);
+    }
+}
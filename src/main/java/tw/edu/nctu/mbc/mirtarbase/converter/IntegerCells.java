@@ -0,0 +1,100 @@
+package tw.edu.nctu.mbc.mirtarbase.converter;
+
+import static tw.edu.nctu.mbc.mirtarbase.converter.MtiRowSource.MISSING;
+import static tw.edu.nctu.mbc.mirtarbase.converter.MtiRowSource.NOT_AN_INTEGER;
+
+/**
+ * Decodes the integer (gene ID, PMID) cell values for {@link MtiRowSource#getInteger(int)}
+ * without boxing, intermediate strings or exceptions.
+ *
+ * A text is an integer when, except for the leading and trailing whitespace, it is an optionally signed
+ * decimal number with no exponent; the fraction is truncated (as a numeric cell value is).
+ * Values out of the int range (and the two sentinel values) are {@link MtiRowSource#NOT_AN_INTEGER}.
+ */
+final class IntegerCells {
+
+    private IntegerCells() {
+    }
+
+    /**
+     * @param value numeric cell value
+     * @return the value truncated to int, or NOT_AN_INTEGER
+     */
+    static int fromDouble(double value) {
+        // NaN fails both comparisons
+        if (!(value > NOT_AN_INTEGER && value < 2147483648.0))
+            return NOT_AN_INTEGER;
+        return (int) value;
+    }
+
+    /**
+     * @param text text cell value, or null
+     * @return the integer, MISSING (null or blank text), or NOT_AN_INTEGER
+     */
+    static int parse(String text) {
+        if (text == null)
+            return MISSING;
+        int from = 0;
+        int to = text.length();
+        while (from < to && text.charAt(from) <= ' ') from++;
+        while (to > from && text.charAt(to - 1) <= ' ') to--;
+        if (from == to)
+            return MISSING;
+
+        boolean negative = false;
+        char c = text.charAt(from);
+        if (c == '-' || c == '+') {
+            negative = (c == '-');
+            from++;
+        }
+        long value = 0;
+        int digits = 0;
+        int i = from;
+        for (; i < to && (c = text.charAt(i)) >= '0' && c <= '9'; i++, digits++) {
+            value = value * 10 + (c - '0');
+            if (value > 2147483648L)
+                return NOT_AN_INTEGER;
+        }
+        if (i < to && text.charAt(i) == '.')
+            for (i++; i < to && (c = text.charAt(i)) >= '0' && c <= '9'; i++)
+                digits++;
+        return (i == to && digits > 0) ? toInt(negative ? -value : value) : NOT_AN_INTEGER;
+    }
+
+    /**
+     * Same as {@link #parse(String)}, for a text in a char buffer.
+     * @param chars buffer
+     * @param from start index
+     * @param to end index (exclusive)
+     * @return the integer, MISSING (blank text), or NOT_AN_INTEGER
+     */
+    static int parse(char[] chars, int from, int to) {
+        while (from < to && chars[from] <= ' ') from++;
+        while (to > from && chars[to - 1] <= ' ') to--;
+        if (from == to)
+            return MISSING;
+
+        boolean negative = false;
+        char c = chars[from];
+        if (c == '-' || c == '+') {
+            negative = (c == '-');
+            from++;
+        }
+        long value = 0;
+        int digits = 0;
+        int i = from;
+        for (; i < to && (c = chars[i]) >= '0' && c <= '9'; i++, digits++) {
+            value = value * 10 + (c - '0');
+            if (value > 2147483648L)
+                return NOT_AN_INTEGER;
+        }
+        if (i < to && chars[i] == '.')
+            for (i++; i < to && (c = chars[i]) >= '0' && c <= '9'; i++)
+                digits++;
+        return (i == to && digits > 0) ? toInt(negative ? -value : value) : NOT_AN_INTEGER;
+    }
+
+    private static int toInt(long value) {
+        return (value > NOT_AN_INTEGER && value <= Integer.MAX_VALUE) ? (int) value : NOT_AN_INTEGER;
+    }
+}
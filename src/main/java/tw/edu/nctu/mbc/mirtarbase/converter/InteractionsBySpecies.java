@@ -0,0 +1,98 @@
+package tw.edu.nctu.mbc.mirtarbase.converter;
+
+import org.biopax.paxtools.model.level3.Process;
+import org.biopax.paxtools.model.level3.TemplateReactionRegulation;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Records the miRNA-target interactions per (miRNA) species taxon
+ * as they are created, so that they can be grouped in one pass at the end.
+ *
+ * Only the URIs of the future pathway components are kept (controlled reactions
+ * followed by the control), which works also when the interactions have been
+ * already written out and removed from the model.
+ */
+final class InteractionsBySpecies {
+
+    // taxon -> species name, in the order the taxa were first seen
+    private final Map<String, String> names = new LinkedHashMap<String, String>();
+    private final Map<String, Set<String>> components = new HashMap<String, Set<String>>();
+
+    /**
+     * @param taxon NCBI taxonomy ID (may be null for an unknown species)
+     * @param name species name as it first appeared in the data
+     * @param regulation interaction
+     */
+    void add(String taxon, String name, TemplateReactionRegulation regulation) {
+        Set<String> set = components.get(taxon);
+        if (set == null) {
+            set = new LinkedHashSet<String>();
+            components.put(taxon, set);
+            names.put(taxon, name);
+        }
+        for (Process process : regulation.getControlled())
+            set.add(process.getUri());
+        set.add(regulation.getUri());
+    }
+
+    Set<String> getTaxa() {
+        return names.keySet();
+    }
+
+    String getName(String taxon) {
+        return names.get(taxon);
+    }
+
+    /**
+     * @param taxon NCBI taxonomy ID
+     * @return URIs of the controlled reactions and controls
+     */
+    Set<String> get(String taxon) {
+        return components.get(taxon);
+    }
+
+    void clear() {
+        names.clear();
+        components.clear();
+    }
+
+    /**
+     * Saves the taxa, names and URIs (for a checkpoint).
+     * @param out output
+     * @throws IOException when there is an I/O error
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeInt(names.size());
+        for (Map.Entry<String, String> e : names.entrySet()) {
+            out.writeBoolean(e.getKey() != null);
+            if (e.getKey() != null)
+                out.writeUTF(e.getKey());
+            out.writeUTF(e.getValue());
+            Set<String> set = components.get(e.getKey());
+            out.writeInt(set.size());
+            for (String uri : set)
+                out.writeUTF(uri);
+        }
+    }
+
+    /**
+     * Reads what {@link #write(DataOutput)} saved (replaces all the values).
+     * @param in input
+     * @throws IOException when there is an I/O error
+     */
+    void read(DataInput in) throws IOException {
+        clear();
+        for (int n = in.readInt(); n > 0; n--) {
+            String taxon = (in.readBoolean()) ? in.readUTF() : null;
+            names.put(taxon, in.readUTF());
+            Set<String> set = new LinkedHashSet<String>();
+            for (int m = in.readInt(); m > 0; m--)
+                set.add(in.readUTF());
+            components.put(taxon, set);
+        }
+    }
+}
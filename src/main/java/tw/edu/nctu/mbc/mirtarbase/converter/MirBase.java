@@ -0,0 +1,468 @@
+package tw.edu.nctu.mbc.mirtarbase.converter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Read-only miRBase data used by the converter:
+ * miRNA name (lower case) to MI/MIMAT accessions (aliases.txt), and
+ * organism code to/from name and NCBI taxonomy ID (organisms.txt).
+ *
+ * Can be parsed from the miRBase text files or loaded from a compact binary index
+ * (sorted string table plus offset arrays) in one bulk read. The index for the embedded
+ * aliases.txt and organisms.txt is compiled at build time (see the {@link #main(String[])});
+ * the index for user-supplied files is cached next to the files.
+ */
+public final class MirBase {
+    private static Logger log = LoggerFactory.getLogger(MirBase.class);
+
+    public static final String INDEX_RESOURCE = "/mirbase.idx";
+
+    private static final int MAGIC = 0x4D495242; //"MIRB"
+    private static final int VERSION = 1;
+
+    private static MirBase defaultInstance;
+
+    private final StringTable names; //sorted, lower case
+    private final int[] aliasOffsets; //names.size()+1 offsets into aliasRefs
+    private final int[] aliasRefs; //indices in the accessions table
+    private final StringTable accessions;
+    private final StringTable orgCodes;
+    private final StringTable orgNames;
+    private final StringTable orgTaxa;
+
+    private final Map<String,String> orgCodeToNameMap = new HashMap<String, String>();
+    private final Map<String,String> orgCodeToTaxonMap = new HashMap<String, String>();
+    private final Map<String,String> orgNameToCodeMap = new HashMap<String, String>();
+
+    private String digest; //computed when first asked for
+
+    private MirBase(StringTable names, int[] aliasOffsets, int[] aliasRefs, StringTable accessions,
+                    StringTable orgCodes, StringTable orgNames, StringTable orgTaxa)
+    {
+        this.names = names;
+        this.aliasOffsets = aliasOffsets;
+        this.aliasRefs = aliasRefs;
+        this.accessions = accessions;
+        this.orgCodes = orgCodes;
+        this.orgNames = orgNames;
+        this.orgTaxa = orgTaxa;
+
+        for (int i = 0; i < orgCodes.size(); i++) {
+            String code = orgCodes.get(i);
+            String name = orgNames.get(i);
+            orgCodeToTaxonMap.put(code, orgTaxa.get(i));
+            orgCodeToNameMap.put(code, name);
+            orgNameToCodeMap.put(name.toLowerCase(), code);
+        }
+    }
+
+    /**
+     * @param lcName lower case miRNA name
+     * @return miRBase MI/MIMAT accessions or null when the name is unknown
+     */
+    public String[] getAccessions(String lcName) {
+        int i = names.find(lcName);
+        if (i < 0)
+            return null;
+        String[] acs = new String[aliasOffsets[i + 1] - aliasOffsets[i]];
+        for (int j = 0; j < acs.length; j++)
+            acs[j] = accessions.get(aliasRefs[aliasOffsets[i] + j]);
+        return acs;
+    }
+
+    /**
+     * @param code organism abbreviation, e.g., 'hsa'
+     * @return NCBI taxonomy ID
+     */
+    public String getTaxon(String code) {
+        return orgCodeToTaxonMap.get(code);
+    }
+
+    /**
+     * @param code organism abbreviation, e.g., 'hsa'
+     * @return organism name, e.g., 'Homo sapiens'
+     */
+    public String getOrganismName(String code) {
+        return orgCodeToNameMap.get(code);
+    }
+
+    /**
+     * @param lcName lower case organism name, e.g., 'homo sapiens'
+     * @return organism abbreviation
+     */
+    public String getOrganismCode(String lcName) {
+        return orgNameToCodeMap.get(lcName);
+    }
+
+    /**
+     * @return the number of miRNA names
+     */
+    public int getNumberOfNames() {
+        return names.size();
+    }
+
+    /**
+     * @return SHA-256 (hex) of the data (of its binary index), to tell whether two instances are the same
+     */
+    public synchronized String getDigest() {
+        if (digest == null) {
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 20);
+                write(bytes);
+                digest = new ConversionCache.Key()
+                        .add("mirbase", new ByteArrayInputStream(bytes.toByteArray())).toString();
+            } catch (IOException e) {
+                throw new IllegalStateException(e); //not with a byte array stream
+            }
+        }
+        return digest;
+    }
+
+    /**
+     * Gets the built-in miRBase data (embedded aliases.txt and organisms.txt),
+     * from the pre-compiled index if available.
+     * @return shared instance
+     */
+    public static synchronized MirBase getDefault() {
+        if (defaultInstance == null) {
+            try {
+                InputStream idx = MirBase.class.getResourceAsStream(INDEX_RESOURCE);
+                if (idx != null) {
+                    try {
+                        defaultInstance = read(idx);
+                    } finally {
+                        idx.close();
+                    }
+                } else {
+                    log.info("No " + INDEX_RESOURCE + " resource; parsing the embedded aliases.txt, organisms.txt");
+                    defaultInstance = parse(MirBase.class.getResourceAsStream("/aliases.txt"),
+                            MirBase.class.getResourceAsStream("/organisms.txt"));
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to load the built-in miRBase data", e);
+            }
+        }
+        return defaultInstance;
+    }
+
+    /**
+     * Loads the miRBase data from the files, or from their compiled index cached
+     * next to the files (the cache is created or updated when missing or outdated).
+     * @param aliasesFile aliases.txt or null (to use the built-in one)
+     * @param organismsFile organisms.txt or null (to use the built-in one)
+     * @return miRBase data
+     * @throws IOException when the data cannot be read
+     */
+    public static MirBase load(File aliasesFile, File organismsFile) throws IOException {
+        if (aliasesFile == null && organismsFile == null)
+            return getDefault();
+
+        final String sources = describe(aliasesFile) + "\n" + describe(organismsFile);
+        final File cacheFile = new File(((aliasesFile != null) ? aliasesFile : organismsFile).getPath() + ".idx");
+        if (cacheFile.isFile()) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+            try {
+                if (sources.equals(in.readUTF()))
+                    return read(in);
+            } catch (IOException e) {
+                log.warn("Ignored a bad miRBase index cache: " + cacheFile + "; " + e);
+            } finally {
+                in.close();
+            }
+        }
+
+        MirBase mirBase = parse(
+                (aliasesFile != null) ? new FileInputStream(aliasesFile) : MirBase.class.getResourceAsStream("/aliases.txt"),
+                (organismsFile != null) ? new FileInputStream(organismsFile) : MirBase.class.getResourceAsStream("/organisms.txt"));
+
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(cacheFile)));
+            try {
+                out.writeUTF(sources);
+                mirBase.write(out);
+            } finally {
+                out.close();
+            }
+            log.info("Saved the miRBase index cache: " + cacheFile);
+        } catch (IOException e) {
+            log.warn("Cannot save the miRBase index cache: " + cacheFile + "; " + e);
+        }
+
+        return mirBase;
+    }
+
+    // identifies the exact version of the source file (path, size, last modified)
+    private static String describe(File file) throws IOException {
+        return (file == null) ? "" : file.getCanonicalPath() + "\t" + file.length() + "\t" + file.lastModified();
+    }
+
+    /**
+     * Parses miRBase text files.
+     * @param aliasesInputStream aliases.txt (gets closed)
+     * @param organismsInputStream organisms.txt (gets closed)
+     * @return miRBase data
+     * @throws IOException when the data cannot be read
+     */
+    public static MirBase parse(InputStream aliasesInputStream, InputStream organismsInputStream) throws IOException {
+        final String separator = "\t";
+        final String intraFieldSeparator = ";";
+
+        //miRNA name to MI/MIMAT IDs (unique, in the original order)
+        final Map<String, List<String>> mirNameToIds = new HashMap<String, List<String>>();
+        final Map<String, Integer> accessionIndex = new HashMap<String, Integer>();
+        final List<String> accessionList = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(aliasesInputStream, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("#") || line.trim().isEmpty())
+                    continue;
+
+                String cols[] = line.split(separator);
+                final String id = cols[0].trim();
+                String names = cols[1].trim();
+                if (names.endsWith(";"))
+                    names = names.substring(0, names.length() - 1); // Get rid of the last ; at the end
+
+                if (!accessionIndex.containsKey(id)) {
+                    accessionIndex.put(id, accessionList.size());
+                    accessionList.add(id);
+                }
+
+                for (String tname : names.split(intraFieldSeparator)) {
+                    final String name = tname.toLowerCase();
+                    List<String> ids = mirNameToIds.get(name);
+                    if (ids == null) {
+                        ids = new ArrayList<String>(1);
+                        mirNameToIds.put(name, ids);
+                    } else {
+                        log.debug(String.format("miR name %s maps to: %s;%s", name, ids, id));
+                    }
+                    if (!ids.contains(id))
+                        ids.add(id);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        String[] sortedNames = mirNameToIds.keySet().toArray(new String[mirNameToIds.size()]);
+        Arrays.sort(sortedNames);
+        int[] aliasOffsets = new int[sortedNames.length + 1];
+        int total = 0;
+        for (int i = 0; i < sortedNames.length; i++) {
+            aliasOffsets[i] = total;
+            total += mirNameToIds.get(sortedNames[i]).size();
+        }
+        aliasOffsets[sortedNames.length] = total;
+        int[] aliasRefs = new int[total];
+        for (int i = 0; i < sortedNames.length; i++) {
+            List<String> ids = mirNameToIds.get(sortedNames[i]);
+            for (int j = 0; j < ids.size(); j++)
+                aliasRefs[aliasOffsets[i] + j] = accessionIndex.get(ids.get(j));
+        }
+
+        //organisms.txt (miRBase) columns:
+        //#organism #division   #name   #tree   #NCBI-taxid
+        List<String> codes = new ArrayList<String>();
+        List<String> orgNames = new ArrayList<String>();
+        List<String> taxa = new ArrayList<String>();
+        reader = new BufferedReader(new InputStreamReader(organismsInputStream, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("#") || line.trim().isEmpty())
+                    continue;
+
+                String cols[] = line.split(separator);
+                codes.add(cols[0].trim());
+                orgNames.add(cols[2].trim());
+                taxa.add(cols[4].trim());
+            }
+        } finally {
+            reader.close();
+        }
+
+        return new MirBase(new StringTable(Arrays.asList(sortedNames)), aliasOffsets, aliasRefs,
+                new StringTable(accessionList), new StringTable(codes), new StringTable(orgNames), new StringTable(taxa));
+    }
+
+    /**
+     * Loads the binary index (see {@link #write(OutputStream)}).
+     * @param in index input stream
+     * @return miRBase data
+     * @throws IOException when the data cannot be read or has wrong format
+     */
+    public static MirBase read(InputStream in) throws IOException {
+        // bulk read
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 20);
+        byte[] buf = new byte[65536];
+        int n;
+        while ((n = in.read(buf)) > 0)
+            bytes.write(buf, 0, n);
+        ByteBuffer bb = ByteBuffer.wrap(bytes.toByteArray());
+
+        if (bb.getInt() != MAGIC || bb.getInt() != VERSION)
+            throw new IOException("Not a miRBase index (or unsupported version)");
+        StringTable names = StringTable.read(bb);
+        int[] aliasOffsets = readInts(bb);
+        int[] aliasRefs = readInts(bb);
+        StringTable accessions = StringTable.read(bb);
+        return new MirBase(names, aliasOffsets, aliasRefs, accessions,
+                StringTable.read(bb), StringTable.read(bb), StringTable.read(bb));
+    }
+
+    /**
+     * Saves the data as the binary index.
+     * @param out output stream
+     * @throws IOException when there is an I/O error
+     */
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        names.write(data);
+        writeInts(data, aliasOffsets);
+        writeInts(data, aliasRefs);
+        accessions.write(data);
+        orgCodes.write(data);
+        orgNames.write(data);
+        orgTaxa.write(data);
+        data.flush();
+    }
+
+    private static int[] readInts(ByteBuffer bb) {
+        int[] a = new int[bb.getInt()];
+        bb.asIntBuffer().get(a);
+        bb.position(bb.position() + 4 * a.length);
+        return a;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] a) throws IOException {
+        out.writeInt(a.length);
+        for (int v : a)
+            out.writeInt(v);
+    }
+
+    /**
+     * Compiles the miRBase text files into the binary index (used by the build).
+     * @param args aliases.txt, organisms.txt, output index file
+     * @throws IOException when there is an I/O error
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("Usage: MirBase <aliases.txt> <organisms.txt> <output index file>");
+            System.exit(-1);
+        }
+        MirBase mirBase = parse(new FileInputStream(args[0]), new FileInputStream(args[1]));
+        File output = new File(args[2]);
+        output.getParentFile().mkdirs();
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(output));
+        try {
+            mirBase.write(out);
+        } finally {
+            out.close();
+        }
+        log.info("Compiled " + mirBase.getNumberOfNames() + " miRNA names into: " + output);
+    }
+
+    /**
+     * Strings stored in one char array with offsets;
+     * String objects are only created on demand.
+     */
+    private static final class StringTable {
+        private final int[] offsets;
+        private final char[] chars;
+
+        StringTable(List<String> strings) {
+            offsets = new int[strings.size() + 1];
+            int len = 0;
+            for (int i = 0; i < strings.size(); i++) {
+                offsets[i] = len;
+                len += strings.get(i).length();
+            }
+            offsets[strings.size()] = len;
+            chars = new char[len];
+            for (int i = 0; i < strings.size(); i++)
+                strings.get(i).getChars(0, strings.get(i).length(), chars, offsets[i]);
+        }
+
+        private StringTable(int[] offsets, char[] chars) {
+            this.offsets = offsets;
+            this.chars = chars;
+        }
+
+        int size() {
+            return offsets.length - 1;
+        }
+
+        String get(int i) {
+            return new String(chars, offsets[i], offsets[i + 1] - offsets[i]);
+        }
+
+        // binary search (the table must be sorted); returns the index or a negative value
+        int find(String key) {
+            int lo = 0;
+            int hi = size() - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int c = compare(mid, key);
+                if (c < 0)
+                    lo = mid + 1;
+                else if (c > 0)
+                    hi = mid - 1;
+                else
+                    return mid;
+            }
+            return -(lo + 1);
+        }
+
+        // same order as String.compareTo
+        private int compare(int i, String key) {
+            int from = offsets[i];
+            int len = offsets[i + 1] - from;
+            int n = Math.min(len, key.length());
+            for (int k = 0; k < n; k++) {
+                int d = chars[from + k] - key.charAt(k);
+                if (d != 0)
+                    return d;
+            }
+            return len - key.length();
+        }
+
+        // one byte per char when possible (ISO-8859-1), else UTF-16
+        void write(DataOutputStream out) throws IOException {
+            writeInts(out, offsets);
+            boolean latin1 = true;
+            for (int i = 0; i < chars.length && latin1; i++)
+                latin1 = chars[i] <= 0xFF;
+            out.writeBoolean(latin1);
+            out.writeInt(chars.length);
+            for (char c : chars) {
+                if (latin1)
+                    out.writeByte(c);
+                else
+                    out.writeChar(c);
+            }
+        }
+
+        static StringTable read(ByteBuffer bb) {
+            int[] offsets = readInts(bb);
+            boolean latin1 = bb.get() != 0;
+            char[] chars = new char[bb.getInt()];
+            if (latin1) {
+                for (int i = 0; i < chars.length; i++)
+                    chars[i] = (char) (bb.get() & 0xFF);
+            } else {
+                bb.asCharBuffer().get(chars);
+                bb.position(bb.position() + 2 * chars.length);
+            }
+            return new StringTable(offsets, chars);
+        }
+    }
+}
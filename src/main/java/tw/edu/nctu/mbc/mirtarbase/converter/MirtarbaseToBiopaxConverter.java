@@ -1,8 +1,5 @@
 package tw.edu.nctu.mbc.mirtarbase.converter;
 
-import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
-import org.apache.poi.ss.usermodel.*;
-import org.biopax.paxtools.controller.*;
 import org.biopax.paxtools.model.BioPAXElement;
 import org.biopax.paxtools.model.BioPAXLevel;
 import org.biopax.paxtools.model.Model;
@@ -11,9 +8,17 @@ import org.biopax.paxtools.model.level3.Process;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class MirtarbaseToBiopaxConverter {
     private static Logger log = LoggerFactory.getLogger(MirtarbaseToBiopaxConverter.class);
@@ -22,14 +27,36 @@ public class MirtarbaseToBiopaxConverter {
     private static final String TAXONOMY_NS = IDENTIFIERS_NS + "taxonomy/";
     private static final String MIRT_NS = IDENTIFIERS_NS + "mirtarbase/";
 
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 100000;
+
     private Model model;
     private String xmlBase = "";
     private boolean makePathwayPerOrganism = false;
-
-    private final Map<String,String> orgCodeToNameMap = new HashMap<String, String>();
-    private final Map<String,String> orgCodeToTaxonMap = new HashMap<String, String>();
-    private final Map<String,String> mirNameToIdMap = new HashMap<String, String>();
-    private final Map<String,String> orgNameToCodeMap = new HashMap<String, String>();
+    private int threads = 1;
+    private Set<String> ids = null;
+    private Collection<String> organisms = null;
+    private File checkpointDir = null;
+    private int checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+    private String inputId = null;
+    private RejectWriter rejects = null;
+    private MtiIndex.Builder indexBuilder = null;
+    // rows reported by the current conversion, by problem
+    private final long[] rejected = new long[ConversionStats.Problem.values().length];
+    // objects created by type during a conversion (by the building thread; added to the stats at the end)
+    private final Map<Class<?>, long[]> createdCounts = new IdentityHashMap<Class<?>, long[]>();
+    private ExperimentNormalizer experimentNormalizer = new ExperimentNormalizer();
+    private ConversionStats stats = new ConversionStats();
+    private final InteractionsBySpecies interactionsBySpecies = new InteractionsBySpecies();
+    private final EntityIndex index = new EntityIndex();
+    private final StringPool strings = new StringPool();
+
+    private MirBase mirBase;
+    // streaming mode: the output and the elements created but not written yet
+    private BiopaxStreamWriter writer;
+    private final List<BioPAXElement> created = new ArrayList<BioPAXElement>();
+    // streaming to a file with checkpoints: the file output and the checkpoint to update
+    private FileOutputStream checkpointedOut;
+    private ConversionCheckpoint checkpoint;
 
     /**
      * Whether to generate such "pathways", one per species, that contain all the interactions.
@@ -42,6 +69,128 @@ public class MirtarbaseToBiopaxConverter {
         this.makePathwayPerOrganism = makePathwayPerOrganism;
     }
 
+    /**
+     * Fixes and splits the 'Experiments' column values (the built-in rules are used by default).
+     * @return normalizer
+     */
+    public ExperimentNormalizer getExperimentNormalizer() {
+        return experimentNormalizer;
+    }
+    public void setExperimentNormalizer(ExperimentNormalizer experimentNormalizer) {
+        this.experimentNormalizer = experimentNormalizer;
+    }
+
+    /**
+     * Timings and counters of the conversions (accumulated until reset).
+     * @return stats
+     */
+    public ConversionStats getStats() {
+        return stats;
+    }
+    public void setStats(ConversionStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Number of worker threads that prepare the rows (and serialize the model, see {@link #write(Model, OutputStream)}).
+     * With more than one, the rows are also read by a separate thread, ahead of building the BioPAX objects.
+     * The objects are always built in one thread, in the row order, so the result does not depend on this value.
+     * @return number of threads (1 - default, no extra threads)
+     */
+    public int getThreads() {
+        return threads;
+    }
+    public void setThreads(int threads) {
+        if(threads < 1)
+            throw new IllegalArgumentException("threads < 1");
+        this.threads = threads;
+    }
+
+    /**
+     * Only the rows with these MIRT IDs are converted, e.g., the interactions added or changed since
+     * the previous release (see {@link MtiFingerprints.Delta#getAddedOrChanged()}); other rows are skipped.
+     * @return MIRT IDs to convert or null (default) - all
+     */
+    public Set<String> getIds() {
+        return ids;
+    }
+    public void setIds(Set<String> ids) {
+        this.ids = ids;
+    }
+
+    /**
+     * Only the rows where both the miRNA and the target gene species are in this list are converted;
+     * other rows are skipped right after reading the species columns (no objects are made for them).
+     * @return allowed organisms - miRBase codes (e.g., 'hsa'), NCBI taxonomy IDs or names - or null (default) - all
+     */
+    public Collection<String> getOrganisms() {
+        return organisms;
+    }
+    public void setOrganisms(Collection<String> organisms) {
+        this.organisms = organisms;
+    }
+
+    /**
+     * Directory where the streaming conversion to a file saves its checkpoints
+     * (see {@link #convertToOWL(MtiRowSource, MirBase, File, boolean)}).
+     * @return directory or null (default) - no checkpoints
+     */
+    public File getCheckpointDir() {
+        return checkpointDir;
+    }
+    public void setCheckpointDir(File checkpointDir) {
+        this.checkpointDir = checkpointDir;
+    }
+
+    /**
+     * A checkpoint is saved after the last row of the interaction (MIRT ID) that ends
+     * at least this many input rows after the previous checkpoint.
+     * @return number of input rows (default: {@link #DEFAULT_CHECKPOINT_INTERVAL})
+     */
+    public int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+    public void setCheckpointInterval(int checkpointInterval) {
+        if(checkpointInterval < 1)
+            throw new IllegalArgumentException("checkpointInterval < 1");
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * Identifies the input rows (e.g., a digest of the input file, its format and sort order),
+     * so that a checkpoint is only resumed with the same input.
+     * @return input ID, or null (default) - only the number of rows is checked when resuming
+     */
+    public String getInputId() {
+        return inputId;
+    }
+    public void setInputId(String inputId) {
+        this.inputId = inputId;
+    }
+
+    /**
+     * Where to report the rows with a bad gene ID or PMID, or a duplicate evidence
+     * (otherwise, they are only logged at the debug level, and counted, see {@link ConversionStats.Problem}).
+     * @return reject writer (not closed by the converter) or null (default)
+     */
+    public RejectWriter getRejects() {
+        return rejects;
+    }
+    public void setRejects(RejectWriter rejects) {
+        this.rejects = rejects;
+    }
+
+    /**
+     * Collects the miRNA - target gene index of the converted rows (see {@link MtiIndex}).
+     * @return index builder (saved by the caller) or null (default)
+     */
+    public MtiIndex.Builder getIndexBuilder() {
+        return indexBuilder;
+    }
+    public void setIndexBuilder(MtiIndex.Builder indexBuilder) {
+        this.indexBuilder = indexBuilder;
+    }
+
     public void setXmlBase(String xmlBase) {
         this.xmlBase = xmlBase;
         if(model != null)
@@ -49,7 +198,21 @@ public class MirtarbaseToBiopaxConverter {
     }
 
     private <T extends BioPAXElement> T create(Class<T> aClass, String id) {
-        return model.addNew(aClass, absoluteUri(id));
+        T element = model.addNew(aClass, absoluteUri(id));
+        long[] count = createdCounts.get(aClass);
+        if(count == null)
+            createdCounts.put(aClass, new long[]{1L});
+        else
+            count[0]++;
+        if(writer != null)
+            created.add(element);
+        return element;
+    }
+
+    // the same string for the same value in all the objects of the model
+    // (not in the streaming mode, where the objects are not kept)
+    private String pooled(String s) {
+        return (writer == null) ? strings.get(s) : s;
     }
 
     private <T extends BioPAXElement> T findById(String rdfId) {
@@ -70,14 +233,18 @@ public class MirtarbaseToBiopaxConverter {
      * @return
      */
     private BioSource getOrganism(String code) {
-        String taxid = orgCodeToTaxonMap.get(code);
-        String name = orgCodeToNameMap.get(code);
+        BioSource bioSource = index.organisms.get(code);
+        if(bioSource != null)
+            return bioSource;
 
-        BioSource bioSource = findById(TAXONOMY_NS+taxid);
+        String taxid = mirBase.getTaxon(code);
+        String name = mirBase.getOrganismName(code);
+
+        bioSource = index.organismsByTaxon.get(taxid);
         if(bioSource == null) {
             bioSource = create(BioSource.class, TAXONOMY_NS+taxid);
-            bioSource.setDisplayName(name);
-            bioSource.setStandardName(name);
+            bioSource.setDisplayName(pooled(name));
+            bioSource.setStandardName(pooled(name));
             UnificationXref ux = findById("taxonomy_" + taxid);
             if(ux == null) {
                 ux = create(UnificationXref.class, "taxonomy_" + taxid);
@@ -85,7 +252,9 @@ public class MirtarbaseToBiopaxConverter {
                 ux.setId(taxid);
             }
             bioSource.addXref(ux);
+            index.organismsByTaxon.put(taxid, bioSource);
         }
+        index.organisms.put(code, bioSource);
 
         return bioSource;
     }
@@ -93,243 +262,519 @@ public class MirtarbaseToBiopaxConverter {
     /**
      * Converts miRTarBase to BioPAX L3 model using built-in aliases and organisms maps from MiRBase.
      *
-     * @param miRTarBase the MTI XSL(X) MS Excel Workbook input stream
+     * @param miRTarBase the MTI XSL(X) MS Excel Workbook or TSV/CSV input stream
      * @throws Exception when there is an I/O error or invalid input format.
      * @return model
      */
     public Model convert(InputStream miRTarBase) throws IOException {
-        return convert(miRTarBase,
-                getClass().getResourceAsStream("/aliases.txt"),
-                    getClass().getResourceAsStream("/organisms.txt"));
+        return convert(miRTarBase, null, null);
     }
 
     /**
-     * Converts miRTarBase to BioPAX L3 model.
+     * Converts miRTarBase to BioPAX L3 model (the input format is detected automatically).
      *
-     * @param miRTarBase the MTI XSL(X) MS Excel Workbook input stream
-     * @param mirAliases aliases.txt
-     * @param mirOrganisms organisms.txt
+     * @param miRTarBase the MTI XSL(X) MS Excel Workbook or TSV/CSV input stream
+     * @param mirAliases aliases.txt or null (to use the built-in one)
+     * @param mirOrganisms organisms.txt or null (to use the built-in one)
      * @throws Exception when there is an I/O error or invalid input format.
      * @return model
      */
     public Model convert(InputStream miRTarBase, InputStream mirAliases, InputStream mirOrganisms)
             throws IOException
     {
-        Workbook wb = null;
+        if(!miRTarBase.markSupported())
+            miRTarBase = new BufferedInputStream(miRTarBase);
+
+        MtiRowSource rows = MtiFormat.detect(miRTarBase).open(miRTarBase);
         try {
-            wb = WorkbookFactory.create(miRTarBase);
-        } catch (InvalidFormatException e) {
-            throw new IOException(e);
+            return convert(rows, mirAliases, mirOrganisms);
+        } finally {
+            rows.close();
+            miRTarBase.close();
         }
+    }
 
-        Sheet sheet = wb.getSheetAt(0);
-        log.info("Now parsing the first Excel worksheet: " + sheet.getSheetName());
-
-        int physicalNumberOfRows = sheet.getPhysicalNumberOfRows();
-        log.info("There are " + physicalNumberOfRows + " rows in the miRTarBase file.");
+    /**
+     * Converts miRTarBase to BioPAX L3 model.
+     *
+     * @param rows the MTI data rows
+     * @param mirAliases aliases.txt or null (to use the built-in one)
+     * @param mirOrganisms organisms.txt or null (to use the built-in one)
+     * @throws IOException when there is an I/O error or invalid input format.
+     * @return model
+     */
+    public Model convert(MtiRowSource rows, InputStream mirAliases, InputStream mirOrganisms)
+            throws IOException
+    {
+        if(mirAliases==null && mirOrganisms==null)
+            return convert(rows, MirBase.getDefault());
 
         if(mirAliases==null)
             mirAliases = getClass().getResourceAsStream("/aliases.txt");
         if(mirOrganisms==null)
             mirOrganisms = getClass().getResourceAsStream("/organisms.txt");
 
-        //init internal maps from miRBase
-        loadMirBase(mirAliases,mirOrganisms);
+        MirBase mirBase;
+        ConversionStats.Timer timer = stats.start(ConversionStats.Stage.LOAD_MIRBASE);
+        try {
+            mirBase = MirBase.parse(mirAliases, mirOrganisms);
+        } finally {
+            timer.stop();
+        }
+        return convert(rows, mirBase);
+    }
 
-        // create a new empty biopax level3 model; set the xml:base
-        model = BioPAXLevel.L3.getDefaultFactory().createModel();
-        model.setXmlBase(xmlBase);
+    /**
+     * Converts miRTarBase to BioPAX L3 model.
+     *
+     * @param rows the MTI data rows
+     * @param mirBase miRNA aliases and organisms (see {@link MirBase#load(java.io.File, java.io.File)})
+     * @throws IOException when there is an I/O error or invalid input format.
+     * @return model
+     */
+    public Model convert(MtiRowSource rows, MirBase mirBase) throws IOException
+    {
+        convertRows(rows, mirBase, null);
 
-        Set<String> uniqueExperimentTypes = new HashSet<String>(); //tmp map
+        log.info("Converted miRTarBase BioPAX model contains: "
+                + model.getObjects(Pathway.class).size() + " pathways; "
+                + model.getObjects(TemplateReaction.class).size() + " template reactions; "
+                + model.getObjects(TemplateReactionRegulation.class).size() + " controls; "
+                + model.getObjects(Protein.class).size() + " products."
+        );
 
-        // process rows
-        for(int r=1; r < physicalNumberOfRows; r++) {
-            Row row = sheet.getRow(r);
-            /*  Columns:
-              
-                0- miRTarBase ID
-                1- miRNA
-                2- Species (miRNA)
-                3- Target Gene
-                4- Target Gene (Entrez Gene ID)
-                5- Species (Target Gene)
-                6- Experiments - one per line
-                7- Support Type
-                8- References (PMID) - one per line
-
-                The same ID (col:0) and next 5 values can occur again in other lines,
-                but one or more of columns: 6,7, or (especially) 8 will differ.
-            */
-
-            String id = row.getCell(0).getStringCellValue().trim(); //MIRT\d{6} standard identifier
-            String name = row.getCell(1).getStringCellValue().trim();
-            String organism = row.getCell(2).getStringCellValue().trim(); //miRNA's species name
-            String targetGene = row.getCell(3).getStringCellValue().trim();
-
-            Cell cell = row.getCell(4);
-            int targetGeneId = 0;
-            try {
-                targetGeneId = new Double(cell.getNumericCellValue()).intValue();
-            } catch (Exception e) {
-                log.warn(String.format("failed to parse gene ID at row %d: %s %s, gene: %s (%s)",
-                        r, id, name, targetGene, e));
+        return this.model;
+    }
+
+    /**
+     * Converts miRTarBase to BioPAX L3 and writes RDF/XML while reading the rows
+     * (streaming mode; the result is the same as of {@link #convert(MtiRowSource, MirBase)}
+     * followed by {@link org.biopax.paxtools.io.SimpleIOHandler#convertToOWL(Model, OutputStream)}).
+     *
+     * Shared objects (organisms, miRNAs, products, xrefs, scores) are kept in memory
+     * and written once, after the row where they first occur; each control interaction
+     * is written (and forgotten) together with its evidence after the last row of its MIRT ID.
+     * So, the rows with the same ID must be adjacent (as in the miRTarBase MTI files;
+     * otherwise, use {@link SortedRowSource}).
+     *
+     * @param rows the MTI data rows
+     * @param mirBase miRNA aliases and organisms (see {@link MirBase#load(java.io.File, java.io.File)})
+     * @param out BioPAX RDF/XML output (gets closed)
+     * @throws IOException when there is an I/O error or invalid input format.
+     */
+    public void convertToOWL(MtiRowSource rows, MirBase mirBase, OutputStream out) throws IOException
+    {
+        writer = new BiopaxStreamWriter(out, xmlBase);
+        try {
+            convertRows(rows, mirBase, null);
+            log.info("Wrote " + writer.getCount() + " BioPAX objects.");
+        } finally {
+            created.clear();
+            writer.close();
+            writer = null;
+            model = null;
+        }
+    }
+
+    /**
+     * Converts miRTarBase to BioPAX L3 and writes RDF/XML to the file while reading the rows
+     * (see {@link #convertToOWL(MtiRowSource, MirBase, OutputStream)}), saving a checkpoint
+     * every {@link #getCheckpointInterval()} rows when the {@link #getCheckpointDir()} is set.
+     *
+     * A checkpoint is made after the last row of an interaction, when all the objects made so far
+     * have been written; it keeps the number of input rows done, the output length and the URIs
+     * of the shared objects (by their keys: PMIDs, gene IDs, miRNA names, etc.). When resuming,
+     * the output is cut to that length, the rows done are skipped and the shared objects are looked up
+     * as before, so the output is the same as of an uninterrupted conversion of the same rows
+     * with the same options. The checkpoint is deleted when the conversion completes.
+     * A {@link #getRejects()} file opened for appending is cut to its length at the checkpoint
+     * (or started over when there is none).
+     *
+     * @param rows the MTI data rows (from the first one, also when resuming)
+     * @param mirBase miRNA aliases and organisms (see {@link MirBase#load(java.io.File, java.io.File)})
+     * @param output BioPAX RDF/XML output file
+     * @param resume whether to continue from the checkpoint in {@link #getCheckpointDir()} (if there is one)
+     * @throws IOException when there is an I/O error, invalid input format, or the checkpoint does not match
+     */
+    public void convertToOWL(MtiRowSource rows, MirBase mirBase, File output, boolean resume) throws IOException
+    {
+        ConversionCheckpoint resumeFrom = null;
+        if(checkpointDir != null) {
+            if(!checkpointDir.isDirectory() && !checkpointDir.mkdirs())
+                throw new IOException("Failed to create the checkpoint directory: " + checkpointDir);
+            checkpoint = new ConversionCheckpoint(checkpointDir);
+            if(resume && checkpoint.exists()) {
+                resumeFrom = new ConversionCheckpoint(checkpointDir);
+                resumeFrom.load();
+                if(!checkpointOptions(mirBase).equals(resumeFrom.options))
+                    throw new IOException("The checkpoint " + resumeFrom.getFile()
+                            + " was made with a different input, miRBase data, experiment rules or converter options");
+                if(output.length() < resumeFrom.outputBytes)
+                    throw new IOException("The output file " + output + " is shorter than at the checkpoint");
+            } else if(resume) {
+                log.info("No checkpoint in " + checkpointDir + "; converting from the first row");
             }
+        } else if(resume) {
+            throw new IllegalStateException("Cannot resume: the checkpoint directory is not set");
+        }
 
-            String targetOrganism = row.getCell(5).getStringCellValue().trim();
-
-            //find prev. generated TemplateReactionRegulation by MIRT ID or make a new one
-            TemplateReactionRegulation regulation = findById(MIRT_NS + id);
-            if(regulation == null)
-            {
-                TemplateReaction templateReaction = getTranscription(targetGene, targetGeneId, targetOrganism);
-
-                regulation = create(TemplateReactionRegulation.class, MIRT_NS + id);
-                regulation.setControlType(ControlType.INHIBITION);
-                regulation.addControlled(templateReaction);
-
-                //find or create a Rna, RnaRef...
-                final String lcName = name.toLowerCase(); //lc is important
-                final String rnaRefRdfId = "ref_" + lcName;
-                final String rnaRdfId = "rna_"+ lcName; //names are like 'hsa-miR...'
-                Rna mirna = findById(rnaRdfId);
-                if (mirna == null) {
-                    mirna = create(Rna.class, rnaRdfId);
-                    mirna.setDisplayName(name);
-                    //find/create a RnaReference
-                    RnaReference rnaReference = findById(rnaRefRdfId);
-                    if(rnaReference == null) {
-                        rnaReference = create(RnaReference.class, rnaRefRdfId);
-                        rnaReference.setDisplayName(lcName);
-                        rnaReference.setStandardName(lcName);
-                        rnaReference.setOrganism(getOrganism(orgCodeFromMir(lcName)));
-                        String accessions = mirNameToIdMap.get(lcName);
-                        if(accessions != null) {
-                            for(String ac : accessions.split(";")) {
-                                RelationshipXref x = findById("mirbase_" + ac);
-                                if(x == null) {
-                                    x = create(RelationshipXref.class, "mirbase_" + ac);
-                                    x.setDb((ac.startsWith("MIMAT")) ? "miRBase mature sequence" : "miRBase Sequence");
-                                    x.setId(ac);
-                                }
-                                rnaReference.addXref(x);
-                            }
-                        }
-                    }
-                    mirna.setEntityReference(rnaReference);
-                }
+        if(resume && rejects != null)
+            rejects.truncate((resumeFrom != null && resumeFrom.rejectsBytes >= 0) ? resumeFrom.rejectsBytes : 0);
+        if(resumeFrom != null) {
+            checkpointedOut = new FileOutputStream(output, true);
+            checkpointedOut.getChannel().truncate(resumeFrom.outputBytes);
+            writer = new BiopaxStreamWriter(checkpointedOut, xmlBase, resumeFrom.outputBytes, resumeFrom.outputCount);
+        } else {
+            checkpointedOut = new FileOutputStream(output);
+            writer = new BiopaxStreamWriter(checkpointedOut, xmlBase);
+        }
+        boolean completed = false;
+        try {
+            convertRows(rows, mirBase, resumeFrom);
+            log.info("Wrote " + writer.getCount() + " BioPAX objects.");
+            completed = true;
+        } finally {
+            created.clear();
+            writer.close();
+            writer = null;
+            model = null;
+            checkpointedOut = null;
+            if(completed && checkpoint != null)
+                checkpoint.delete();
+            checkpoint = null;
+        }
+    }
+
+    /**
+     * Describes what, besides the input rows, the converted interactions depend on:
+     * the xml:base, pathways and organisms options, and the miRBase data and experiment rules
+     * (by their digests); e.g., to tell whether a previous output can be updated with only the changed rows.
+     * @param mirBase miRBase data to convert with
+     * @return the options and data digests
+     */
+    public String getOutputOptions(MirBase mirBase) {
+        return "xmlBase=" + xmlBase + "; pathways=" + makePathwayPerOrganism + "; organisms=" + organisms
+                + "; mirbase=" + mirBase.getDigest() + "; rules=" + experimentNormalizer.getDigest();
+    }
+
+    // the input, data and options that change the output (a checkpoint is not valid for other ones)
+    private String checkpointOptions(MirBase mirBase) {
+        return "input=" + inputId + "; ids=" + ((ids == null) ? "all" : ids.size() + "#" + ids.hashCode())
+                + "; " + getOutputOptions(mirBase);
+    }
 
-                regulation.addController(mirna);
-//                regulation.addName(name + " (" + organism + ") regulates expression of " + targetGene + " in " + targetOrganism);
-                regulation.setDisplayName(name + " regulates " + targetGene);
-                regulation.setStandardName(id);
+    // writes out the buffered output and saves the checkpoint (streaming mode, between interactions)
+    private void saveCheckpoint(long position, String lastId, boolean unordered) throws IOException {
+        long t = System.nanoTime();
+        checkpoint.options = checkpointOptions(mirBase);
+        checkpoint.position = position;
+        checkpoint.outputBytes = writer.flush();
+        checkpoint.outputCount = writer.getCount();
+        checkpoint.lastId = lastId;
+        checkpoint.unordered = unordered;
+        checkpoint.rejectsBytes = (rejects != null) ? rejects.sync() : -1;
+        checkpointedOut.getFD().sync();
+        checkpoint.save(index, interactionsBySpecies);
+        stats.addWallTime(ConversionStats.Stage.WRITE, System.nanoTime() - t);
+        log.debug("Saved a checkpoint after input row " + position);
+    }
 
-                RelationshipXref rx = create(RelationshipXref.class, "mirtarbase_" + id);
-                rx.setDb("miRTarBase");
-                rx.setId(id);
-                regulation.addXref(rx);
+    /**
+     * Writes the model as BioPAX RDF/XML; the output is the same as of
+     * {@link org.biopax.paxtools.io.SimpleIOHandler#convertToOWL(Model, OutputStream)},
+     * but the objects are serialized in parallel (in chunks) when there are several threads.
+     *
+     * @param model BioPAX model
+     * @param out output stream (gets closed)
+     * @throws IOException when there is an I/O error
+     */
+    public void write(Model model, OutputStream out) throws IOException
+    {
+        ConversionStats.Timer timer = stats.start(ConversionStats.Stage.WRITE);
+        BiopaxStreamWriter modelWriter = new BiopaxStreamWriter(out, model.getXmlBase());
+        try {
+            if(threads > 1) {
+                ExecutorService workers = newWorkers(threads);
+                try {
+                    modelWriter.writeAll(model.getObjects(), workers);
+                } finally {
+                    workers.shutdownNow();
+                }
+            } else {
+                for(BioPAXElement element : model.getObjects())
+                    modelWriter.write(element);
             }
+        } finally {
+            modelWriter.close();
+            timer.stop();
+        }
+    }
 
+    /**
+     * Writes the model as one BioPAX RDF/XML file per taxon (the miRNA's organism),
+     * each with all the objects its interactions (and pathway) refer to, and a manifest.json
+     * with the files' object counts, sizes and SHA-256 checksums; the files are written
+     * concurrently, using {@link #getThreads()} threads.
+     *
+     * @param model BioPAX model
+     * @param dir output directory (created when missing)
+     * @param gzip whether to gzip the files (*.owl.gz)
+     * @throws IOException when there is an I/O error
+     */
+    public void writeShards(Model model, File dir, boolean gzip) throws IOException
+    {
+        ConversionStats.Timer timer = stats.start(ConversionStats.Stage.WRITE);
+        ExecutorService workers = newWorkers(threads);
+        try {
+            int n = new ShardWriter(model, dir, gzip).write(workers);
+            log.info("Wrote " + n + " BioPAX files and " + ShardWriter.MANIFEST + " to: " + dir);
+        } finally {
+            workers.shutdownNow();
+            timer.stop();
+        }
+    }
 
-            cell = row.getCell(6);
-            String experiments = (cell != null) ? cell.getStringCellValue().trim() : null;
-            cell = row.getCell(7);
-            String support = (cell != null) ? cell.getStringCellValue().trim() : null;
-            cell = row.getCell(8);
+    private static ExecutorService newWorkers(int n) {
+        return Executors.newFixedThreadPool(n, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "mirtarbase-worker-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
 
-            try {
-                int pmid = new Double(cell.getNumericCellValue()).intValue();
+    private void convertRows(MtiRowSource rows, MirBase mirBase, ConversionCheckpoint resumeFrom) throws IOException
+    {
+        this.mirBase = mirBase;
+        final TaxonFilter filter = (organisms != null) ? new TaxonFilter(mirBase, organisms) : null;
+        if(filter != null)
+            log.info("Converting only the rows of taxa: " + filter.getTaxa());
 
-                PublicationXref pubxref = findById("pub_" + pmid);
-                if (pubxref == null) {
-                    pubxref = create(PublicationXref.class, "pub_" + pmid);
-                    pubxref.setDb("PubMed");
-                    pubxref.setId(pmid + "");
+        // create a new empty biopax level3 model; set the xml:base
+        model = BioPAXLevel.L3.getDefaultFactory().createModel();
+        model.setXmlBase(xmlBase);
+        index.clear();
+        interactionsBySpecies.clear();
+        strings.clear();
+        Arrays.fill(rejected, 0);
+        createdCounts.clear();
+
+        final long normalizerHits = experimentNormalizer.getHits();
+        final long normalizerMisses = experimentNormalizer.getMisses();
+        ConversionStats.Timer convertTimer = stats.start(ConversionStats.Stage.CONVERT);
+
+        // process rows; with several threads, the rows are read and prepared ahead, in parallel,
+        // but the objects are still built here, in the row order (so that the result is the same)
+        int numberOfRows = 0;
+        int skippedRows = 0;
+        String lastId = null;
+        boolean unordered = false;
+        long start = 0; //input rows done before (when resuming)
+        if(resumeFrom != null) {
+            resumeFrom.restore(model, index, interactionsBySpecies);
+            start = resumeFrom.position;
+            lastId = resumeFrom.lastId;
+            unordered = resumeFrom.unordered;
+            for(long i = 0; i < start; i++)
+                if(!rows.next())
+                    throw new IOException("The input has fewer rows (" + i + ") than were done at the checkpoint");
+            log.info("Resuming from the checkpoint: skipped " + start + " input rows done before; "
+                    + writer.getCount() + " BioPAX objects written.");
+        }
+        long position = start - 1; //0-based index of the current row in the input
+        long nextCheckpoint = start + checkpointInterval;
+        MtiRecord record = new MtiRecord();
+        ExecutorService workers = null;
+        ParallelRecordReader parallelReader = null;
+        if(threads > 1) {
+            workers = newWorkers(threads);
+            parallelReader = new ParallelRecordReader(rows, filter, experimentNormalizer, workers, 2 * threads);
+        }
+        try {
+            while(true) {
+                long t = System.nanoTime();
+                if(parallelReader != null) {
+                    record = parallelReader.next();
+                    if(record == null)
+                        break;
+                    position = start + record.position;
+                } else {
+                    if(!rows.next())
+                        break;
+                    position++;
+                    if(filter != null && !filter.accept(rows)) {
+                        skippedRows++;
+                        stats.addWallTime(ConversionStats.Stage.READ, System.nanoTime() - t);
+                        continue;
+                    }
+                    record.read(rows);
+                }
+                stats.addWallTime(ConversionStats.Stage.READ, System.nanoTime() - t);
+                if(ids != null && !ids.contains(record.id)) {
+                    skippedRows++;
+                    continue;
                 }
-                regulation.addXref(pubxref);
-
-                //add Evidence using 'pmid','experiment','support' columns...
-                Evidence ev = create(Evidence.class, "evidence_" + id + "_" + pmid);
-                ev.addXref(pubxref);
-                regulation.addEvidence(ev);
-
-                if (experiments != null) {
-                    // parse,fix the 'Experiment' data cell value (contains funny typos), in order:
-                    String fixExperiments = experiments.trim().toLowerCase()
-                            .replaceAll("\\\\","")
-                            .replaceAll(",",";")
-                            .replaceAll("5\"","5'")
-                            .replaceAll("3\"","3'")
-                            .replaceAll("5race","5'race")
-                            .replaceAll("3race","3'race")
-                            .replaceAll("blog|blotting","blot")
-                            .replaceAll("blo$","blot")
-                            .replaceAll("weastern|wstern|wetsern|westren","western")
-                            .replaceAll("taion","tation")
-                            .replaceAll("flourescence","fluorescence")
-                            .replaceAll("assays","assay")
-                            .replaceAll("pcrw","pcr//w") //missing separator
-                            .replaceAll("rt_pcr|rt pcr|rtpcr","rt-pcr") //works for qrt* too
-                            .replaceAll("micorarray","microarray")
-                            .replaceAll("(real time)|real_time","real-time")
-                            .replaceAll("immuo","immuno")
-                            .replaceAll("communo","coimmuno")
-                    ;
-
-                    ev.addComment(fixExperiments);
-
-                    //TODO: ? evidenceCode (prefer MI to ECO/CHMO; handle multiple terms per evidence/row...)
-                    //perhaps, '//' chains or orders the exp. methods, whereas ';' or ',' separates different protocols/chains used...
-                    final String[] expTypes = fixExperiments.split("[/;,]+");
-                    for(String s : expTypes) {
-                        String expType = s.trim();
-                        //fix semi-fixed mirtarbase terms
-                        if(expType.contains("western"))
-                            expType = "western blot"; //MI:0113
-                        else if(expType.contains("northern"))
-                            expType = "northern blot"; //MI:0929
-                        else if(expType.startsWith("flow"))
-                            expType = "flow cytometry"; //MI:0054
-//                        else if(expType.contains("2dge"))
-//                            expType = "electrophoresis"; // electrophoresis MI:0982 ?
-
-                        if(expType.contains("reporter") && !expType.startsWith("reporter")) {
-                            expType = expType.replaceAll("reporter(\\s+assay)?", "assay");
+                final int r = record.row;
+                numberOfRows++;
+                if(record.getMissingColumn() >= 0) {
+                    reject(r, record.id, ConversionStats.Problem.MISSING_CELL,
+                            MtiRecord.COLUMN_NAMES[record.getMissingColumn()]);
+                    continue;
+                }
+                /*  Columns:
+              
+                    0- miRTarBase ID
+                    1- miRNA
+                    2- Species (miRNA)
+                    3- Target Gene
+                    4- Target Gene (Entrez Gene ID)
+                    5- Species (Target Gene)
+                    6- Experiments - one per line
+                    7- Support Type
+                    8- References (PMID) - one per line
+
+                    The same ID (col:0) and next 5 values can occur again in other lines,
+                    but one or more of columns: 6,7, or (especially) 8 will differ.
+                */
+
+                String id = record.id; //MIRT\d{6} standard identifier
+                if(writer != null && lastId != null && !id.equals(lastId)) {
+                    writeInteraction(lastId);
+                    if(!unordered && id.compareTo(lastId) < 0) {
+                        unordered = true;
+                        log.warn(String.format("rows are not ordered by ID (row %d: %s after %s); " +
+                                "streaming output may contain the same control interaction more than once " +
+                                "(group the rows first, see SortedRowSource)", r, id, lastId));
+                    }
+                    if(checkpoint != null && position >= nextCheckpoint) {
+                        saveCheckpoint(position, lastId, unordered);
+                        nextCheckpoint = position + checkpointInterval;
+                    }
+                }
+                lastId = id;
+                String name = record.name;
+                String organism = record.organism; //miRNA's species name
+                String targetGene = record.targetGene;
+
+                int targetGeneId = 0;
+                if(record.hasTargetGeneId())
+                    targetGeneId = record.targetGeneId;
+                else
+                    reject(r, id, ConversionStats.Problem.BAD_GENE_ID, record.targetGeneIdText);
+                if(indexBuilder != null && record.hasTargetGeneId())
+                    indexBuilder.add(name, targetGeneId, record.hasPmid() ? record.pmid : 0, record.support);
+
+                String targetOrganism = record.targetOrganism;
+
+                //find prev. generated TemplateReactionRegulation by MIRT ID or make a new one
+                TemplateReactionRegulation regulation = index.regulations.get(id);
+                if(regulation == null)
+                {
+                    TemplateReaction templateReaction = getTranscription(targetGene, targetGeneId, targetOrganism);
+
+                    regulation = create(TemplateReactionRegulation.class, MIRT_NS + id);
+                    regulation.setControlType(ControlType.INHIBITION);
+                    regulation.addControlled(templateReaction);
+                    index.regulations.put(id, regulation);
+
+                    //find or create a Rna, RnaRef...
+                    Rna mirna = index.mirnas.get(name);
+                    if (mirna == null) {
+                        final String lcName = name.toLowerCase(); //lc is important
+                        mirna = index.mirnasByLcName.get(lcName);
+                        if (mirna == null) {
+                            mirna = getMirna(name, lcName);
+                            index.mirnasByLcName.put(lcName, mirna);
                         }
+                        index.mirnas.put(name, mirna);
+                    }
 
-                        //...
+                    regulation.addController(mirna);
+//                    regulation.addName(name + " (" + organism + ") regulates expression of " + targetGene + " in " + targetOrganism);
+                    regulation.setDisplayName(pooled(name + " regulates " + targetGene));
+                    regulation.setStandardName(id);
 
-                        if (!expType.isEmpty()) {
-                            uniqueExperimentTypes.add(expType); //TODO: remove diagnostic code
-                        }
-                    }
+                    RelationshipXref rx = create(RelationshipXref.class, "mirtarbase_" + id);
+                    rx.setDb("miRTarBase");
+                    rx.setId(id);
+                    regulation.addXref(rx);
                 }
 
-                if (support != null) {
-                    //set evidence/confidence:Score/value (e.g., 'Functional MTI')
-//                    regulation.addComment(support);
-                    String value = support.trim().toLowerCase();
-                    //TODO: decide whether to re-use same-value Scores or not (exper. methods/tools chain may differ...)
-                    String scoreId = "score_" + value.replaceAll("[^-\\w]+", "_");
-                    Score score = findById(scoreId);
-                    if(score==null) {
-                        score = create(Score.class, scoreId);
-                        score.setValue(value);
-                        //TODO: ? PublicationXref (url: method wiki URL), or MI RX...
-//                      score.addXref(px);
-                        //TODO: set scoreSource:Provenance (mirTaRBase; same as for all Entities)
+
+                if(record.experiments == null)
+                    stats.problem(ConversionStats.Problem.NO_EXPERIMENTS);
+                if(record.support == null)
+                    stats.problem(ConversionStats.Problem.NO_SUPPORT_TYPE);
+
+                if(!record.hasPmid()) {
+                    reject(r, id, ConversionStats.Problem.BAD_PMID, record.pmidText);
+                } else {
+                    try {
+                        addEvidence(regulation, record);
+                    } catch (RuntimeException e) {
+                        stats.problem(ConversionStats.Problem.EVIDENCE_FAILED);
+                        log.error(String.format("failed to make the evidence at row %d: %s, gene: %s (%s)", r, id, name, e));
                     }
-                    ev.addConfidence(score);
                 }
-            } catch (Exception e) {
-                log.error(String.format("failed to parse PMID at row %d: %s, gene: %s (%s)", r, id, name, e));
+
+                if(makePathwayPerOrganism) //per miRNA's species, not target gene's organism
+                    assignReactionToPathway(regulation, organism);
             }
+            if(parallelReader != null)
+                skippedRows += parallelReader.getSkipped();
+        } finally {
+            if(parallelReader != null)
+                parallelReader.close();
+            if(workers != null)
+                workers.shutdownNow();
+        }
 
-            if(makePathwayPerOrganism) //per miRNA's species, not target gene's organism
-                assignReactionToPathway(regulation, organism);
+        if(writer != null && lastId != null)
+            writeInteraction(lastId);
+        convertTimer.stop();
+        stats.addRows(numberOfRows);
+
+        if(makePathwayPerOrganism) {
+            ConversionStats.Timer timer = stats.start(ConversionStats.Stage.PATHWAYS);
+            try {
+                createPathways();
+            } finally {
+                timer.stop();
+            }
         }
 
-        for(String s : uniqueExperimentTypes)
-            System.out.println(s); //TODO: remove diagn./debug code
+        log.info("Processed " + numberOfRows + " miRTarBase rows.");
+        if(skippedRows > 0)
+            log.info("Skipped " + skippedRows + " rows of other MIRT IDs or organisms.");
+        long bad = rejected[ConversionStats.Problem.MISSING_CELL.ordinal()]
+                + rejected[ConversionStats.Problem.BAD_GENE_ID.ordinal()]
+                + rejected[ConversionStats.Problem.BAD_PMID.ordinal()]
+                + rejected[ConversionStats.Problem.EVIDENCE_FAILED.ordinal()];
+        if(bad > 0) {
+            log.warn("Rows with a missing cell (skipped): " + rejected[ConversionStats.Problem.MISSING_CELL.ordinal()]
+                    + ", a bad gene ID (the symbol is used): " + rejected[ConversionStats.Problem.BAD_GENE_ID.ordinal()]
+                    + ", a bad PMID (no evidence): " + rejected[ConversionStats.Problem.BAD_PMID.ordinal()]
+                    + ", a duplicate evidence: " + rejected[ConversionStats.Problem.EVIDENCE_FAILED.ordinal()]
+                    + ((rejects != null) ? "; see the rejects file." : "; set a rejects file for the details."));
+        }
+        if(rejects != null)
+            rejects.flush();
+        log.info("Experiments normalization cache: " + experimentNormalizer.getHits() + " hits, "
+                + experimentNormalizer.getMisses() + " misses.");
+        stats.normalizerCache(experimentNormalizer.getHits() - normalizerHits,
+                experimentNormalizer.getMisses() - normalizerMisses);
+        if(writer == null) {
+            long pooled = strings.getHits() + strings.getMisses();
+            log.info(String.format("String pool: %d strings, %d hits, %d misses (%.1f%% hit rate).",
+                    strings.size(), strings.getHits(), strings.getMisses(),
+                    (pooled > 0) ? 100.0 * strings.getHits() / pooled : 0.0));
+            stats.stringPool(strings.getHits(), strings.getMisses());
+            strings.clear(); //the model keeps the strings
+        }
+        stats.created(createdCounts);
+        log.info("Conversion stats: " + stats);
 
 // No clean-up - this version converter does not generate any dangling objects.
 //        log.info("Removing dangling Rna, RnaReference and Xref...");
@@ -338,152 +783,221 @@ public class MirtarbaseToBiopaxConverter {
 //        removedObjects += ModelUtils.removeObjectsIfDangling(model, RnaReference.class).size();
 //        removedObjects += ModelUtils.removeObjectsIfDangling(model, Xref.class).size();
 //        log.info("Removed " + removedObjects + " objects.");
-        log.info("Converted miRTarBase BioPAX model contains: "
-                + model.getObjects(Pathway.class).size() + " pathways; "
-                + model.getObjects(TemplateReaction.class).size() + " template reactions; "
-                + model.getObjects(TemplateReactionRegulation.class).size() + " controls; "
-                + model.getObjects(Protein.class).size() + " products."
-        );
+    }
 
-        miRTarBase.close();
-        mirAliases.close();
-        mirOrganisms.close();
+    // Streaming mode: writes the new objects, then removes the control interaction
+    // (with its evidence and own xref) from the model, detached from the shared objects.
+    private void writeInteraction(String id) throws IOException {
+        writeCreated();
+
+        TemplateReactionRegulation regulation = index.regulations.remove(id);
+        if(regulation == null)
+            return;
+        for(Process process : new ArrayList<Process>(regulation.getControlled()))
+            regulation.removeControlled(process);
+        for(Controller controller : new ArrayList<Controller>(regulation.getController()))
+            regulation.removeController(controller);
+        for(Evidence ev : new ArrayList<Evidence>(regulation.getEvidence())) {
+            for(Xref x : new ArrayList<Xref>(ev.getXref()))
+                ev.removeXref(x);
+            regulation.removeEvidence(ev);
+            model.remove(ev);
+        }
+        for(Xref x : new ArrayList<Xref>(regulation.getXref())) {
+            regulation.removeXref(x);
+            if(!(x instanceof PublicationXref))
+                model.remove(x); //the mirtarbase_ xref
+        }
+        model.remove(regulation);
+    }
 
-        return this.model;
+    private void writeCreated() throws IOException {
+        long t = System.nanoTime();
+        for(BioPAXElement element : created)
+            writer.write(element);
+        created.clear();
+        stats.addWallTime(ConversionStats.Stage.WRITE, System.nanoTime() - t);
     }
 
-    // Recursively adds control interaction and controlled reactions
-    // to a all-in-one organism "pathway" (not really a bio pathway)
+    // Records the control interaction for the all-in-one organism "pathway" (not really a bio pathway)
     private void assignReactionToPathway(TemplateReactionRegulation regulation, String mirOrganism) {
-        String org = orgNameToCodeMap.get(mirOrganism.toLowerCase());
-        String taxon = orgCodeToTaxonMap.get(org);
-        String pid = "pathway_" + taxon;
-        Pathway pathway = findById(pid);
-        if(pathway == null) {
-            pathway = create(Pathway.class, pid);
+        String org = mirBase.getOrganismCode(mirOrganism.toLowerCase());
+        interactionsBySpecies.add(mirBase.getTaxon(org), mirOrganism, regulation);
+    }
+
+    // Makes the organism "pathways" that contain the control interactions and controlled reactions
+    private void createPathways() throws IOException {
+        for(String taxon : interactionsBySpecies.getTaxa()) {
+            String mirOrganism = interactionsBySpecies.getName(taxon);
+            Pathway pathway = create(Pathway.class, "pathway_" + taxon);
             pathway.setDisplayName(mirOrganism);
-            pathway.setOrganism(getOrganism(org));
+            pathway.setOrganism(getOrganism(mirBase.getOrganismCode(mirOrganism.toLowerCase())));
+            for(String uri : interactionsBySpecies.get(taxon)) {
+                Process process = (Process) model.getByID(uri);
+                if(process == null) //already written out (streaming mode); a reference is enough
+                    process = model.getLevel().getDefaultFactory().create(TemplateReactionRegulation.class, uri);
+                pathway.addPathwayComponent(process);
+            }
+            if(writer != null) {
+                writeCreated();
+                for(Process process : new ArrayList<Process>(pathway.getPathwayComponent()))
+                    pathway.removePathwayComponent(process);
+                model.remove(pathway);
+            }
         }
+        interactionsBySpecies.clear();
+    }
 
-        // Propagate pathway assignments
-        final Pathway finalPathway = pathway;
-        Traverser traverser = new Traverser(SimpleEditorMap.get(BioPAXLevel.L3), new Visitor() {
-            @Override
-            public void visit(BioPAXElement domain, Object range, Model model, PropertyEditor<?, ?> editor) {
-                if(range != null && range instanceof Process) {
-                    finalPathway.addPathwayComponent((Process) range);
+    private Rna getMirna(String name, String lcName) {
+        final String rnaRefRdfId = "ref_" + lcName;
+        final String rnaRdfId = "rna_"+ lcName; //names are like 'hsa-miR...'
+        Rna mirna = create(Rna.class, rnaRdfId);
+        mirna.setDisplayName(pooled(name));
+        //create a RnaReference
+        RnaReference rnaReference = create(RnaReference.class, rnaRefRdfId);
+        rnaReference.setDisplayName(pooled(lcName));
+        rnaReference.setStandardName(pooled(lcName));
+        rnaReference.setOrganism(getOrganism(orgCodeFromMir(lcName)));
+        String[] accessions = mirBase.getAccessions(lcName);
+        if(accessions != null) {
+            for(String ac : accessions) {
+                RelationshipXref x = index.mirbaseXrefs.get(ac);
+                if(x == null) {
+                    x = create(RelationshipXref.class, "mirbase_" + ac);
+                    x.setDb((ac.startsWith("MIMAT")) ? "miRBase mature sequence" : "miRBase Sequence");
+                    x.setId(ac);
+                    index.mirbaseXrefs.put(ac, x);
                 }
+                rnaReference.addXref(x);
             }
-        });
-        traverser.traverse(regulation, model);
-
-        pathway.addPathwayComponent(regulation);
+        }
+        mirna.setEntityReference(rnaReference);
+        return mirna;
     }
 
-    private TemplateReaction getTranscription(String targetGene, int targetGeneId, String targetOrganism) {
-        final String refId = (targetGeneId>0) ? String.valueOf(targetGeneId) : targetGene;
-
-        String reactionId = "template_" + refId;
-        TemplateReaction templateReaction = findById(reactionId);
-        if(templateReaction == null) {
-            templateReaction = create(TemplateReaction.class, reactionId);
-            String tname = targetGene + " production.";
-            templateReaction.setDisplayName(tname);
-            templateReaction.setTemplateDirection(TemplateDirectionType.FORWARD);
-            // define/find the protein
-            String proteinId = "protein_" + refId;
-            Protein protein = findById(proteinId);
-            if(protein == null) {
-                protein = create(Protein.class, proteinId);
-                protein.setDisplayName(targetGene);
-
-                //define/find a protein reference
-                ProteinReference ref = findById("ref_" + refId);
-                if(ref == null) {
-                    ref = create(ProteinReference.class, "ref_" + refId);
-                    ref.setDisplayName(targetGene);
-                    ref.setOrganism(getOrganism(orgNameToCodeMap.get(targetOrganism.toLowerCase())));
-                    //add xrefs
-                    if(targetGeneId > 0) {
-                        RelationshipXref x = findById( "ncbi_gene_" + targetGeneId);
-                        if(x == null) {
-                            x = create(RelationshipXref.class, "ncbi_gene_" + targetGeneId);
-                            x.setDb("NCBI Gene");
-                            x.setId(targetGeneId+"");
-                        }
-                        ref.addXref(x);
-                    }
-                    RelationshipXref x = findById("hgnc_symbol_" + targetGene);
-                    if(x == null) {
-                        x = create(RelationshipXref.class, "hgnc_symbol_" + targetGene);
-                        x.setDb("HGNC Symbol");
-                        x.setId(targetGene);
-                    }
-                    ref.addXref(x);
-                }
+    // counts the problem and reports the row to the rejects (or the debug log); no message formatting otherwise
+    private void reject(int row, String id, ConversionStats.Problem problem, String value) throws IOException {
+        stats.problem(problem);
+        rejected[problem.ordinal()]++;
+        if(rejects != null)
+            rejects.reject(row, id, problem, value);
+        else if(log.isDebugEnabled())
+            log.debug("rejected row " + row + ": " + id + " " + problem + " (" + value + ")");
+    }
 
-                protein.setEntityReference(ref);
-            }
+    private void reject(int row, String id, ConversionStats.Problem problem, int value) throws IOException {
+        stats.problem(problem);
+        rejected[problem.ordinal()]++;
+        if(rejects != null)
+            rejects.reject(row, id, problem, value);
+        else if(log.isDebugEnabled())
+            log.debug("rejected row " + row + ": " + id + " " + problem + " (" + value + ")");
+    }
 
-            templateReaction.addProduct(protein);
+    // adds the row's PubMed xref and evidence (with the experiments and support type) to the interaction
+    private void addEvidence(TemplateReactionRegulation regulation, MtiRecord record) throws IOException {
+        String id = record.id;
+        int pmid = record.pmid;
+        String experiments = record.experiments;
+        String support = record.support;
+
+        PublicationXref pubxref = index.publications.get(pmid);
+        if (pubxref == null) {
+            pubxref = create(PublicationXref.class, "pub_" + pmid);
+            pubxref.setDb("PubMed");
+            pubxref.setId(pmid + "");
+            index.publications.put(pmid, pubxref);
         }
+        regulation.addXref(pubxref);
 
-        return templateReaction;
-    }
+        //add Evidence using 'pmid','experiment','support' columns...
+        String evidenceId = "evidence_" + id + "_" + pmid;
+        if(model.containsID(absoluteUri(evidenceId))) { //same ID and PMID as in a previous row
+            reject(record.row, id, ConversionStats.Problem.EVIDENCE_FAILED, pmid);
+            return;
+        }
+        Evidence ev = create(Evidence.class, evidenceId);
+        ev.addXref(pubxref);
+        regulation.addEvidence(ev);
+
+        if (experiments != null) {
+            // parse,fix the 'Experiment' data cell value (contains funny typos)
+            long t = System.nanoTime();
+            ExperimentNormalizer.Result fixExperiments = record.normalizeExperiments(experimentNormalizer);
+            stats.addWallTime(ConversionStats.Stage.NORMALIZE, System.nanoTime() - t);
+            ev.addComment(pooled(fixExperiments.getComment()));
+
+            //TODO: ? evidenceCode (prefer MI to ECO/CHMO; handle multiple terms per evidence/row...)
+            for(String expType : fixExperiments.getTerms())
+                stats.experimentType(expType);
+        }
 
-    private void loadMirBase(InputStream aliasesInputStream, InputStream organismsInputStream) throws IOException {
-        final String separator = "\t";
-        final String intraFieldSeparator = ";";
-
-        mirNameToIdMap.clear();
-
-        //init miRNA name to MI/MIMAT IDs (if many, separate IDs with semicolon) map
-        Scanner scanner = new Scanner(aliasesInputStream);
-        while(scanner.hasNext()) {
-            String line = scanner.nextLine();
-            if (line.startsWith("#"))
-                continue;
-
-            String cols[] = line.split(separator);
-            final String id = cols[0].trim();
-            String names = cols[1].trim();
-            if (names.endsWith(";"))
-                names = names.substring(0, names.length() - 1); // Get rid of the last ; at the end
-
-            for (String tname : names.split(intraFieldSeparator)) {
-                final String name = tname.toLowerCase();
-                String wasId = mirNameToIdMap.get(name);
-                if( wasId != null) {
-                    log.debug(String.format("miR name %s maps to: %s;%s", name, wasId,id));
-                    if(!wasId.contains(id))
-                        mirNameToIdMap.put(name,wasId+";"+id);
-                } else {
-                    mirNameToIdMap.put(name, id);
+        if (support != null) {
+            //set evidence/confidence:Score/value (e.g., 'Functional MTI')
+//                        regulation.addComment(support);
+            Score score = index.scores.get(support);
+            if(score==null) {
+                String value = support.trim().toLowerCase();
+                //TODO: decide whether to re-use same-value Scores or not (exper. methods/tools chain may differ...)
+                String scoreId = "score_" + value.replaceAll("[^-\\w]+", "_");
+                score = index.scoresById.get(scoreId);
+                if(score==null) {
+                    score = create(Score.class, scoreId);
+                    score.setValue(pooled(value));
+                    //TODO: ? PublicationXref (url: method wiki URL), or MI RX...
+//                              score.addXref(px);
+                    //TODO: set scoreSource:Provenance (mirTaRBase; same as for all Entities)
+                    index.scoresById.put(scoreId, score);
                 }
+                index.scores.put(support, score);
             }
+            ev.addConfidence(score);
         }
+    }
+
+    private TemplateReaction getTranscription(String targetGene, int targetGeneId, String targetOrganism) {
+        TemplateReaction templateReaction = (targetGeneId>0)
+                ? index.transcriptionsByGeneId.get(targetGeneId) : index.transcriptionsBySymbol.get(targetGene);
+        if(templateReaction != null)
+            return templateReaction;
 
-        // Init organism code to/form name, taxon maps;
-        orgCodeToTaxonMap.clear();
-        orgCodeToNameMap.clear();
-        orgNameToCodeMap.clear();
-        //organisms.txt (miRBase) columns:
-        //#organism #division   #name   #tree   #NCBI-taxid
-        scanner = new Scanner(organismsInputStream);
-        while(scanner.hasNext()) {
-            String line = scanner.nextLine();
-            if(line.startsWith("#"))
-                continue;
-
-            String cols[] = line.split(separator);
-            String code = cols[0].trim();
-            String name = cols[2].trim();
-            String taxid = cols[4].trim();
-
-            orgCodeToTaxonMap.put(code,taxid);
-            orgCodeToNameMap.put(code,name);
-            orgNameToCodeMap.put(name.toLowerCase(),code);
+        final String refId = (targetGeneId>0) ? String.valueOf(targetGeneId) : targetGene;
+        templateReaction = create(TemplateReaction.class, "template_" + refId);
+        String tname = targetGene + " production.";
+        templateReaction.setDisplayName(pooled(tname));
+        templateReaction.setTemplateDirection(TemplateDirectionType.FORWARD);
+        // define the protein
+        Protein protein = create(Protein.class, "protein_" + refId);
+        protein.setDisplayName(pooled(targetGene));
+
+        //define a protein reference
+        ProteinReference ref = create(ProteinReference.class, "ref_" + refId);
+        ref.setDisplayName(pooled(targetGene));
+        ref.setOrganism(getOrganism(mirBase.getOrganismCode(targetOrganism.toLowerCase())));
+        //add xrefs
+        if(targetGeneId > 0) {
+            RelationshipXref x = create(RelationshipXref.class, "ncbi_gene_" + targetGeneId);
+            x.setDb("NCBI Gene");
+            x.setId(targetGeneId+"");
+            ref.addXref(x);
+        }
+        RelationshipXref x = index.symbolXrefs.get(targetGene);
+        if(x == null) {
+            x = create(RelationshipXref.class, "hgnc_symbol_" + targetGene);
+            x.setDb("HGNC Symbol");
+            x.setId(pooled(targetGene));
+            index.symbolXrefs.put(targetGene, x);
         }
+        ref.addXref(x);
 
+        protein.setEntityReference(ref);
+        templateReaction.addProduct(protein);
+
+        if(targetGeneId>0)
+            index.transcriptionsByGeneId.put(targetGeneId, templateReaction);
+        else
+            index.transcriptionsBySymbol.put(targetGene, templateReaction);
+
+        return templateReaction;
     }
 }
@@ -0,0 +1,258 @@
+package tw.edu.nctu.mbc.mirtarbase.converter;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * 64-bit fingerprints of the MTI row groups (all the rows with the same MIRT ID, columns 0-8),
+ * to find the interactions added, removed or changed since a previous miRTarBase release.
+ *
+ * A group's fingerprint does not depend on the order of its rows, nor on the input format
+ * (the decoded, trimmed values are hashed, see {@link MtiRecord}). The fingerprints also keep the conversion
+ * options they were made for (see {@link MirtarbaseToBiopaxConverter#getOutputOptions(MirBase)}):
+ * with other options, every interaction is changed.
+ *
+ * File format (big-endian): MAGIC, VERSION, options (modified UTF-8), number of IDs,
+ * then (modified UTF-8 ID, fingerprint) pairs sorted by ID.
+ */
+public final class MtiFingerprints {
+    private static final int MAGIC = 0x4D544946; //"MTIF"
+    private static final int VERSION = 2;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    // MIRT ID -> sum of its rows' hashes
+    private final Map<String, long[]> fingerprints = new HashMap<String, long[]>();
+    private String options = "";
+
+    /**
+     * No fingerprints (e.g., instead of the previous ones, before the first delta conversion).
+     */
+    public MtiFingerprints() {
+    }
+
+    /**
+     * Reads all the rows and computes the fingerprints.
+     * @param rows the MTI data rows (not closed)
+     * @return fingerprints
+     * @throws IOException when there is an I/O error or invalid input format
+     */
+    public static MtiFingerprints compute(MtiRowSource rows) throws IOException {
+        MtiFingerprints fingerprints = new MtiFingerprints();
+        MtiRecord record = new MtiRecord();
+        while (rows.next()) {
+            record.read(rows);
+            if (record.getMissingColumn() < 0) //not converted
+                fingerprints.add(record);
+        }
+        return fingerprints;
+    }
+
+    /**
+     * Adds the row to its group's fingerprint.
+     * @param record decoded row
+     */
+    void add(MtiRecord record) {
+        long h = FNV_OFFSET;
+        h = hash(h, record.id);
+        h = hash(h, record.name);
+        h = hash(h, record.organism);
+        h = hash(h, record.targetGene);
+        h = hash(h, record.hasTargetGeneId() ? String.valueOf(record.targetGeneId) : null);
+        h = hash(h, record.targetOrganism);
+        h = hash(h, record.experiments);
+        h = hash(h, record.support);
+        h = hash(h, record.hasPmid() ? String.valueOf(record.pmid) : null);
+
+        long[] fingerprint = fingerprints.get(record.id);
+        if (fingerprint == null)
+            fingerprints.put(record.id, new long[]{mix(h)});
+        else
+            fingerprint[0] += mix(h); //the sum - same for any order of the rows (or same rows repeated)
+    }
+
+    // FNV-1a of the chars; null and "" differ; a separator after each value
+    private static long hash(long h, String s) {
+        if (s == null)
+            return (h ^ 0xFFFF) * FNV_PRIME;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            h = (h ^ (c & 0xFF)) * FNV_PRIME;
+            h = (h ^ (c >>> 8)) * FNV_PRIME;
+        }
+        return (h ^ 0xFFFE) * FNV_PRIME;
+    }
+
+    // 64-bit finalizer (MurmurHash3), so that summing the row hashes keeps them well distributed
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * @return the conversion options (and data digests) the fingerprints were made for ("" by default)
+     */
+    public String getOptions() {
+        return options;
+    }
+    public void setOptions(String options) {
+        if (options == null)
+            throw new IllegalArgumentException("options == null");
+        this.options = options;
+    }
+
+    /**
+     * @return number of MIRT IDs
+     */
+    public int size() {
+        return fingerprints.size();
+    }
+
+    /**
+     * @return all the MIRT IDs, sorted
+     */
+    public SortedSet<String> getIds() {
+        return new TreeSet<String>(fingerprints.keySet());
+    }
+
+    /**
+     * Compares with the fingerprints of the previous release.
+     * @param previous previous fingerprints (empty - everything is added)
+     * @return the IDs added, removed and changed since the previous release
+     *         (all the previous ones are changed when the options differ)
+     */
+    public Delta diff(MtiFingerprints previous) {
+        Delta delta = new Delta();
+        delta.optionsChanged = !previous.fingerprints.isEmpty() && !options.equals(previous.options);
+        for (Map.Entry<String, long[]> e : fingerprints.entrySet()) {
+            long[] old = previous.fingerprints.get(e.getKey());
+            if (old == null)
+                delta.added.add(e.getKey());
+            else if (delta.optionsChanged || old[0] != e.getValue()[0])
+                delta.changed.add(e.getKey());
+        }
+        for (String id : previous.fingerprints.keySet())
+            if (!fingerprints.containsKey(id))
+                delta.removed.add(id);
+        return delta;
+    }
+
+    /**
+     * Reads the fingerprints saved by {@link #write(File)}.
+     * @param file fingerprints file
+     * @return fingerprints
+     * @throws IOException when there is an I/O error or it's not a fingerprints file
+     */
+    public static MtiFingerprints read(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        try {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not an MTI fingerprints file: " + file);
+            int version = in.readInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported MTI fingerprints file version " + version + ": " + file);
+            MtiFingerprints fingerprints = new MtiFingerprints();
+            fingerprints.options = in.readUTF();
+            for (int n = in.readInt(); n > 0; n--) {
+                String id = in.readUTF();
+                fingerprints.fingerprints.put(id, new long[]{in.readLong()});
+            }
+            return fingerprints;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Saves the fingerprints (to a temporary file first, which then replaces the file).
+     * @param file fingerprints file
+     * @throws IOException when there is an I/O error
+     */
+    public void write(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(options);
+            out.writeInt(fingerprints.size());
+            for (String id : getIds()) {
+                out.writeUTF(id);
+                out.writeLong(fingerprints.get(id)[0]);
+            }
+        } finally {
+            out.close();
+        }
+        FileReplacer.replace(tmp, file);
+    }
+
+    /**
+     * MIRT IDs added, removed and changed since the previous release (sorted).
+     */
+    public static final class Delta {
+        private final SortedSet<String> added = new TreeSet<String>();
+        private final SortedSet<String> removed = new TreeSet<String>();
+        private final SortedSet<String> changed = new TreeSet<String>();
+        private boolean optionsChanged;
+
+        private Delta() {
+        }
+
+        /**
+         * @return whether the previous fingerprints were made with other conversion options
+         *         (so all the interactions are changed)
+         */
+        public boolean isOptionsChanged() {
+            return optionsChanged;
+        }
+
+        public SortedSet<String> getAdded() {
+            return Collections.unmodifiableSortedSet(added);
+        }
+
+        public SortedSet<String> getRemoved() {
+            return Collections.unmodifiableSortedSet(removed);
+        }
+
+        public SortedSet<String> getChanged() {
+            return Collections.unmodifiableSortedSet(changed);
+        }
+
+        /**
+         * @return the IDs to convert - added or changed
+         */
+        public Set<String> getAddedOrChanged() {
+            Set<String> ids = new HashSet<String>(added);
+            ids.addAll(changed);
+            return ids;
+        }
+
+        /**
+         * Writes the IDs, one per line: "added|removed|changed&lt;TAB&gt;ID".
+         * @param out output (not closed)
+         * @throws IOException when there is an I/O error
+         */
+        public void write(Writer out) throws IOException {
+            write(out, "added", added);
+            write(out, "removed", removed);
+            write(out, "changed", changed);
+            out.flush();
+        }
+
+        private static void write(Writer out, String what, Set<String> ids) throws IOException {
+            for (String id : ids)
+                out.write(what + "\t" + id + "\n");
+        }
+
+        @Override
+        public String toString() {
+            return added.size() + " added, " + removed.size() + " removed, " + changed.size() + " changed"
+                    + ((optionsChanged) ? " (other conversion options than before)" : "");
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package tw.edu.nctu.mbc.mirtarbase.converter;
+
+import org.apache.poi.POIXMLDocument;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+
+import java.io.*;
+
+/**
+ * miRTarBase MTI input file formats.
+ */
+public enum MtiFormat {
+    /**
+     * MS Excel 2007+ workbook (streamed)
+     */
+    XLSX,
+    /**
+     * legacy MS Excel workbook (loaded into memory)
+     */
+    XLS,
+    /**
+     * tab-separated text, UTF-8
+     */
+    TSV,
+    /**
+     * comma-separated text, UTF-8
+     */
+    CSV,
+    /**
+     * columnar binary rows saved by {@link ColumnarRowWriter} (memory-mapped)
+     */
+    COLUMNAR;
+
+    private static final int PEEK_SIZE = 8192;
+
+    /**
+     * Opens the MTI data for reading.
+     * @param in MTI data input stream (will be closed when the returned row source is closed)
+     * @return row source
+     * @throws IOException when there is an I/O error or invalid input format.
+     */
+    public MtiRowSource open(InputStream in) throws IOException {
+        switch (this) {
+            case XLSX:
+                try {
+                    return new XlsxRowSource(in);
+                } finally {
+                    in.close(); //already copied to a tmp file
+                }
+            case XLS:
+                try {
+                    return new WorkbookRowSource(in);
+                } finally {
+                    in.close(); //already loaded
+                }
+            case TSV:
+                return new DelimitedTextRowSource(new InputStreamReader(in, "UTF-8"), '\t');
+            case COLUMNAR:
+                return new ColumnarRowSource(in);
+            default:
+                return new DelimitedTextRowSource(new InputStreamReader(in, "UTF-8"), ',');
+        }
+    }
+
+    /**
+     * Opens the MTI data file for reading.
+     * @param file MTI data file
+     * @return row source
+     * @throws IOException when there is an I/O error or invalid input format.
+     */
+    public MtiRowSource open(File file) throws IOException {
+        if (this == XLSX)
+            return new XlsxRowSource(file);
+        if (this == COLUMNAR)
+            return new ColumnarRowSource(file);
+        return open(new FileInputStream(file));
+    }
+
+    /**
+     * Guesses the format from the first bytes of the data:
+     * OOXML, OLE2 or columnar MTI header, otherwise a tab in the first line means TSV, else CSV.
+     *
+     * @param in MTI data input stream that supports mark/reset
+     * @return detected format
+     * @throws IOException when there is an I/O error
+     */
+    public static MtiFormat detect(InputStream in) throws IOException {
+        if (POIXMLDocument.hasOOXMLHeader(in))
+            return XLSX;
+        if (POIFSFileSystem.hasPOIFSHeader(in))
+            return XLS;
+
+        in.mark(PEEK_SIZE);
+        try {
+            DataInputStream data = new DataInputStream(in);
+            try {
+                if (data.readInt() == ColumnarRowSource.MAGIC)
+                    return COLUMNAR;
+            } catch (EOFException e) {
+                //less than 4 bytes
+            }
+            in.reset();
+            for (int i = 0; i < PEEK_SIZE; i++) {
+                int b = in.read();
+                if (b < 0 || b == '\n')
+                    break;
+                if (b == '\t')
+                    return TSV;
+            }
+        } finally {
+            in.reset();
+        }
+        return CSV;
+    }
+
+    /**
+     * Guesses the format of the file (see {@link #detect(InputStream)}).
+     * @param file MTI data file
+     * @return detected format
+     * @throws IOException when there is an I/O error
+     */
+    public static MtiFormat detect(File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            return detect(in);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,523 @@
+package tw.edu.nctu.mbc.mirtarbase.converter;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.*;
+
+/**
+ * Read-only miRNA - target gene (Entrez ID) index of the MTI rows, with the PMID and support type
+ * of each row, to answer questions like "targets of hsa-miR-21-5p" or "miRNAs of the gene 7157
+ * with a functional MTI support" without loading the BioPAX output. It is made by the converter
+ * in the same pass over the rows (see {@link Builder}, {@link MirtarbaseToBiopaxConverter#setIndexBuilder(Builder)})
+ * and saved to a single file, which is memory-mapped when opened; only the miRNA names and
+ * support types are read into the heap, so lookups take a binary search and a scan of the matching rows.
+ *
+ * An interaction here is an input row with a valid gene ID (rows with a bad gene ID are not indexed);
+ * a missing or bad PMID is 0, a missing support type is null.
+ *
+ * File format (big-endian): MAGIC, VERSION, numbers of miRNAs, support types, genes and interactions;
+ * the miRNA names (ascending) and the support types dictionaries (number of values, then length-prefixed
+ * UTF-8 values); the start of each miRNA's interactions (one more than miRNAs); the interaction columns
+ * (int per interaction, ordered by miRNA, gene ID, PMID): miRNA, gene ID, PMID, support type (-1 for none);
+ * the distinct gene IDs (ascending), the start of each gene's interactions in the following column
+ * (one more than genes), and the interactions by gene ID, miRNA and PMID (interaction index).
+ */
+public final class MtiIndex {
+    static final int MAGIC = 0x4D544958; //"MTIX"
+    static final int VERSION = 1;
+
+    private final String[] mirnas;
+    private final String[] supportTypes;
+    private final IntBuffer mirnaStarts;
+    private final IntBuffer edgeMirnas;
+    private final IntBuffer edgeGenes;
+    private final IntBuffer edgePmids;
+    private final IntBuffer edgeSupports;
+    private final IntBuffer genes;
+    private final IntBuffer geneStarts;
+    private final IntBuffer byGene;
+
+    /**
+     * Maps the index file into memory.
+     * @param file index file
+     * @return index
+     * @throws IOException when there is an I/O error or it's not an index file
+     */
+    public static MtiIndex open(File file) throws IOException {
+        return new MtiIndex(ColumnarRowSource.map(file));
+    }
+
+    private MtiIndex(ByteBuffer buffer) throws IOException {
+        try {
+            if (buffer.getInt() != MAGIC)
+                throw new IOException("Not an MTI index file");
+            int version = buffer.getInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported MTI index file version " + version);
+            int numberOfMirnas = buffer.getInt();
+            int numberOfSupportTypes = buffer.getInt();
+            int numberOfGenes = buffer.getInt();
+            int numberOfEdges = buffer.getInt();
+            mirnas = ColumnarRowSource.readDictionary(buffer);
+            supportTypes = ColumnarRowSource.readDictionary(buffer);
+            if (mirnas.length != numberOfMirnas || supportTypes.length != numberOfSupportTypes)
+                throw new IOException("Invalid MTI index data");
+            mirnaStarts = ColumnarRowSource.intColumn(buffer, numberOfMirnas + 1);
+            edgeMirnas = ColumnarRowSource.intColumn(buffer, numberOfEdges);
+            edgeGenes = ColumnarRowSource.intColumn(buffer, numberOfEdges);
+            edgePmids = ColumnarRowSource.intColumn(buffer, numberOfEdges);
+            edgeSupports = ColumnarRowSource.intColumn(buffer, numberOfEdges);
+            genes = ColumnarRowSource.intColumn(buffer, numberOfGenes);
+            geneStarts = ColumnarRowSource.intColumn(buffer, numberOfGenes + 1);
+            byGene = ColumnarRowSource.intColumn(buffer, numberOfEdges);
+        } catch (RuntimeException e) { //BufferUnderflowException, IllegalArgumentException
+            throw new IOException("Invalid MTI index data", e);
+        }
+    }
+
+    public int getNumberOfMirnas() {
+        return mirnas.length;
+    }
+
+    public int getNumberOfGenes() {
+        return genes.limit();
+    }
+
+    /**
+     * @return number of the indexed rows
+     */
+    public int getNumberOfInteractions() {
+        return edgeGenes.limit();
+    }
+
+    /**
+     * @return all the miRNA names, ascending
+     */
+    public String[] getMirnas() {
+        return mirnas.clone();
+    }
+
+    /**
+     * @return all the support types (e.g., 'Functional MTI')
+     */
+    public String[] getSupportTypes() {
+        return supportTypes.clone();
+    }
+
+    /**
+     * @param mirna miRNA name, as in the MTI data (e.g., 'hsa-miR-21-5p')
+     * @return distinct target gene IDs, ascending (none for an unknown miRNA)
+     */
+    public int[] getTargets(String mirna) {
+        return getTargets(mirna, null);
+    }
+
+    /**
+     * @param mirna miRNA name
+     * @param supportTypes only the interactions with one of these support types, or null - any
+     * @return distinct target gene IDs, ascending
+     */
+    public int[] getTargets(String mirna, Collection<String> supportTypes) {
+        int m = Arrays.binarySearch(mirnas, mirna);
+        if (m < 0)
+            return new int[0];
+        boolean[] accept = accept(supportTypes);
+        TIntArrayList targets = new TIntArrayList();
+        for (int e = mirnaStarts.get(m), end = mirnaStarts.get(m + 1); e < end; e++) {
+            int gene = edgeGenes.get(e);
+            if (accepts(accept, e) && (targets.isEmpty() || targets.get(targets.size() - 1) != gene))
+                targets.add(gene);
+        }
+        return targets.toArray();
+    }
+
+    /**
+     * @param geneId Entrez Gene ID
+     * @return distinct names of the miRNAs that target the gene, ascending
+     */
+    public String[] getMirnas(int geneId) {
+        return getMirnas(geneId, null);
+    }
+
+    /**
+     * @param geneId Entrez Gene ID
+     * @param supportTypes only the interactions with one of these support types, or null - any
+     * @return distinct miRNA names, ascending
+     */
+    public String[] getMirnas(int geneId, Collection<String> supportTypes) {
+        int g = search(genes, 0, genes.limit(), geneId);
+        if (g < 0)
+            return new String[0];
+        boolean[] accept = accept(supportTypes);
+        List<String> result = new ArrayList<String>();
+        int last = -1;
+        for (int i = geneStarts.get(g), end = geneStarts.get(g + 1); i < end; i++) {
+            int e = byGene.get(i);
+            int m = edgeMirnas.get(e);
+            if (m != last && accepts(accept, e)) {
+                result.add(mirnas[m]);
+                last = m;
+            }
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    /**
+     * @param mirna miRNA name
+     * @param geneId Entrez Gene ID
+     * @return distinct PMIDs of the interaction rows, ascending (0 is not included)
+     */
+    public int[] getPmids(String mirna, int geneId) {
+        TIntArrayList pmids = new TIntArrayList();
+        int[] range = range(mirna, geneId);
+        for (int e = range[0]; e < range[1]; e++) {
+            int pmid = edgePmids.get(e);
+            if (pmid != 0 && (pmids.isEmpty() || pmids.get(pmids.size() - 1) != pmid))
+                pmids.add(pmid);
+        }
+        return pmids.toArray();
+    }
+
+    /**
+     * @param mirna miRNA name
+     * @param geneId Entrez Gene ID
+     * @return distinct support types of the interaction rows
+     */
+    public Set<String> getSupportTypes(String mirna, int geneId) {
+        Set<String> types = new TreeSet<String>();
+        int[] range = range(mirna, geneId);
+        for (int e = range[0]; e < range[1]; e++) {
+            int s = edgeSupports.get(e);
+            if (s >= 0)
+                types.add(supportTypes[s]);
+        }
+        return types;
+    }
+
+    /**
+     * @param mirna miRNA name
+     * @return number of distinct target genes
+     */
+    public int getTargetCount(String mirna) {
+        int m = Arrays.binarySearch(mirnas, mirna);
+        return (m < 0) ? 0 : targetCount(m);
+    }
+
+    /**
+     * @param geneId Entrez Gene ID
+     * @return number of distinct miRNAs that target the gene
+     */
+    public int getMirnaCount(int geneId) {
+        int g = search(genes, 0, genes.limit(), geneId);
+        return (g < 0) ? 0 : mirnaCount(g);
+    }
+
+    /**
+     * @return stats of the numbers of distinct targets per miRNA
+     */
+    public Degrees getTargetDegrees() {
+        int[] degrees = new int[mirnas.length];
+        for (int m = 0; m < degrees.length; m++)
+            degrees[m] = targetCount(m);
+        return new Degrees(degrees);
+    }
+
+    /**
+     * @return stats of the numbers of distinct miRNAs per target gene
+     */
+    public Degrees getMirnaDegrees() {
+        int[] degrees = new int[genes.limit()];
+        for (int g = 0; g < degrees.length; g++)
+            degrees[g] = mirnaCount(g);
+        return new Degrees(degrees);
+    }
+
+    private int targetCount(int m) {
+        int count = 0;
+        int start = mirnaStarts.get(m);
+        for (int e = start, end = mirnaStarts.get(m + 1); e < end; e++)
+            if (e == start || edgeGenes.get(e) != edgeGenes.get(e - 1))
+                count++;
+        return count;
+    }
+
+    private int mirnaCount(int g) {
+        int count = 0;
+        int last = -1;
+        for (int i = geneStarts.get(g), end = geneStarts.get(g + 1); i < end; i++) {
+            int m = edgeMirnas.get(byGene.get(i));
+            if (m != last) {
+                count++;
+                last = m;
+            }
+        }
+        return count;
+    }
+
+    // the interactions of the miRNA and gene: {from, to}
+    private int[] range(String mirna, int geneId) {
+        int m = Arrays.binarySearch(mirnas, mirna);
+        if (m < 0)
+            return new int[]{0, 0};
+        int end = mirnaStarts.get(m + 1);
+        int from = lowerBound(edgeGenes, mirnaStarts.get(m), end, geneId);
+        int to = from;
+        while (to < end && edgeGenes.get(to) == geneId)
+            to++;
+        return new int[]{from, to};
+    }
+
+    // support type filter by index, or null - any
+    private boolean[] accept(Collection<String> types) {
+        if (types == null)
+            return null;
+        boolean[] accept = new boolean[supportTypes.length];
+        for (int s = 0; s < supportTypes.length; s++)
+            accept[s] = types.contains(supportTypes[s]);
+        return accept;
+    }
+
+    private boolean accepts(boolean[] accept, int e) {
+        if (accept == null)
+            return true;
+        int s = edgeSupports.get(e);
+        return s >= 0 && accept[s];
+    }
+
+    // index of the value in the ascending buffer range, or -1
+    private static int search(IntBuffer values, int from, int to, int value) {
+        int i = lowerBound(values, from, to, value);
+        return (i < to && values.get(i) == value) ? i : -1;
+    }
+
+    // first index in the ascending buffer range where the value is not less than the given one
+    private static int lowerBound(IntBuffer values, int from, int to, int value) {
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (values.get(mid) < value)
+                from = mid + 1;
+            else
+                to = mid;
+        }
+        return from;
+    }
+
+    /**
+     * Node degree stats (e.g., the numbers of targets per miRNA).
+     */
+    public static final class Degrees {
+        private final int count;
+        private final int min;
+        private final int max;
+        private final double mean;
+        private final double median;
+
+        Degrees(int[] degrees) {
+            count = degrees.length;
+            Arrays.sort(degrees);
+            long sum = 0;
+            for (int d : degrees)
+                sum += d;
+            min = (count > 0) ? degrees[0] : 0;
+            max = (count > 0) ? degrees[count - 1] : 0;
+            mean = (count > 0) ? (double) sum / count : 0;
+            median = (count == 0) ? 0 : (count % 2 == 1)
+                    ? degrees[count / 2] : (degrees[count / 2 - 1] + degrees[count / 2]) / 2.0;
+        }
+
+        /**
+         * @return number of nodes
+         */
+        public int getCount() {
+            return count;
+        }
+
+        public int getMin() {
+            return min;
+        }
+
+        public int getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public double getMedian() {
+            return median;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d nodes, degree min %d, max %d, mean %.2f, median %.1f",
+                    count, min, max, mean, median);
+        }
+    }
+
+    /**
+     * Collects the rows (in primitive lists, with the miRNA names and support types dictionary-encoded)
+     * and saves the index. Not thread-safe.
+     */
+    public static final class Builder {
+        private static Logger log = LoggerFactory.getLogger(Builder.class);
+
+        private final TObjectIntHashMap<String> mirnaCodes = new TObjectIntHashMap<String>(1024, 0.5f, -1);
+        private final List<String> mirnaNames = new ArrayList<String>();
+        private final TObjectIntHashMap<String> supportCodes = new TObjectIntHashMap<String>(16, 0.5f, -1);
+        private final List<String> supportNames = new ArrayList<String>();
+        private final TIntArrayList rowMirnas = new TIntArrayList();
+        private final TIntArrayList rowGenes = new TIntArrayList();
+        private final TIntArrayList rowPmids = new TIntArrayList();
+        private final TIntArrayList rowSupports = new TIntArrayList();
+
+        /**
+         * Adds a row.
+         * @param mirna miRNA name
+         * @param geneId target gene ID
+         * @param pmid PMID, or 0
+         * @param support support type, or null
+         */
+        void add(String mirna, int geneId, int pmid, String support) {
+            rowMirnas.add(code(mirnaCodes, mirnaNames, mirna));
+            rowGenes.add(geneId);
+            rowPmids.add(pmid);
+            rowSupports.add((support != null) ? code(supportCodes, supportNames, support) : -1);
+        }
+
+        private static int code(TObjectIntHashMap<String> codes, List<String> values, String value) {
+            int code = codes.get(value);
+            if (code < 0) {
+                code = values.size();
+                codes.put(value, code);
+                values.add(value);
+            }
+            return code;
+        }
+
+        /**
+         * @return number of the rows added
+         */
+        public int size() {
+            return rowGenes.size();
+        }
+
+        /**
+         * Saves the index (to a temporary file first, which then replaces the file).
+         * @param file index file
+         * @throws IOException when there is an I/O error
+         */
+        public void write(File file) throws IOException {
+            int n = size();
+            // miRNA codes to ordinals (by name)
+            String[] names = mirnaNames.toArray(new String[mirnaNames.size()]);
+            Arrays.sort(names);
+            int[] ordinals = new int[names.length];
+            for (int m = 0; m < names.length; m++)
+                ordinals[mirnaCodes.get(names[m])] = m;
+
+            // interactions by miRNA, gene ID, PMID (and row): stable sorts by PMID, then gene ID,
+            // then a counting sort by miRNA, which also makes the start of each miRNA's interactions
+            int[] order = new int[n];
+            for (int i = 0; i < n; i++)
+                order[i] = i;
+            order = sortBy(rowPmids.toArray(), order);
+            order = sortBy(rowGenes.toArray(), order);
+            int[] mirnaStarts = new int[names.length + 1];
+            for (int i = 0; i < n; i++)
+                mirnaStarts[ordinals[rowMirnas.getQuick(i)] + 1]++;
+            for (int m = 0; m < names.length; m++)
+                mirnaStarts[m + 1] += mirnaStarts[m];
+            int[] next = Arrays.copyOf(mirnaStarts, names.length);
+            int[] mirnas = new int[n];
+            int[] genes = new int[n];
+            int[] pmids = new int[n];
+            int[] supports = new int[n];
+            for (int i : order) {
+                int m = ordinals[rowMirnas.getQuick(i)];
+                int e = next[m]++;
+                mirnas[e] = m;
+                genes[e] = rowGenes.getQuick(i);
+                pmids[e] = rowPmids.getQuick(i);
+                supports[e] = rowSupports.getQuick(i);
+            }
+
+            // by gene ID (stable, so they stay ordered by miRNA and PMID)
+            for (int e = 0; e < n; e++)
+                order[e] = e;
+            order = sortBy(genes, order);
+            TIntArrayList distinctGenes = new TIntArrayList();
+            TIntArrayList geneStarts = new TIntArrayList();
+            for (int i = 0; i < n; i++) {
+                int gene = genes[order[i]];
+                if (i == 0 || gene != genes[order[i - 1]]) {
+                    distinctGenes.add(gene);
+                    geneStarts.add(i);
+                }
+            }
+            geneStarts.add(n);
+
+            File tmp = new File(file.getPath() + ".tmp");
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(names.length);
+                out.writeInt(supportNames.size());
+                out.writeInt(distinctGenes.size());
+                out.writeInt(n);
+                writeDictionary(out, Arrays.asList(names));
+                writeDictionary(out, supportNames);
+                write(out, mirnaStarts);
+                write(out, mirnas);
+                write(out, genes);
+                write(out, pmids);
+                write(out, supports);
+                write(out, distinctGenes.toArray());
+                write(out, geneStarts.toArray());
+                for (int i = 0; i < n; i++)
+                    out.writeInt(order[i]);
+            } finally {
+                out.close();
+            }
+            FileReplacer.replace(tmp, file);
+            log.info("Saved the MTI index of " + n + " interactions, " + names.length + " miRNAs and "
+                    + distinctGenes.size() + " genes to: " + file + " (" + file.length() + " bytes)");
+        }
+
+        /*
+         * Stable sort of the indices by their values: sorts primitive keys, the value in the high
+         * and the position in the current order (not negative) in the low 32 bits.
+         */
+        private static int[] sortBy(int[] values, int[] order) {
+            long[] keys = new long[order.length];
+            for (int j = 0; j < order.length; j++)
+                keys[j] = (long) values[order[j]] << 32 | j;
+            Arrays.sort(keys);
+            int[] sorted = new int[order.length];
+            for (int j = 0; j < keys.length; j++)
+                sorted[j] = order[(int) keys[j]];
+            return sorted;
+        }
+
+        private static void write(DataOutputStream out, int[] column) throws IOException {
+            for (int value : column)
+                out.writeInt(value);
+        }
+
+        private static void writeDictionary(DataOutputStream out, List<String> values) throws IOException {
+            out.writeInt(values.size());
+            for (String value : values) {
+                byte[] bytes = value.getBytes("UTF-8");
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package tw.edu.nctu.mbc.mirtarbase.converter;
+
+/**
+ * Decoded (trimmed) values of an MTI row, see {@link MtiRowSource},
+ * so that the rows can be read and prepared apart from (ahead of) building the BioPAX objects.
+ *
+ * A gene ID or PMID cell that is missing or not a number is kept as the sentinel value
+ * ({@link MtiRowSource#MISSING}, {@link MtiRowSource#NOT_AN_INTEGER}) and, for the rejects, the cell text.
+ * A row without the ID, miRNA, species, target gene or target species is not converted (see {@link #getMissingColumn()}).
+ */
+final class MtiRecord {
+    // names of the columns (for the rejects)
+    static final String[] COLUMN_NAMES = {"miRTarBase ID", "miRNA", "Species (miRNA)", "Target Gene",
+            "Target Gene (Entrez Gene ID)", "Species (Target Gene)", "Experiments", "Support Type", "References (PMID)"};
+
+    int row;
+    // 0-based index of the row among the rows read by ParallelRecordReader (the filtered-out ones too)
+    long position;
+    String id;
+    String name;
+    String organism;
+    String targetGene;
+    int targetGeneId;
+    // the gene ID cell text when it is not a number
+    String targetGeneIdText;
+    String targetOrganism;
+    String experiments;
+    String support;
+    int pmid;
+    // the PMID cell text when it is not a number
+    String pmidText;
+
+    // the first required column with an empty cell, or -1
+    private int missingColumn;
+
+    private ExperimentNormalizer.Result normalizedExperiments;
+
+    /**
+     * Reads the current row (replaces all the values).
+     * @param rows row source positioned at a row
+     */
+    void read(MtiRowSource rows) {
+        row = rows.getRowNumber();
+        normalizedExperiments = null;
+        missingColumn = -1;
+
+        id = required(rows, 0); //MIRT\d{6} standard identifier
+        name = required(rows, 1);
+        organism = required(rows, 2); //miRNA's species name
+        targetGene = required(rows, 3);
+
+        targetGeneId = rows.getInteger(4);
+        targetGeneIdText = (targetGeneId == MtiRowSource.NOT_AN_INTEGER) ? rows.getString(4) : null;
+
+        targetOrganism = required(rows, 5);
+
+        experiments = rows.getString(6);
+        if (experiments != null)
+            experiments = experiments.trim();
+        support = rows.getString(7);
+        if (support != null)
+            support = support.trim();
+
+        pmid = rows.getInteger(8);
+        pmidText = (pmid == MtiRowSource.NOT_AN_INTEGER) ? rows.getString(8) : null;
+    }
+
+    // the trimmed cell value; null (and the column noted) when it is missing or blank
+    private String required(MtiRowSource rows, int column) {
+        String value = rows.getString(column);
+        if (value != null)
+            value = value.trim();
+        if (value == null || value.length() == 0) {
+            if (missingColumn < 0)
+                missingColumn = column;
+            return null;
+        }
+        return value;
+    }
+
+    /**
+     * @return the first of the required columns (ID, miRNA, species, target gene, target species)
+     *         with a missing or blank cell, or -1 when the row has them all
+     */
+    int getMissingColumn() {
+        return missingColumn;
+    }
+
+    boolean hasTargetGeneId() {
+        return isInteger(targetGeneId);
+    }
+
+    boolean hasPmid() {
+        return isInteger(pmid);
+    }
+
+    private static boolean isInteger(int value) {
+        return value != MtiRowSource.MISSING && value != MtiRowSource.NOT_AN_INTEGER;
+    }
+
+    /**
+     * Gets the normalized 'Experiments' value (computed once).
+     * @param normalizer experiments normalizer
+     * @return normalized value or null when the cell is empty
+     */
+    ExperimentNormalizer.Result normalizeExperiments(ExperimentNormalizer normalizer) {
+        if (normalizedExperiments == null && experiments != null)
+            normalizedExperiments = normalizer.normalize(experiments);
+        return normalizedExperiments;
+    }
+}
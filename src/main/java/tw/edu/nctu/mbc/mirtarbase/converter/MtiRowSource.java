@@ -0,0 +1,57 @@
+package tw.edu.nctu.mbc.mirtarbase.converter;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A forward-only cursor over the miRTarBase MTI data rows (the header row is skipped).
+ *
+ * Columns:
+ *  0- miRTarBase ID
+ *  1- miRNA
+ *  2- Species (miRNA)
+ *  3- Target Gene
+ *  4- Target Gene (Entrez Gene ID)
+ *  5- Species (Target Gene)
+ *  6- Experiments
+ *  7- Support Type
+ *  8- References (PMID)
+ *
+ * Cell values are only valid until the next call to {@link #next()}.
+ */
+public interface MtiRowSource extends Closeable {
+
+    int COLUMNS = 9;
+
+    /** {@link #getInteger(int)} value of a missing (or blank) cell */
+    int MISSING = Integer.MIN_VALUE;
+
+    /** {@link #getInteger(int)} value of a cell that is not an integer number (or is out of the int range) */
+    int NOT_AN_INTEGER = Integer.MIN_VALUE + 1;
+
+    /**
+     * Moves the cursor to the next data row.
+     * @return false when there are no more rows
+     * @throws IOException when the input cannot be read or parsed
+     */
+    boolean next() throws IOException;
+
+    /**
+     * @return 0-based number of the current row in the input (the header is row 0)
+     */
+    int getRowNumber();
+
+    /**
+     * @param column 0-based column index
+     * @return the cell value as text (not trimmed), or null when the cell is missing
+     */
+    String getString(int column);
+
+    /**
+     * Decodes an integer (gene ID, PMID) cell by its type, without throwing: a numeric cell value,
+     * or a text one that is a whole or decimal number (see {@link IntegerCells}), truncated to int.
+     * @param column 0-based column index
+     * @return the value, or {@link #MISSING}, or {@link #NOT_AN_INTEGER}
+     */
+    int getInteger(int column);
+}
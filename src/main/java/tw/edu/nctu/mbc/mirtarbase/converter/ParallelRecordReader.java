@@ -0,0 +1,160 @@
+package tw.edu.nctu.mbc.mirtarbase.converter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Reads MTI rows in a background thread and prepares them (normalizes the 'Experiments' values)
+ * in batches using the worker threads, while the records are consumed in the original order
+ * (so that the BioPAX objects are still built in one thread, in the same order as without this reader).
+ */
+final class ParallelRecordReader implements Closeable {
+    private static final int BATCH_SIZE = 512;
+
+    // marks the end of the rows
+    private static final Future<List<MtiRecord>> END = done(Collections.<MtiRecord>emptyList());
+
+    private final BlockingQueue<Future<List<MtiRecord>>> batches;
+    private final Thread reader;
+    private volatile boolean closed = false;
+    private volatile int skipped = 0;
+    private Iterator<MtiRecord> current = Collections.<MtiRecord>emptyList().iterator();
+    private boolean finished = false;
+
+    /**
+     * Starts reading the rows.
+     * @param rows row source (must not be used by other threads until this reader is closed)
+     * @param filter skips the rows of other species (before decoding them), or null
+     * @param normalizer 'Experiments' normalizer
+     * @param workers executor that prepares the batches of records
+     * @param queueSize max. number of batches read ahead
+     */
+    ParallelRecordReader(final MtiRowSource rows, final TaxonFilter filter, final ExperimentNormalizer normalizer,
+                         final ExecutorService workers, int queueSize)
+    {
+        batches = new ArrayBlockingQueue<Future<List<MtiRecord>>>(queueSize);
+        reader = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    List<MtiRecord> batch = new ArrayList<MtiRecord>(BATCH_SIZE);
+                    long position = -1;
+                    while (!closed && rows.next()) {
+                        position++;
+                        if (filter != null && !filter.accept(rows)) {
+                            skipped++;
+                            continue;
+                        }
+                        MtiRecord record = new MtiRecord();
+                        record.read(rows);
+                        record.position = position;
+                        batch.add(record);
+                        if (batch.size() == BATCH_SIZE) {
+                            batches.put(workers.submit(prepare(batch, normalizer)));
+                            batch = new ArrayList<MtiRecord>(BATCH_SIZE);
+                        }
+                    }
+                    if (!batch.isEmpty())
+                        batches.put(workers.submit(prepare(batch, normalizer)));
+                    batches.put(END);
+                } catch (InterruptedException e) {
+                    // closed
+                } catch (final Throwable t) {
+                    batches.clear(); //the consumer gets the error next
+                    batches.offer(failed(t));
+                }
+            }
+        }, "mirtarbase-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * @return next record or null when there are no more rows
+     * @throws IOException when reading the rows failed
+     */
+    MtiRecord next() throws IOException {
+        while (!current.hasNext()) {
+            if (finished)
+                return null;
+            Future<List<MtiRecord>> batch;
+            try {
+                batch = batches.take();
+                if (batch == END) {
+                    finished = true;
+                    return null;
+                }
+                current = batch.get().iterator();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted", e);
+            } catch (ExecutionException e) {
+                finished = true;
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException)
+                    throw (IOException) cause;
+                if (cause instanceof RuntimeException)
+                    throw (RuntimeException) cause;
+                if (cause instanceof Error)
+                    throw (Error) cause;
+                throw new IOException(cause);
+            }
+        }
+        return current.next();
+    }
+
+    /**
+     * @return number of the rows skipped by the filter so far (all of them - after the last record)
+     */
+    int getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Stops the background reading (does not close the row source).
+     */
+    public void close() {
+        closed = true;
+        reader.interrupt();
+        try {
+            reader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        batches.clear();
+    }
+
+    private static Callable<List<MtiRecord>> prepare(final List<MtiRecord> batch, final ExperimentNormalizer normalizer) {
+        return new Callable<List<MtiRecord>>() {
+            public List<MtiRecord> call() {
+                for (MtiRecord record : batch)
+                    if (record.hasPmid()) //the converter does not use the experiments of such rows
+                        record.normalizeExperiments(normalizer);
+                return batch;
+            }
+        };
+    }
+
+    private static <T> Future<T> done(final T value) {
+        FutureTask<T> task = new FutureTask<T>(new Callable<T>() {
+            public T call() {
+                return value;
+            }
+        });
+        task.run();
+        return task;
+    }
+
+    private static Future<List<MtiRecord>> failed(final Throwable t) {
+        FutureTask<List<MtiRecord>> task = new FutureTask<List<MtiRecord>>(new Callable<List<MtiRecord>>() {
+            public List<MtiRecord> call() throws Exception {
+                if (t instanceof Exception)
+                    throw (Exception) t;
+                throw (Error) t;
+            }
+        });
+        task.run();
+        return task;
+    }
+}
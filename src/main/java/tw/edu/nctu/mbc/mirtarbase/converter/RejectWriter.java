@@ -0,0 +1,168 @@
+package tw.edu.nctu.mbc.mirtarbase.converter;
+
+import java.io.*;
+
+/**
+ * Writes the rows the converter could not (fully) use to a tab-separated file, one line per problem:
+ * the row number (0-based, the header is row 0), MIRT ID, reason (a {@link ConversionStats.Problem} name)
+ * and the offending value (the gene ID or PMID cell text, empty when missing, or the name of the empty
+ * required column), after a header line.
+ *
+ * The values are written straight to a buffered writer (no message formatting per row),
+ * so that even an input with many bad rows is converted at full speed. Not thread-safe.
+ *
+ * A reject file opened for appending is continued by a resumed streaming conversion: its length is saved
+ * with each checkpoint, and what was written after that (the rows to be converted again) is cut off.
+ */
+public final class RejectWriter implements Closeable {
+    private static final String HEADER = "row\tmirt_id\treason\tvalue\n";
+
+    private final Writer out;
+    // the file output, or null
+    private final FileOutputStream fileOut;
+    private final char[] digits = new char[11];
+    private long count;
+
+    /**
+     * @param file reject file (replaced)
+     * @throws IOException when the file cannot be written
+     */
+    public RejectWriter(File file) throws IOException {
+        this(file, false);
+    }
+
+    /**
+     * @param file reject file
+     * @param append whether to add to the file (e.g., of the interrupted conversion to resume);
+     *               the header is only written to a new (or empty) file
+     * @throws IOException when the file cannot be written
+     */
+    public RejectWriter(File file, boolean append) throws IOException {
+        this(new FileOutputStream(file, append), !append || file.length() == 0);
+    }
+
+    private RejectWriter(FileOutputStream fileOut, boolean header) throws IOException {
+        this.fileOut = fileOut;
+        this.out = new BufferedWriter(new OutputStreamWriter(fileOut, "UTF-8"), 1 << 16);
+        if (header)
+            out.write(HEADER);
+    }
+
+    /**
+     * @param out where to write (buffered here, and closed by {@link #close()})
+     * @throws IOException when there is an I/O error
+     */
+    public RejectWriter(Writer out) throws IOException {
+        this.fileOut = null;
+        this.out = new BufferedWriter(out, 1 << 16);
+        this.out.write(HEADER);
+    }
+
+    /**
+     * @param row row number
+     * @param id MIRT ID
+     * @param reason problem
+     * @param value the bad cell text, or null
+     * @throws IOException when there is an I/O error
+     */
+    void reject(int row, String id, ConversionStats.Problem reason, String value) throws IOException {
+        start(row, id, reason);
+        if (value != null)
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                out.write((c == '\t' || c == '\n' || c == '\r') ? ' ' : c);
+            }
+        out.write('\n');
+    }
+
+    /**
+     * @param row row number
+     * @param id MIRT ID
+     * @param reason problem
+     * @param value the bad (e.g., duplicate) value
+     * @throws IOException when there is an I/O error
+     */
+    void reject(int row, String id, ConversionStats.Problem reason, int value) throws IOException {
+        start(row, id, reason);
+        writeInt(value);
+        out.write('\n');
+    }
+
+    private void start(int row, String id, ConversionStats.Problem reason) throws IOException {
+        count++;
+        writeInt(row);
+        out.write('\t');
+        if (id != null)
+            out.write(id);
+        out.write('\t');
+        out.write(reason.name());
+        out.write('\t');
+    }
+
+    // without Integer.toString
+    private void writeInt(int value) throws IOException {
+        if (value == Integer.MIN_VALUE) {
+            out.write("-2147483648");
+            return;
+        }
+        if (value < 0) {
+            out.write('-');
+            value = -value;
+        }
+        int i = digits.length;
+        do {
+            digits[--i] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        out.write(digits, i, digits.length - i);
+    }
+
+    /**
+     * @return number of the rejects written
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Writes out the buffered rejects.
+     * @throws IOException when there is an I/O error
+     */
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Writes out the buffered rejects to the disk (for a checkpoint).
+     * @return file length, or -1 when not writing to a file
+     * @throws IOException when there is an I/O error
+     */
+    long sync() throws IOException {
+        out.flush();
+        if (fileOut == null)
+            return -1;
+        fileOut.getFD().sync();
+        return fileOut.getChannel().size();
+    }
+
+    /**
+     * Cuts the file to the length saved with the checkpoint to resume from;
+     * with 0, starts it over (with the header). Nothing happens when not writing to a file.
+     * @param length file length
+     * @throws IOException when the file is shorter, or there is an I/O error
+     */
+    void truncate(long length) throws IOException {
+        out.flush();
+        if (fileOut == null)
+            return;
+        if (fileOut.getChannel().size() < length)
+            throw new IOException("The rejects file is shorter than at the checkpoint");
+        fileOut.getChannel().truncate(length);
+        if (length == 0)
+            out.write(HEADER);
+    }
+
+    public void close() throws IOException {
+        out.close();
+    }
+}
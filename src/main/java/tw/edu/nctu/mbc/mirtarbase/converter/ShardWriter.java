@@ -0,0 +1,227 @@
+package tw.edu.nctu.mbc.mirtarbase.converter;
+
+import org.biopax.paxtools.controller.Fetcher;
+import org.biopax.paxtools.controller.SimpleEditorMap;
+import org.biopax.paxtools.model.BioPAXElement;
+import org.biopax.paxtools.model.BioPAXLevel;
+import org.biopax.paxtools.model.Model;
+import org.biopax.paxtools.model.level3.*;
+
+import java.io.*;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a converted model as one BioPAX RDF/XML file per taxon (of the miRNA),
+ * each with the closure of the shared objects its interactions refer to
+ * (organisms, miRNAs, products and their references, xrefs, evidence, scores)
+ * and the taxon's pathway, if any; plus manifest.json with the object counts,
+ * sizes and SHA-256 checksums of the files.
+ *
+ * Within a file, the objects are in the same order as in the whole model output.
+ */
+final class ShardWriter {
+    static final String MANIFEST = "manifest.json";
+    private static final String TAXONOMY_NS = "http://identifiers.org/taxonomy/";
+    private static final String UNKNOWN = "unknown";
+
+    private final Model model;
+    private final File dir;
+    private final boolean gzip;
+
+    /**
+     * @param model converted model
+     * @param dir output directory (created when missing)
+     * @param gzip whether to gzip the files
+     */
+    ShardWriter(Model model, File dir, boolean gzip) {
+        this.model = model;
+        this.dir = dir;
+        this.gzip = gzip;
+    }
+
+    /**
+     * Writes the shards concurrently (as many at once as the executor has threads), then the manifest.
+     * @param executor threads to use
+     * @return number of the files written (not counting the manifest)
+     * @throws IOException when there is an I/O error
+     */
+    int write(ExecutorService executor) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Cannot create the directory: " + dir);
+
+        // taxon -> its interactions and pathways
+        Map<String, List<BioPAXElement>> roots = new TreeMap<String, List<BioPAXElement>>();
+        for (TemplateReactionRegulation regulation : model.getObjects(TemplateReactionRegulation.class))
+            add(roots, taxon(regulation), regulation);
+        for (Pathway pathway : model.getObjects(Pathway.class))
+            add(roots, taxon(pathway.getOrganism()), pathway);
+
+        // the objects' positions in the whole model output (read-only, shared by the shards)
+        final Map<String, Integer> positions = new HashMap<String, Integer>();
+        for (BioPAXElement element : model.getObjects())
+            positions.put(element.getUri(), positions.size());
+
+        List<Future<Shard>> shards = new ArrayList<Future<Shard>>();
+        try {
+            for (final Map.Entry<String, List<BioPAXElement>> e : roots.entrySet())
+                shards.add(executor.submit(new Callable<Shard>() {
+                    public Shard call() throws IOException {
+                        return writeShard(e.getKey(), e.getValue(), positions);
+                    }
+                }));
+
+            Writer manifest = new OutputStreamWriter(new FileOutputStream(new File(dir, MANIFEST)), "UTF-8");
+            try {
+                manifest.write("{\n  \"xmlBase\": " + ConversionStats.quote(String.valueOf(model.getXmlBase()))
+                        + ",\n  \"gzip\": " + gzip + ",\n  \"shards\": [");
+                String sep = "\n";
+                for (Future<Shard> f : shards) {
+                    manifest.write(sep);
+                    f.get().writeJson(manifest);
+                    sep = ",\n";
+                }
+                manifest.write("\n  ]\n}\n");
+            } finally {
+                manifest.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        } finally {
+            for (Future<Shard> f : shards)
+                f.cancel(true);
+        }
+        return shards.size();
+    }
+
+    private static void add(Map<String, List<BioPAXElement>> roots, String taxon, BioPAXElement root) {
+        List<BioPAXElement> list = roots.get(taxon);
+        if (list == null) {
+            list = new ArrayList<BioPAXElement>();
+            roots.put(taxon, list);
+        }
+        list.add(root);
+    }
+
+    // the miRNA's organism taxon
+    private static String taxon(TemplateReactionRegulation regulation) {
+        for (Controller controller : regulation.getController())
+            if (controller instanceof Rna && ((Rna) controller).getEntityReference() instanceof RnaReference)
+                return taxon(((RnaReference) ((Rna) controller).getEntityReference()).getOrganism());
+        return UNKNOWN;
+    }
+
+    private static String taxon(BioSource organism) {
+        if (organism == null)
+            return UNKNOWN;
+        String uri = organism.getUri();
+        return (uri.startsWith(TAXONOMY_NS)) ? uri.substring(TAXONOMY_NS.length()) : uri;
+    }
+
+    private Shard writeShard(String taxon, List<BioPAXElement> roots, final Map<String, Integer> positions)
+            throws IOException
+    {
+        Model closure = BioPAXLevel.L3.getDefaultFactory().createModel();
+        // the constructor's filters are generic varargs (no filters here)
+        @SuppressWarnings("unchecked")
+        Fetcher fetcher = new Fetcher(SimpleEditorMap.L3);
+        for (BioPAXElement root : roots)
+            if (!closure.contains(root))
+                fetcher.fetch(root, closure);
+
+        // in the whole model order, without scanning all the model objects for each shard
+        List<BioPAXElement> elements = new ArrayList<BioPAXElement>(closure.getObjects().size());
+        for (BioPAXElement element : closure.getObjects())
+            if (positions.containsKey(element.getUri()))
+                elements.add(element);
+        Collections.sort(elements, new Comparator<BioPAXElement>() {
+            public int compare(BioPAXElement a, BioPAXElement b) {
+                return positions.get(a.getUri()).compareTo(positions.get(b.getUri()));
+            }
+        });
+
+        Shard shard = new Shard(taxon, new File(dir, "mirtarbase_" + taxon.replaceAll("[^-\\w]+", "_")
+                + ((gzip) ? ".owl.gz" : ".owl")));
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        OutputStream out = new DigestOutputStream(new FileOutputStream(shard.file), sha256);
+        if (gzip)
+            out = new GZIPOutputStream(out, 1 << 16);
+        BiopaxStreamWriter writer = new BiopaxStreamWriter(out, model.getXmlBase());
+        try {
+            for (BioPAXElement element : elements) {
+                writer.write(element);
+                shard.count(element);
+            }
+        } finally {
+            writer.close();
+        }
+        shard.bytes = shard.file.length();
+        shard.sha256 = toHex(sha256.digest());
+        return shard;
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes)
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return sb.toString();
+    }
+
+    // a written file and what's in it
+    private static final class Shard {
+        final String taxon;
+        final File file;
+        String organism;
+        long bytes;
+        String sha256;
+        int objects;
+        final Map<String, long[]> counts = new TreeMap<String, long[]>();
+
+        Shard(String taxon, File file) {
+            this.taxon = taxon;
+            this.file = file;
+        }
+
+        void count(BioPAXElement element) {
+            objects++;
+            String type = element.getModelInterface().getSimpleName();
+            long[] count = counts.get(type);
+            if (count == null)
+                counts.put(type, new long[]{1L});
+            else
+                count[0]++;
+            if (element instanceof BioSource && organism == null && taxon(((BioSource) element)).equals(taxon))
+                organism = ((BioSource) element).getDisplayName();
+        }
+
+        void writeJson(Writer out) throws IOException {
+            out.write("    {\"taxon\": " + ConversionStats.quote(taxon)
+                    + ", \"organism\": " + ((organism != null) ? ConversionStats.quote(organism) : "null")
+                    + ", \"file\": " + ConversionStats.quote(file.getName())
+                    + ", \"bytes\": " + bytes
+                    + ", \"sha256\": " + ConversionStats.quote(sha256)
+                    + ", \"objects\": " + objects
+                    + ", \"counts\": {");
+            String sep = "";
+            for (Map.Entry<String, long[]> e : counts.entrySet()) {
+                out.write(sep + ConversionStats.quote(e.getKey()) + ": " + e.getValue()[0]);
+                sep = ", ";
+            }
+            out.write("}}");
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package tw.edu.nctu.mbc.mirtarbase.converter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * MTI rows ordered by the (trimmed) MIRT ID, so that all the rows of an interaction come together,
+ * however unordered the input is (e.g., for the streaming mode); rows with the same ID
+ * keep their input order, and their original row numbers.
+ *
+ * This is an external merge sort: up to maxRowsInMemory rows are sorted in memory
+ * and spilled to a temporary file (a sorted run); the runs are then merged on the fly
+ * while the rows are read. Memory use is bounded by the run size, not by the input size.
+ * The input is read and sorted on the first call to {@link #next()}.
+ *
+ * Only the integer values of columns 4 and 8 (gene ID and PMID) are kept.
+ */
+public final class SortedRowSource implements MtiRowSource {
+    private static Logger log = LoggerFactory.getLogger(SortedRowSource.class);
+
+    public static final int DEFAULT_MAX_ROWS_IN_MEMORY = 100000;
+
+    private static final int[] INTEGER_COLUMNS = {4, 8};
+
+    private static final Comparator<Row> BY_ID = new Comparator<Row>() {
+        public int compare(Row a, Row b) {
+            int c = (a.id == null) ? ((b.id == null) ? 0 : -1) : ((b.id == null) ? 1 : a.id.compareTo(b.id));
+            return (c != 0) ? c : (a.number < b.number ? -1 : (a.number == b.number ? 0 : 1));
+        }
+    };
+
+    private final MtiRowSource rows;
+    private final File tmpDir;
+    private final int maxRowsInMemory;
+
+    private final List<File> runFiles = new ArrayList<File>();
+    private final List<RunReader> runReaders = new ArrayList<RunReader>();
+    private PriorityQueue<RunReader> merge;
+    private Iterator<Row> inMemory; //when all the rows fit in one run
+    private Row current;
+
+    /**
+     * @param rows input rows (closed by {@link #close()})
+     * @param tmpDir directory for the sorted runs, or null (the default temporary-file directory)
+     * @param maxRowsInMemory max. number of rows sorted in memory at once (the run size)
+     */
+    public SortedRowSource(MtiRowSource rows, File tmpDir, int maxRowsInMemory) {
+        if (maxRowsInMemory < 1)
+            throw new IllegalArgumentException("maxRowsInMemory < 1");
+        this.rows = rows;
+        this.tmpDir = tmpDir;
+        this.maxRowsInMemory = maxRowsInMemory;
+    }
+
+    public SortedRowSource(MtiRowSource rows) {
+        this(rows, null, DEFAULT_MAX_ROWS_IN_MEMORY);
+    }
+
+    public boolean next() throws IOException {
+        if (merge == null && inMemory == null)
+            sort();
+
+        if (inMemory != null) {
+            current = (inMemory.hasNext()) ? inMemory.next() : null;
+            return current != null;
+        }
+
+        RunReader run = merge.poll();
+        if (run == null) {
+            current = null;
+            return false;
+        }
+        current = run.row;
+        if (run.advance())
+            merge.add(run);
+        return true;
+    }
+
+    // reads all the input rows, spilling the sorted runs
+    private void sort() throws IOException {
+        List<Row> run = new ArrayList<Row>(Math.min(maxRowsInMemory, 1 << 16));
+        int n = 0;
+        while (rows.next()) {
+            run.add(new Row(rows));
+            n++;
+            if (run.size() == maxRowsInMemory) {
+                spill(run);
+                run.clear();
+            }
+        }
+        Collections.sort(run, BY_ID);
+
+        if (runFiles.isEmpty()) {
+            inMemory = run.iterator();
+            return;
+        }
+
+        if (!run.isEmpty())
+            spill(run);
+        merge = new PriorityQueue<RunReader>(runFiles.size(), new Comparator<RunReader>() {
+            public int compare(RunReader a, RunReader b) {
+                return BY_ID.compare(a.row, b.row);
+            }
+        });
+        for (File f : runFiles) {
+            RunReader reader = new RunReader(f);
+            runReaders.add(reader);
+            if (reader.advance())
+                merge.add(reader);
+        }
+        log.info("Sorted " + n + " rows by MIRT ID; merging " + runFiles.size() + " runs");
+    }
+
+    private void spill(List<Row> run) throws IOException {
+        Collections.sort(run, BY_ID);
+        File f = File.createTempFile("mirtarbase-run", ".bin", tmpDir);
+        f.deleteOnExit();
+        runFiles.add(f);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), 1 << 16));
+        try {
+            for (Row row : run)
+                row.write(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    public int getRowNumber() {
+        return current.number;
+    }
+
+    public String getString(int column) {
+        return current.values[column];
+    }
+
+    public int getInteger(int column) {
+        for (int i = 0; i < INTEGER_COLUMNS.length; i++)
+            if (INTEGER_COLUMNS[i] == column)
+                return current.integers[i];
+        return IntegerCells.parse(current.values[column]);
+    }
+
+    /**
+     * Closes the input and deletes the temporary files.
+     * @throws IOException when there is an I/O error
+     */
+    public void close() throws IOException {
+        try {
+            rows.close();
+        } finally {
+            for (RunReader reader : runReaders)
+                reader.in.close();
+            for (File f : runFiles)
+                if (!f.delete())
+                    log.warn("Failed to delete " + f);
+            runReaders.clear();
+            runFiles.clear();
+        }
+    }
+
+    // an input row copy
+    private static final class Row {
+        int number;
+        String id;
+        final String[] values = new String[COLUMNS];
+        final int[] integers = new int[INTEGER_COLUMNS.length];
+
+        Row() {
+        }
+
+        Row(MtiRowSource rows) {
+            number = rows.getRowNumber();
+            for (int c = 0; c < COLUMNS; c++)
+                values[c] = rows.getString(c);
+            id = (values[0] != null) ? values[0].trim() : null;
+            for (int i = 0; i < INTEGER_COLUMNS.length; i++)
+                integers[i] = rows.getInteger(INTEGER_COLUMNS[i]);
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(number);
+            for (String value : values)
+                writeString(out, value);
+            for (int integer : integers)
+                out.writeInt(integer);
+        }
+
+        static Row read(DataInputStream in) throws IOException {
+            Row row = new Row();
+            row.number = in.readInt();
+            for (int c = 0; c < COLUMNS; c++)
+                row.values[c] = readString(in);
+            row.id = (row.values[0] != null) ? row.values[0].trim() : null;
+            for (int i = 0; i < INTEGER_COLUMNS.length; i++)
+                row.integers[i] = in.readInt();
+            return row;
+        }
+
+        // length-prefixed UTF-8, -1 for null (writeUTF is limited to 64K)
+        private static void writeString(DataOutputStream out, String s) throws IOException {
+            if (s == null) {
+                out.writeInt(-1);
+                return;
+            }
+            byte[] bytes = s.getBytes("UTF-8");
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private static String readString(DataInputStream in) throws IOException {
+            int length = in.readInt();
+            if (length < 0)
+                return null;
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return new String(bytes, "UTF-8");
+        }
+    }
+
+    // the current row of a sorted run file
+    private static final class RunReader {
+        final DataInputStream in;
+        Row row;
+
+        RunReader(File f) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1 << 16));
+        }
+
+        boolean advance() throws IOException {
+            try {
+                row = Row.read(in);
+                return true;
+            } catch (EOFException e) {
+                row = null;
+                in.close();
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package tw.edu.nctu.mbc.mirtarbase.converter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Converter-scoped symbol table, so that a value repeated in many rows
+ * (gene symbols, miRNA and organism names, comments, scores)
+ * is stored in the model once, not as a fresh copy per BioPAX object.
+ *
+ * Unlike {@link String#intern()}, the strings are released with the pool (see {@link #clear()}).
+ * Not thread-safe.
+ */
+final class StringPool {
+    private final Map<String, String> strings = new HashMap<String, String>();
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @param s a string or null
+     * @return the pooled string equal to s (s itself the first time), or null
+     */
+    String get(String s) {
+        if (s == null)
+            return null;
+        String pooled = strings.get(s);
+        if (pooled != null) {
+            hits++;
+            return pooled;
+        }
+        misses++;
+        strings.put(s, s);
+        return s;
+    }
+
+    /**
+     * @return number of distinct strings
+     */
+    int size() {
+        return strings.size();
+    }
+
+    long getHits() {
+        return hits;
+    }
+
+    long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Forgets the strings and resets the counters.
+     */
+    void clear() {
+        strings.clear();
+        hits = 0;
+        misses = 0;
+    }
+}
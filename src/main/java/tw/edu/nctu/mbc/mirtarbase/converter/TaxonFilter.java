@@ -0,0 +1,70 @@
+package tw.edu.nctu.mbc.mirtarbase.converter;
+
+import java.util.*;
+
+/**
+ * Accepts the MTI rows where both the miRNA and the target gene species are allowed,
+ * checking only columns 2 and 5 (so that a rejected row is not decoded any further).
+ *
+ * Not thread-safe (caches the result per species name).
+ */
+final class TaxonFilter {
+    private final MirBase mirBase;
+    private final Set<String> taxa = new HashSet<String>();
+    // species name (as is in the input) -> accepted
+    private final Map<String, Boolean> accepted = new HashMap<String, Boolean>();
+
+    /**
+     * @param mirBase miRBase organisms
+     * @param organisms allowed organisms: miRBase codes (e.g., 'hsa'), NCBI taxonomy IDs or names
+     * @throws IllegalArgumentException when an organism is unknown
+     */
+    TaxonFilter(MirBase mirBase, Collection<String> organisms) {
+        this.mirBase = mirBase;
+        for (String organism : organisms) {
+            String taxon = toTaxon(mirBase, organism.trim());
+            if (taxon == null)
+                throw new IllegalArgumentException("Unknown organism: " + organism);
+            taxa.add(taxon);
+        }
+    }
+
+    private static String toTaxon(MirBase mirBase, String organism) {
+        if (organism.matches("\\d+"))
+            return organism;
+        String taxon = mirBase.getTaxon(organism.toLowerCase());
+        if (taxon == null) {
+            String code = mirBase.getOrganismCode(organism.toLowerCase());
+            if (code != null)
+                taxon = mirBase.getTaxon(code);
+        }
+        return taxon;
+    }
+
+    /**
+     * @return the allowed NCBI taxonomy IDs
+     */
+    Set<String> getTaxa() {
+        return Collections.unmodifiableSet(taxa);
+    }
+
+    /**
+     * @param rows row source positioned at a row
+     * @return true when the row's miRNA and target species are both allowed
+     */
+    boolean accept(MtiRowSource rows) {
+        return accept(rows.getString(2)) && accept(rows.getString(5));
+    }
+
+    private boolean accept(String species) {
+        if (species == null)
+            return false;
+        Boolean ok = accepted.get(species);
+        if (ok == null) {
+            String code = mirBase.getOrganismCode(species.trim().toLowerCase());
+            ok = code != null && taxa.contains(mirBase.getTaxon(code));
+            accepted.put(species, ok);
+        }
+        return ok;
+    }
+}
@@ -0,0 +1,90 @@
+package tw.edu.nctu.mbc.mirtarbase.converter;
+
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.ss.usermodel.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the first worksheet of a MTI workbook using the POI usermodel.
+ *
+ * The whole workbook is loaded into memory; this is only used
+ * for legacy (.xls) files (see {@link XlsxRowSource}).
+ */
+public class WorkbookRowSource implements MtiRowSource {
+    private static Logger log = LoggerFactory.getLogger(WorkbookRowSource.class);
+
+    private final Sheet sheet;
+    private final int physicalNumberOfRows;
+    private int r = 0;
+    private Row row;
+
+    /**
+     * @param workbook MTI .xls(x) workbook input stream
+     * @throws IOException when there is an I/O error or invalid input format.
+     */
+    public WorkbookRowSource(InputStream workbook) throws IOException {
+        Workbook wb = null;
+        try {
+            wb = WorkbookFactory.create(workbook);
+        } catch (InvalidFormatException e) {
+            throw new IOException(e);
+        }
+
+        sheet = wb.getSheetAt(0);
+        log.info("Now parsing the first Excel worksheet: " + sheet.getSheetName());
+
+        physicalNumberOfRows = sheet.getPhysicalNumberOfRows();
+        log.info("There are " + physicalNumberOfRows + " rows in the miRTarBase file.");
+    }
+
+    public boolean next() {
+        while (++r < physicalNumberOfRows) {
+            row = sheet.getRow(r);
+            if (row != null)
+                return true;
+        }
+        return false;
+    }
+
+    public int getRowNumber() {
+        return r;
+    }
+
+    public String getString(int column) {
+        Cell cell = row.getCell(column);
+        if (cell == null)
+            return null;
+        if (cell.getCellType() == Cell.CELL_TYPE_NUMERIC) {
+            double d = cell.getNumericCellValue();
+            return (d == (long) d) ? String.valueOf((long) d) : String.valueOf(d);
+        }
+        return cell.getStringCellValue();
+    }
+
+    public int getInteger(int column) {
+        Cell cell = row.getCell(column);
+        if (cell == null)
+            return MISSING;
+        int type = cell.getCellType();
+        if (type == Cell.CELL_TYPE_FORMULA)
+            type = cell.getCachedFormulaResultType();
+        switch (type) {
+            case Cell.CELL_TYPE_NUMERIC:
+                return IntegerCells.fromDouble(cell.getNumericCellValue());
+            case Cell.CELL_TYPE_STRING:
+                return IntegerCells.parse(cell.getStringCellValue());
+            case Cell.CELL_TYPE_BLANK:
+                return MISSING;
+            default: //boolean, error
+                return NOT_AN_INTEGER;
+        }
+    }
+
+    public void close() {
+        //nothing to release (the workbook has been already read)
+    }
+}
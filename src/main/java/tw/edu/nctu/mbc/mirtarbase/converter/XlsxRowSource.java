@@ -0,0 +1,218 @@
+package tw.edu.nctu.mbc.mirtarbase.converter;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Streams the first worksheet of an OOXML (.xlsx) MTI workbook one row at a time.
+ *
+ * Uses the POI XSSF event API (XSSFReader, read-only shared strings table)
+ * and a StAX pull parser over the sheet XML instead of the POI usermodel,
+ * so that the memory use does not depend on the number of rows.
+ */
+public class XlsxRowSource implements MtiRowSource {
+    private static Logger log = LoggerFactory.getLogger(XlsxRowSource.class);
+
+    // cell types (see the 't' attribute of the 'c' element in the SpreadsheetML)
+    private static final char NUMBER = 'n';
+    private static final char SHARED_STRING = 's';
+    private static final char TEXT = 't';
+
+    private final File tempFile; //not null if the input stream has been copied to a tmp file
+    private final OPCPackage pkg;
+    private final ReadOnlySharedStringsTable sharedStrings;
+    private final InputStream sheetStream;
+    private final XMLStreamReader reader;
+
+    private final String[] values = new String[COLUMNS];
+    private final char[] types = new char[COLUMNS];
+    private int rowNumber = -1;
+
+    /**
+     * Opens the xlsx file for streaming.
+     * @param xlsx MTI .xlsx file
+     * @throws IOException when the file cannot be read or is not a valid workbook
+     */
+    public XlsxRowSource(File xlsx) throws IOException {
+        this(xlsx, false);
+    }
+
+    /**
+     * Copies the workbook to a temporary file first (POI would otherwise
+     * unpack the entire zip package into memory) and opens it for streaming.
+     * @param xlsx MTI .xlsx workbook input stream
+     * @throws IOException when the data cannot be read or is not a valid workbook
+     */
+    public XlsxRowSource(InputStream xlsx) throws IOException {
+        this(spool(xlsx), true);
+    }
+
+    private XlsxRowSource(File file, boolean temporary) throws IOException {
+        this.tempFile = (temporary) ? file : null;
+        OPCPackage opcPackage = null;
+        try {
+            opcPackage = OPCPackage.open(file.getPath(), PackageAccess.READ);
+            XSSFReader xssfReader = new XSSFReader(opcPackage);
+            sharedStrings = new ReadOnlySharedStringsTable(opcPackage);
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) xssfReader.getSheetsData();
+            sheetStream = sheets.next();
+            log.info("Now streaming the first Excel worksheet: " + sheets.getSheetName());
+            reader = XMLInputFactory.newInstance().createXMLStreamReader(sheetStream);
+        } catch (OpenXML4JException e) {
+            cleanUp(opcPackage);
+            throw new IOException(e);
+        } catch (SAXException e) {
+            cleanUp(opcPackage);
+            throw new IOException(e);
+        } catch (XMLStreamException e) {
+            cleanUp(opcPackage);
+            throw new IOException(e);
+        }
+        pkg = opcPackage;
+    }
+
+    public boolean next() throws IOException {
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && "row".equals(reader.getLocalName())) {
+                    readRow();
+                    if (rowNumber > 0) //skip the header
+                        return true;
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+        return false;
+    }
+
+    public int getRowNumber() {
+        return rowNumber;
+    }
+
+    public String getString(int column) {
+        String value = values[column];
+        if (value != null && types[column] == SHARED_STRING)
+            value = sharedStrings.getEntryAt(Integer.parseInt(value));
+        return value;
+    }
+
+    public int getInteger(int column) {
+        String value = values[column];
+        if (value == null)
+            return MISSING;
+        if (types[column] == NUMBER) {
+            int i = IntegerCells.parse(value);
+            if (i != NOT_AN_INTEGER || value.indexOf('E') < 0)
+                return i;
+            try { // a number in the exponent notation
+                return IntegerCells.fromDouble(Double.parseDouble(value));
+            } catch (NumberFormatException e) {
+                return NOT_AN_INTEGER; //a broken file
+            }
+        }
+        return IntegerCells.parse(getString(column));
+    }
+
+    public void close() throws IOException {
+        try {
+            reader.close();
+        } catch (XMLStreamException e) {
+            log.warn("Failed to close the sheet reader", e);
+        }
+        sheetStream.close();
+        cleanUp(pkg);
+    }
+
+    // reads a 'row' element; the reader is positioned at its start tag
+    private void readRow() throws XMLStreamException {
+        Arrays.fill(values, null);
+        String r = reader.getAttributeValue(null, "r");
+        rowNumber = (r != null) ? Integer.parseInt(r) - 1 : rowNumber + 1;
+        int column = -1;
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            // 'c' (cell) element
+            String ref = reader.getAttributeValue(null, "r");
+            column = (ref != null) ? columnIndex(ref) : column + 1;
+            String t = reader.getAttributeValue(null, "t");
+            char type = (t == null || "n".equals(t)) ? NUMBER : ("s".equals(t)) ? SHARED_STRING : TEXT;
+            String value = readCellValue();
+            if (column < COLUMNS) {
+                values[column] = value;
+                types[column] = type;
+            }
+        }
+    }
+
+    // reads the cell's content up to its end tag; returns the 'v' or inline string text
+    private String readCellValue() throws XMLStreamException {
+        String value = null;
+        StringBuilder inline = null;
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String name = reader.getLocalName();
+                if ("v".equals(name)) {
+                    value = reader.getElementText();
+                } else if ("t".equals(name)) { //inline string (rich) text run
+                    if (inline == null)
+                        inline = new StringBuilder();
+                    inline.append(reader.getElementText());
+                } else {
+                    depth++;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+        return (inline != null) ? inline.toString() : value;
+    }
+
+    // e.g., "C12" -> 2
+    private static int columnIndex(String ref) {
+        int column = 0;
+        for (int i = 0; i < ref.length(); i++) {
+            char c = ref.charAt(i);
+            if (c < 'A' || c > 'Z')
+                break;
+            column = column * 26 + (c - 'A' + 1);
+        }
+        return column - 1;
+    }
+
+    private void cleanUp(OPCPackage opcPackage) {
+        if (opcPackage != null)
+            opcPackage.revert(); //read-only package: do not save
+        if (tempFile != null && !tempFile.delete())
+            log.warn("Failed to delete the tmp file: " + tempFile);
+    }
+
+    private static File spool(InputStream in) throws IOException {
+        File file = File.createTempFile("mirtarbase", ".xlsx");
+        file.deleteOnExit();
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) > 0)
+                out.write(buf, 0, n);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
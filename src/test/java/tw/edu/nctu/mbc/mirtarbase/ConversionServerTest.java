@@ -0,0 +1,123 @@
+package tw.edu.nctu.mbc.mirtarbase;
+
+import org.junit.After;
+import org.junit.Test;
+import tw.edu.nctu.mbc.mirtarbase.converter.ExperimentNormalizer;
+import tw.edu.nctu.mbc.mirtarbase.converter.MirBase;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+
+import static org.junit.Assert.*;
+
+public class ConversionServerTest {
+
+    private static final String TSV = "miRTarBase ID\tmiRNA\tSpecies (miRNA)\tTarget Gene\tTarget Gene (Entrez ID)"
+            + "\tSpecies (Target Gene)\tExperiments\tSupport Type\tReferences (PMID)\n"
+            + "MIRT000001\thsa-miR-21-5p\tHomo sapiens\tPTEN\t5728\tHomo sapiens\tqRT-PCR\tFunctional MTI\t18548003\n";
+
+    private ConversionServer server;
+
+    @After
+    public void stop() {
+        if (server != null)
+            server.stop(0);
+    }
+
+    @Test
+    public void convert() throws IOException {
+        server = start("127.0.0.1", 1);
+        HttpURLConnection c = post("/convert?format=tsv&threads=1", TSV);
+        assertEquals(200, c.getResponseCode());
+        String owl = read(c.getInputStream());
+        assertTrue(owl.contains("MIRT000001"));
+
+        assertEquals(400, post("/convert?format=tsv&threads=0", TSV).getResponseCode());
+        assertEquals(400, post("/convert?format=tsv&threads=100000", TSV).getResponseCode());
+        assertEquals(400, post("/convert?format=tsv&threads=x", TSV).getResponseCode());
+        assertTrue(read(get("/status").getInputStream()).contains("\"completed\": 1"));
+    }
+
+    @Test
+    public void statusWhileAllJobsRun() throws Exception {
+        server = start("127.0.0.1", 1);
+        // a job that waits for the rest of its request body
+        HttpURLConnection busy = connection("/convert?format=tsv");
+        busy.setRequestMethod("POST");
+        busy.setDoOutput(true);
+        busy.setChunkedStreamingMode(16);
+        OutputStream body = busy.getOutputStream();
+        body.write(TSV.substring(0, 40).getBytes("UTF-8"));
+        body.flush();
+        for (int i = 0; i < 100 && !read(get("/status").getInputStream()).contains("\"running\": 1"); i++)
+            Thread.sleep(50);
+
+        HttpURLConnection status = get("/status");
+        assertEquals(200, status.getResponseCode());
+        assertTrue(read(status.getInputStream()).contains("\"running\": 1"));
+
+        body.write(TSV.substring(40).getBytes("UTF-8"));
+        body.close();
+        assertEquals(200, busy.getResponseCode());
+        assertTrue(read(busy.getInputStream()).contains("MIRT000001"));
+    }
+
+    @Test
+    public void noLocalInputBeyondLoopback() throws IOException {
+        File input = File.createTempFile("mti", ".tsv");
+        try {
+            Writer w = new OutputStreamWriter(new FileOutputStream(input), "UTF-8");
+            w.write(TSV);
+            w.close();
+            server = start("0.0.0.0", 1);
+            assertEquals(403, post("/convert?input=" + input.getAbsolutePath(), "").getResponseCode());
+            server.stop(0);
+
+            server = start("127.0.0.1", 1);
+            HttpURLConnection c = post("/convert?input=" + input.getAbsolutePath(), "");
+            assertEquals(200, c.getResponseCode());
+            assertTrue(read(c.getInputStream()).contains("MIRT000001"));
+        } finally {
+            input.delete();
+        }
+    }
+
+    private static ConversionServer start(String host, int jobs) throws IOException {
+        return new ConversionServer(new InetSocketAddress(host, 0), MirBase.getDefault(), new ExperimentNormalizer(), jobs);
+    }
+
+    private HttpURLConnection connection(String path) throws IOException {
+        HttpURLConnection c = (HttpURLConnection) new URL("http://127.0.0.1:" + server.getPort() + path).openConnection();
+        c.setConnectTimeout(5000);
+        c.setReadTimeout(10000);
+        return c;
+    }
+
+    private HttpURLConnection get(String path) throws IOException {
+        return connection(path);
+    }
+
+    private HttpURLConnection post(String path, String body) throws IOException {
+        HttpURLConnection c = connection(path);
+        c.setRequestMethod("POST");
+        c.setDoOutput(true);
+        OutputStream out = c.getOutputStream();
+        out.write(body.getBytes("UTF-8"));
+        out.close();
+        return c;
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int n; (n = in.read(buffer)) >= 0; )
+                bytes.write(buffer, 0, n);
+            return bytes.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+}
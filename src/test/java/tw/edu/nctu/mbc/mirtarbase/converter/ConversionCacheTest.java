@@ -0,0 +1,127 @@
+package tw.edu.nctu.mbc.mirtarbase.converter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ConversionCacheTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void keyDependsOnContentsAndOptions() throws IOException {
+        File input = write("input.tsv", "MIRT000001\n");
+        String key = key(input, "true").toString();
+        assertEquals(64, key.length());
+        assertEquals(key, key(write("copy.tsv", "MIRT000001\n"), "true").toString());
+        assertFalse(key.equals(key(input, null).toString()));
+        assertFalse(key.equals(key(write("other.tsv", "MIRT000002\n"), "true").toString()));
+    }
+
+    @Test
+    public void missThenHit() throws IOException {
+        ConversionCache cache = new ConversionCache(tmp.newFolder("cache"), 1000);
+        File output = write("out.owl", "<rdf/>");
+        File copy = new File(tmp.getRoot(), "copy.owl");
+
+        assertFalse(cache.get(key(output, null), copy));
+        assertFalse(copy.exists());
+        cache.put(key(output, null), output);
+        assertTrue(cache.get(key(output, null), copy));
+        assertEquals("<rdf/>", MtiTestData.read(copy));
+
+        Map<String, Long> counts = cache.getCounts();
+        assertEquals(1L, (long) counts.get("hits"));
+        assertEquals(1L, (long) counts.get("misses"));
+        assertEquals(0L, (long) counts.get("evictions"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws IOException {
+        File dir = tmp.newFolder("cache");
+        ConversionCache cache = new ConversionCache(dir, 100);
+        File a = write("a.owl", fill('a', 40));
+        File b = write("b.owl", fill('b', 40));
+        File c = write("c.owl", fill('c', 40));
+
+        cache.put(key(a, null), a);
+        cache.put(key(b, null), b);
+        // 'a' was used after 'b'
+        new File(dir, key(a, null).toString()).setLastModified(System.currentTimeMillis() - 1000);
+        new File(dir, key(b, null).toString()).setLastModified(System.currentTimeMillis() - 2000);
+        cache.put(key(c, null), c);
+
+        File out = new File(tmp.getRoot(), "out.owl");
+        assertTrue(cache.get(key(a, null), out));
+        assertTrue(cache.get(key(c, null), out));
+        assertFalse(cache.get(key(b, null), out));
+        assertEquals(1L, (long) cache.getCounts().get("evictions"));
+    }
+
+    @Test
+    public void countsAreNeverSeenPartlyWritten() throws Exception {
+        final File dir = tmp.newFolder("cache");
+        final File input = write("input.tsv", "MIRT000001\n");
+        new ConversionCache(dir, 1000).get(key(input, null), new File(tmp.getRoot(), "out.owl"));
+        // two "processes" counting misses while the counts are read
+        Thread[] runs = new Thread[2];
+        final IOException[] failed = new IOException[1];
+        for (int t = 0; t < runs.length; t++) {
+            runs[t] = new Thread() {
+                public void run() {
+                    try {
+                        ConversionCache cache = new ConversionCache(dir, 1000);
+                        for (int i = 0; i < 200; i++)
+                            cache.get(key(input, "run"), new File(tmp.getRoot(), "out.owl"));
+                    } catch (IOException e) {
+                        failed[0] = e;
+                    }
+                }
+            };
+            runs[t].start();
+        }
+        ConversionCache reader = new ConversionCache(dir, 1000);
+        while (runs[0].isAlive() || runs[1].isAlive())
+            assertTrue(reader.getCounts().get("misses") > 0);
+        for (Thread run : runs)
+            run.join();
+        assertNull(failed[0]);
+        assertEquals(1, dir.list().length); //no temporary files left
+    }
+
+    @Test
+    public void tooLargeResultIsNotCached() throws IOException {
+        ConversionCache cache = new ConversionCache(tmp.newFolder("cache"), 10);
+        File output = write("out.owl", fill('x', 11));
+        cache.put(key(output, null), output);
+        assertFalse(cache.get(key(output, null), new File(tmp.getRoot(), "copy.owl")));
+    }
+
+    private static ConversionCache.Key key(File input, String option) throws IOException {
+        return new ConversionCache.Key().add("input", input).add("p", option);
+    }
+
+    private File write(String name, String text) throws IOException {
+        File file = new File(tmp.getRoot(), name);
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            out.write(text);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static String fill(char c, int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++)
+            sb.append(c);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,235 @@
+package tw.edu.nctu.mbc.mirtarbase.converter;
+
+import org.biopax.paxtools.model.BioPAXLevel;
+import org.biopax.paxtools.model.Model;
+import org.biopax.paxtools.model.level3.BioSource;
+import org.biopax.paxtools.model.level3.PublicationXref;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+
+import static org.junit.Assert.*;
+
+public class ConversionCheckpointTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void indexRoundTripWithUnknownSpecies() throws IOException {
+        Model model = BioPAXLevel.L3.getDefaultFactory().createModel();
+        EntityIndex index = new EntityIndex();
+        index.publications.put(18548003, model.addNew(PublicationXref.class, "pub1"));
+        BioSource human = model.addNew(BioSource.class, "human");
+        BioSource unknown = model.addNew(BioSource.class, "unknown");
+        index.organisms.put("hsa", human);
+        index.organisms.put(null, unknown);
+        index.organismsByTaxon.put("9606", human);
+        index.organismsByTaxon.put(null, unknown);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        index.write(new DataOutputStream(bytes));
+
+        Model restoredModel = BioPAXLevel.L3.getDefaultFactory().createModel();
+        EntityIndex restored = new EntityIndex();
+        restored.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), restoredModel);
+
+        assertEquals("pub1", restored.publications.get(18548003).getUri());
+        assertEquals("human", restored.organisms.get("hsa").getUri());
+        assertEquals("unknown", restored.organisms.get(null).getUri());
+        assertEquals("unknown", restored.organismsByTaxon.get(null).getUri());
+        // the same object by both keys
+        assertSame(restored.organisms.get("hsa"), restored.organismsByTaxon.get("9606"));
+        assertEquals(3, restoredModel.getObjects().size());
+    }
+
+    @Test
+    public void checkpointEveryRowWithUnknownSpecies() throws IOException {
+        File expected = tmp.newFile("expected.owl");
+        new MirtarbaseToBiopaxConverter().convertToOWL(MtiTestData.tsv(MtiTestData.ROWS), MirBase.getDefault(),
+                new FileOutputStream(expected));
+
+        File dir = tmp.newFolder("checkpoint");
+        File output = new File(tmp.getRoot(), "out.owl");
+        MirtarbaseToBiopaxConverter converter = new MirtarbaseToBiopaxConverter();
+        converter.setCheckpointDir(dir);
+        converter.setCheckpointInterval(1);
+        try {
+            converter.convertToOWL(new FailingRowSource(MtiTestData.tsv(MtiTestData.ROWS), 6),
+                    MirBase.getDefault(), output, false);
+            fail("The row source should have failed");
+        } catch (IOException e) {
+            assertEquals("Interrupted", e.getMessage());
+        }
+        assertTrue(new File(dir, ConversionCheckpoint.FILE_NAME).isFile());
+
+        converter = new MirtarbaseToBiopaxConverter();
+        converter.setCheckpointDir(dir);
+        converter.setCheckpointInterval(1);
+        converter.convertToOWL(MtiTestData.tsv(MtiTestData.ROWS), MirBase.getDefault(), output, true);
+
+        assertEquals(MtiTestData.read(expected), MtiTestData.read(output));
+        assertFalse(new File(dir, ConversionCheckpoint.FILE_NAME).exists());
+    }
+
+    @Test
+    public void resumeContinuesRejectsFile() throws IOException {
+        // a bad gene ID in every 7th row
+        StringBuilder sb = new StringBuilder();
+        String[] lines = MtiTestData.rows(300).split("\n");
+        for (int i = 0; i < lines.length; i++) {
+            String[] cells = lines[i].split("\t", -1);
+            if (i % 7 == 3)
+                cells[4] = "n/a";
+            for (int c = 0; c < cells.length; c++)
+                sb.append((c > 0) ? "\t" : "").append(cells[c]);
+            sb.append('\n');
+        }
+        String dirty = sb.toString();
+
+        File expectedRejects = new File(tmp.getRoot(), "expected.tsv");
+        MirtarbaseToBiopaxConverter converter = new MirtarbaseToBiopaxConverter();
+        RejectWriter rejects = new RejectWriter(expectedRejects);
+        converter.setRejects(rejects);
+        converter.convertToOWL(MtiTestData.tsv(dirty), MirBase.getDefault(), new File(tmp.getRoot(), "expected.owl"), false);
+        rejects.close();
+
+        File dir = tmp.newFolder("checkpoint");
+        File output = new File(tmp.getRoot(), "out.owl");
+        File rejectsFile = new File(tmp.getRoot(), "rejects.tsv");
+        converter = new MirtarbaseToBiopaxConverter();
+        converter.setCheckpointDir(dir);
+        converter.setCheckpointInterval(10);
+        rejects = new RejectWriter(rejectsFile);
+        converter.setRejects(rejects);
+        try {
+            converter.convertToOWL(new FailingRowSource(MtiTestData.tsv(dirty), 155), MirBase.getDefault(), output, false);
+            fail("The row source should have failed");
+        } catch (IOException e) {
+            assertEquals("Interrupted", e.getMessage());
+        } finally {
+            rejects.close();
+        }
+
+        converter = new MirtarbaseToBiopaxConverter();
+        converter.setCheckpointDir(dir);
+        converter.setCheckpointInterval(10);
+        rejects = new RejectWriter(rejectsFile, true);
+        converter.setRejects(rejects);
+        converter.convertToOWL(MtiTestData.tsv(dirty), MirBase.getDefault(), output, true);
+        rejects.close();
+
+        assertEquals(1 + 43, MtiTestData.read(expectedRejects).split("\n").length);
+        assertEquals(MtiTestData.read(expectedRejects), MtiTestData.read(rejectsFile));
+        assertEquals(MtiTestData.read(new File(tmp.getRoot(), "expected.owl")), MtiTestData.read(output));
+    }
+
+    @Test
+    public void refusesAnotherInputOrData() throws IOException {
+        File dir = tmp.newFolder("checkpoint");
+        File output = new File(tmp.getRoot(), "out.owl");
+        MirtarbaseToBiopaxConverter converter = new MirtarbaseToBiopaxConverter();
+        converter.setCheckpointDir(dir);
+        converter.setCheckpointInterval(1);
+        converter.setInputId("release-1");
+        try {
+            converter.convertToOWL(new FailingRowSource(MtiTestData.tsv(MtiTestData.ROWS), 6),
+                    MirBase.getDefault(), output, false);
+            fail("The row source should have failed");
+        } catch (IOException e) {
+            assertEquals("Interrupted", e.getMessage());
+        }
+
+        converter = new MirtarbaseToBiopaxConverter();
+        converter.setCheckpointDir(dir);
+        converter.setInputId("release-2");
+        assertRefused(converter, output);
+
+        converter = new MirtarbaseToBiopaxConverter();
+        converter.setCheckpointDir(dir);
+        converter.setInputId("release-1");
+        converter.setExperimentNormalizer(new ExperimentNormalizer(
+                new ByteArrayInputStream("blott\tblot\n".getBytes("UTF-8")), 0));
+        assertRefused(converter, output);
+
+        converter = new MirtarbaseToBiopaxConverter();
+        converter.setCheckpointDir(dir);
+        converter.setInputId("release-1");
+        converter.convertToOWL(MtiTestData.tsv(MtiTestData.ROWS), MirBase.getDefault(), output, true);
+        assertFalse(new File(dir, ConversionCheckpoint.FILE_NAME).exists());
+    }
+
+    @Test
+    public void dataDigests() throws IOException {
+        MirBase parsed = MirBase.parse(MirBase.class.getResourceAsStream("/aliases.txt"),
+                MirBase.class.getResourceAsStream("/organisms.txt"));
+        assertEquals(MirBase.getDefault().getDigest(), parsed.getDigest());
+        assertEquals(new ExperimentNormalizer().getDigest(), new ExperimentNormalizer(
+                ExperimentNormalizer.class.getResourceAsStream("/experiment-rules.txt"), 0).getDigest());
+        assertFalse(new ExperimentNormalizer().getDigest().equals(new ExperimentNormalizer(
+                new ByteArrayInputStream(new byte[0]), 0).getDigest()));
+    }
+
+    private static void assertRefused(MirtarbaseToBiopaxConverter converter, File output) {
+        try {
+            converter.convertToOWL(MtiTestData.tsv(MtiTestData.ROWS), MirBase.getDefault(), output, true);
+            fail("The checkpoint should have been refused");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("was made with a different input"));
+        }
+    }
+
+    @Test
+    public void saveKeepsPreviousCheckpointUntilReplaced() throws IOException {
+        File dir = tmp.newFolder("checkpoint");
+        ConversionCheckpoint checkpoint = new ConversionCheckpoint(dir);
+        checkpoint.options = "test";
+        checkpoint.lastId = "MIRT000001";
+        checkpoint.position = 2;
+        checkpoint.save(new EntityIndex(), new InteractionsBySpecies());
+        checkpoint.lastId = "MIRT000002";
+        checkpoint.position = 3;
+        checkpoint.save(new EntityIndex(), new InteractionsBySpecies());
+
+        ConversionCheckpoint loaded = new ConversionCheckpoint(dir);
+        loaded.load();
+        assertEquals("MIRT000002", loaded.lastId);
+        assertEquals(3, loaded.position);
+        assertFalse(new File(dir, ConversionCheckpoint.FILE_NAME + ".tmp").exists());
+    }
+
+    // fails when asked for a row after the given number of rows
+    private static final class FailingRowSource implements MtiRowSource {
+        private final MtiRowSource rows;
+        private int remaining;
+
+        FailingRowSource(MtiRowSource rows, int failAfter) {
+            this.rows = rows;
+            this.remaining = failAfter;
+        }
+
+        public boolean next() throws IOException {
+            if (remaining-- == 0)
+                throw new IOException("Interrupted");
+            return rows.next();
+        }
+
+        public int getRowNumber() {
+            return rows.getRowNumber();
+        }
+
+        public String getString(int column) {
+            return rows.getString(column);
+        }
+
+        public int getInteger(int column) {
+            return rows.getInteger(column);
+        }
+
+        public void close() throws IOException {
+            rows.close();
+        }
+    }
+}
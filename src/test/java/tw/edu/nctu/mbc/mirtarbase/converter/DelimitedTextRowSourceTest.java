@@ -0,0 +1,94 @@
+package tw.edu.nctu.mbc.mirtarbase.converter;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.*;
+
+public class DelimitedTextRowSourceTest {
+
+    @Test
+    public void quotedFields() throws IOException {
+        MtiRowSource rows = MtiTestData.tsv(MtiTestData.HEADER
+                + "\"MIRT000001\"\t\"hsa-miR-21-5p\"\tHomo sapiens\t\"PTEN\tPTEN1\"\t5728\tHomo sapiens"
+                + "\t\"Western blot\nqRT-PCR\"\t\"Functional \"\"MTI\"\"\"\t18548003\n"
+                + "MIRT000002\ta\"b\t\"\"\n");
+        assertTrue(rows.next());
+        assertEquals(1, rows.getRowNumber());
+        assertEquals("MIRT000001", rows.getString(0));
+        assertEquals("PTEN\tPTEN1", rows.getString(3));
+        assertEquals(5728, rows.getInteger(4));
+        assertEquals("Western blot\nqRT-PCR", rows.getString(6));
+        assertEquals("Functional \"MTI\"", rows.getString(7));
+        assertEquals(18548003, rows.getInteger(8));
+
+        // a quote inside an unquoted field is kept; an empty quoted field is missing
+        assertTrue(rows.next());
+        assertEquals(2, rows.getRowNumber());
+        assertEquals("a\"b", rows.getString(1));
+        assertNull(rows.getString(2));
+        assertNull(rows.getString(3));
+        assertEquals(MtiRowSource.MISSING, rows.getInteger(4));
+        assertFalse(rows.next());
+        rows.close();
+    }
+
+    @Test
+    public void byteOrderMarkAndCrLf() throws IOException {
+        String text = "\uFEFF" + MtiTestData.HEADER.replace("\n", "\r\n")
+                + "MIRT000001\thsa-miR-21-5p\tHomo sapiens\tPTEN\t5728\tHomo sapiens\tqRT-PCR\tFunctional MTI\t18548003\r\n"
+                + "\r\n"
+                + "MIRT000002\thsa-miR-21-5p\tHomo sapiens\tPDCD4\t 27250 \tHomo sapiens\tqRT-PCR\tFunctional MTI\t18548003";
+        MtiRowSource rows = MtiTestData.tsv(text);
+        assertTrue(rows.next());
+        assertEquals(1, rows.getRowNumber());
+        assertEquals("MIRT000001", rows.getString(0));
+        assertEquals(18548003, rows.getInteger(8));
+        // the blank line is skipped (but counted); the last line has no line break
+        assertTrue(rows.next());
+        assertEquals(3, rows.getRowNumber());
+        assertEquals("PDCD4", rows.getString(3));
+        assertEquals(27250, rows.getInteger(4));
+        assertEquals("18548003", rows.getString(8));
+        assertFalse(rows.next());
+    }
+
+    @Test
+    public void byteOrderMarkOnlyAtTheStart() throws IOException {
+        MtiRowSource rows = new DelimitedTextRowSource(new StringReader(
+                "\uFEFFid,mirna\n\uFEFFMIRT000001,hsa-miR-21-5p\n"), ',');
+        assertTrue(rows.next());
+        assertEquals("\uFEFFMIRT000001", rows.getString(0));
+        assertEquals("hsa-miR-21-5p", rows.getString(1));
+        assertFalse(rows.next());
+    }
+
+    @Test
+    public void commaSeparated() throws IOException {
+        MtiRowSource rows = new DelimitedTextRowSource(new StringReader(MtiTestData.HEADER.replace('\t', ',')
+                + "MIRT000001,hsa-miR-21-5p,Homo sapiens,PTEN,5728,Homo sapiens,"
+                + "\"Luciferase reporter assay, Western blot\",Functional MTI,18548003\n"), ',');
+        assertTrue(rows.next());
+        assertEquals("Luciferase reporter assay, Western blot", rows.getString(6));
+        assertEquals("Functional MTI", rows.getString(7));
+        assertEquals(18548003, rows.getInteger(8));
+        assertFalse(rows.next());
+    }
+
+    @Test
+    public void escapedQuoteAcrossBufferRefill() throws IOException {
+        // the escaped quote's first '"' is the last char of the 64K read buffer
+        StringBuilder sb = new StringBuilder(MtiTestData.HEADER).append('"');
+        while (sb.length() < 65535)
+            sb.append('a');
+        String value = sb.substring(MtiTestData.HEADER.length() + 1) + "\"b";
+        sb.append("\"\"b\"\thsa-miR-21-5p\n");
+        MtiRowSource rows = MtiTestData.tsv(sb.toString());
+        assertTrue(rows.next());
+        assertEquals(value, rows.getString(0));
+        assertEquals("hsa-miR-21-5p", rows.getString(1));
+        assertFalse(rows.next());
+    }
+}
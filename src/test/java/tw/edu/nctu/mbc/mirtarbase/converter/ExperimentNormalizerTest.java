@@ -0,0 +1,97 @@
+package tw.edu.nctu.mbc.mirtarbase.converter;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class ExperimentNormalizerTest {
+
+    private static final String[] VALUES = {"Luciferase reporter assay//Western blot", "qRT-PCR", "western blott",
+            "Microarray;pSILAC", "Flow cyto", "Northern Blot, qPCR"};
+
+    @Test
+    public void normalize() {
+        ExperimentNormalizer normalizer = new ExperimentNormalizer();
+        ExperimentNormalizer.Result result = normalizer.normalize("Luciferase reporter assay//Western blot");
+        assertEquals(Arrays.asList("luciferase assay", "western blot"), Arrays.asList(result.getTerms()));
+        assertSame(result, normalizer.normalize("Luciferase reporter assay//Western blot"));
+        assertEquals(1, normalizer.getHits());
+        assertEquals(1, normalizer.getMisses());
+    }
+
+    @Test
+    public void boundedCache() throws IOException {
+        ExperimentNormalizer normalizer = new ExperimentNormalizer(
+                getClass().getResourceAsStream("/experiment-rules.txt"), 2);
+        for (String value : VALUES)
+            normalizer.normalize(value);
+        for (String value : VALUES)
+            normalizer.normalize(value);
+        assertEquals(2 * VALUES.length, normalizer.getHits() + normalizer.getMisses());
+        assertTrue(normalizer.getHits() <= 2);
+
+        ExperimentNormalizer uncached = new ExperimentNormalizer(
+                getClass().getResourceAsStream("/experiment-rules.txt"), 0);
+        uncached.normalize("qRT-PCR");
+        uncached.normalize("qRT-PCR");
+        assertEquals(0, uncached.getHits());
+    }
+
+    @Test
+    public void concurrentUse() throws Exception {
+        final ExperimentNormalizer normalizer = new ExperimentNormalizer();
+        final ExperimentNormalizer expected = new ExperimentNormalizer();
+        ExecutorService threads = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int t = 0; t < 4; t++)
+                results.add(threads.submit(new Callable<Boolean>() {
+                    public Boolean call() {
+                        for (int i = 0; i < 10000; i++) {
+                            String value = VALUES[i % VALUES.length];
+                            if (!Arrays.equals(expected.normalize(value).getTerms(), normalizer.normalize(value).getTerms()))
+                                return false;
+                        }
+                        return true;
+                    }
+                }));
+            for (Future<Boolean> result : results)
+                assertTrue(result.get());
+        } finally {
+            threads.shutdownNow();
+        }
+        assertEquals(40000, normalizer.getHits() + normalizer.getMisses());
+        assertTrue(normalizer.getMisses() >= VALUES.length);
+    }
+
+    @Test
+    public void sameOutputWithThreads() throws IOException {
+        String rows = MtiTestData.rows(12000);
+        String expected = null;
+        for (int threads : new int[]{1, 3}) {
+            MirtarbaseToBiopaxConverter converter = new MirtarbaseToBiopaxConverter();
+            converter.setThreads(threads);
+            converter.setMakePathwayPerOrganism(true);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            converter.write(converter.convert(MtiTestData.tsv(rows), MirBase.getDefault()), out);
+            String owl = out.toString("UTF-8");
+            if (expected == null)
+                expected = owl;
+            else
+                assertEquals(expected, owl);
+
+            converter = new MirtarbaseToBiopaxConverter();
+            converter.setThreads(threads);
+            out = new ByteArrayOutputStream();
+            converter.convertToOWL(MtiTestData.tsv(rows), MirBase.getDefault(), out);
+            assertTrue(out.size() > 0);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package tw.edu.nctu.mbc.mirtarbase.converter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+
+import static org.junit.Assert.*;
+
+public class FileReplacerTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void replacesTheFile() throws IOException {
+        File file = write("state.bin", "old");
+        FileReplacer.replace(write("state.bin.tmp", "new"), file);
+        assertEquals("new", MtiTestData.read(file));
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        File created = new File(tmp.getRoot(), "created.bin");
+        FileReplacer.replace(write("created.bin.tmp", "first"), created);
+        assertEquals("first", MtiTestData.read(created));
+    }
+
+    @Test
+    public void keepsWhatCannotBeReplaced() throws IOException {
+        // a non-empty directory can neither be renamed over nor deleted
+        File dir = tmp.newFolder("state.bin");
+        write("state.bin/keep", "x");
+        File newVersion = write("state.bin.tmp", "new");
+        try {
+            FileReplacer.replace(newVersion, dir);
+            fail("The replace should have failed");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("kept the previous version"));
+        }
+        assertTrue(new File(dir, "keep").isFile());
+        assertFalse(newVersion.exists());
+    }
+
+    private File write(String name, String text) throws IOException {
+        File file = new File(tmp.getRoot(), name);
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            out.write(text);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
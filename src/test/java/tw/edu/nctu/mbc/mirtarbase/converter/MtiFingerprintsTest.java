@@ -0,0 +1,100 @@
+package tw.edu.nctu.mbc.mirtarbase.converter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+public class MtiFingerprintsTest {
+
+    // since MtiTestData.ROWS: MIRT000001's rows reordered, MIRT000002's PMID changed, MIRT000003 removed,
+    // MIRT000004 with padded cells, MIRT000005 the same, MIRT000006 added, and an incomplete row (not converted)
+    private static final String NEXT_RELEASE = MtiTestData.HEADER
+            + "MIRT000001\thsa-miR-21-5p\tHomo sapiens\tPTEN\t5728\tHomo sapiens\tqRT-PCR\tFunctional MTI\t19946373\n"
+            + "MIRT000001\thsa-miR-21-5p\tHomo sapiens\tPTEN\t5728\tHomo sapiens\tLuciferase reporter assay//Western blot\tFunctional MTI\t18548003\n"
+            + "MIRT000002\thsa-miR-21-5p\tHomo sapiens\tPDCD4\t27250\tHomo sapiens\tLuciferase reporter assay\tFunctional MTI\t18548004\n"
+            + "MIRT000004\tmmu-let-7a-5p\tMus musculus\tKras\t 16653 \tMus musculus\tWestern blot;qRT-PCR\tFunctional MTI\t20000002\n"
+            + "MIRT000004\tmmu-let-7a-5p\tMus musculus\tKras\t16653.0\tMus musculus\tReporter assay\tFunctional MTI\t20000003\n"
+            + "MIRT000005\tmmu-miR-1a-3p\tMus musculus\tHdac4\t208727\tMus musculus\tSequencing\tNon-Functional MTI\t20000004\n"
+            + "MIRT000006\tmmu-miR-1a-3p\tMus musculus\tHdac5\t15184\tMus musculus\tSequencing\tNon-Functional MTI\t20000005\n"
+            + "MIRT000007\tmmu-miR-1a-3p\n";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void diff() throws IOException {
+        MtiFingerprints previous = MtiFingerprints.compute(MtiTestData.tsv(MtiTestData.ROWS));
+        MtiFingerprints current = MtiFingerprints.compute(MtiTestData.tsv(NEXT_RELEASE));
+        assertEquals(5, previous.size());
+        assertEquals(5, current.size());
+
+        MtiFingerprints.Delta delta = current.diff(previous);
+        assertEquals(new TreeSet<String>(Arrays.asList("MIRT000006")), delta.getAdded());
+        assertEquals(new TreeSet<String>(Arrays.asList("MIRT000003")), delta.getRemoved());
+        assertEquals(new TreeSet<String>(Arrays.asList("MIRT000002")), delta.getChanged());
+        assertEquals(new HashSet<String>(Arrays.asList("MIRT000002", "MIRT000006")), delta.getAddedOrChanged());
+        assertEquals("1 added, 1 removed, 1 changed", delta.toString());
+
+        StringWriter text = new StringWriter();
+        delta.write(text);
+        assertEquals("added\tMIRT000006\nremoved\tMIRT000003\nchanged\tMIRT000002\n", text.toString());
+
+        assertTrue(current.diff(current).getAddedOrChanged().isEmpty());
+        // no previous fingerprints - everything is added
+        assertEquals(current.getIds(), current.diff(new MtiFingerprints()).getAdded());
+    }
+
+    @Test
+    public void otherOptionsChangeEverything() throws IOException {
+        MtiFingerprints previous = MtiFingerprints.compute(MtiTestData.tsv(MtiTestData.ROWS));
+        previous.setOptions("organisms=null");
+        MtiFingerprints current = MtiFingerprints.compute(MtiTestData.tsv(NEXT_RELEASE));
+        current.setOptions("organisms=[10090]");
+
+        MtiFingerprints.Delta delta = current.diff(previous);
+        assertTrue(delta.isOptionsChanged());
+        assertEquals(new TreeSet<String>(Arrays.asList("MIRT000006")), delta.getAdded());
+        assertEquals(new TreeSet<String>(Arrays.asList("MIRT000003")), delta.getRemoved());
+        assertEquals(new TreeSet<String>(Arrays.asList("MIRT000001", "MIRT000002", "MIRT000004", "MIRT000005")),
+                delta.getChanged());
+        assertEquals("1 added, 1 removed, 4 changed (other conversion options than before)", delta.toString());
+
+        current.setOptions("organisms=null");
+        assertFalse(current.diff(previous).isOptionsChanged());
+        assertEquals(1, current.diff(previous).getChanged().size());
+        // no previous fingerprints - nothing to compare the options with
+        assertFalse(current.diff(new MtiFingerprints()).isOptionsChanged());
+    }
+
+    @Test
+    public void writeAndRead() throws IOException {
+        MtiFingerprints fingerprints = MtiFingerprints.compute(MtiTestData.tsv(MtiTestData.rows(500)));
+        fingerprints.setOptions("xmlBase=http://example.org/; mirbase=0a1b");
+        File file = new File(tmp.getRoot(), "mti.fingerprints");
+        fingerprints.write(file);
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        MtiFingerprints read = MtiFingerprints.read(file);
+        assertEquals(fingerprints.getIds(), read.getIds());
+        assertEquals(fingerprints.getOptions(), read.getOptions());
+        MtiFingerprints.Delta delta = fingerprints.diff(read);
+        assertTrue(delta.getAdded().isEmpty());
+        assertTrue(delta.getRemoved().isEmpty());
+        assertTrue(delta.getChanged().isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void notAFingerprintsFile() throws IOException {
+        File file = tmp.newFile("other");
+        MtiFingerprints.read(file);
+    }
+}
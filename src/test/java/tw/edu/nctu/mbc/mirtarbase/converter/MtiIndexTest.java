@@ -0,0 +1,102 @@
+package tw.edu.nctu.mbc.mirtarbase.converter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+public class MtiIndexTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void lookups() throws IOException {
+        MtiIndex.Builder builder = new MtiIndex.Builder();
+        builder.add("hsa-miR-21-5p", 5728, 19946373, "Functional MTI");
+        builder.add("hsa-miR-155-5p", 7157, 0, null);
+        builder.add("hsa-miR-21-5p", 27250, 18548003, "Functional MTI");
+        builder.add("hsa-miR-21-5p", 5728, 18548003, "Functional MTI (Weak)");
+        builder.add("hsa-let-7b-5p", 7157, 20000001, "Non-Functional MTI");
+        builder.add("hsa-miR-21-5p", 5728, 18548003, "Functional MTI");
+        builder.add("hsa-miR-155-5p", -2, 21000001, "Functional MTI");
+        builder.add("hsa-miR-21-5p", 7157, 20000002, "Functional MTI");
+        File file = new File(tmp.getRoot(), "mti.idx");
+        builder.write(file);
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        MtiIndex index = MtiIndex.open(file);
+        assertEquals(8, index.getNumberOfInteractions());
+        assertEquals(3, index.getNumberOfMirnas());
+        assertEquals(4, index.getNumberOfGenes());
+        assertArrayEquals(new String[]{"hsa-let-7b-5p", "hsa-miR-155-5p", "hsa-miR-21-5p"}, index.getMirnas());
+
+        assertArrayEquals(new int[]{5728, 7157, 27250}, index.getTargets("hsa-miR-21-5p"));
+        assertArrayEquals(new int[]{-2, 7157}, index.getTargets("hsa-miR-155-5p"));
+        assertArrayEquals(new int[]{-2}, index.getTargets("hsa-miR-155-5p", Collections.singleton("Functional MTI")));
+        assertArrayEquals(new int[]{5728}, index.getTargets("hsa-miR-21-5p",
+                Collections.singleton("Functional MTI (Weak)")));
+        assertArrayEquals(new int[0], index.getTargets("hsa-miR-1-3p"));
+
+        assertArrayEquals(new String[]{"hsa-let-7b-5p", "hsa-miR-155-5p", "hsa-miR-21-5p"}, index.getMirnas(7157));
+        assertArrayEquals(new String[]{"hsa-miR-21-5p"}, index.getMirnas(7157, Collections.singleton("Functional MTI")));
+        assertArrayEquals(new String[0], index.getMirnas(1));
+
+        assertArrayEquals(new int[]{18548003, 19946373}, index.getPmids("hsa-miR-21-5p", 5728));
+        assertArrayEquals(new int[0], index.getPmids("hsa-miR-155-5p", 7157));
+        assertEquals(new TreeSet<String>(Arrays.asList("Functional MTI", "Functional MTI (Weak)")),
+                index.getSupportTypes("hsa-miR-21-5p", 5728));
+        assertTrue(index.getSupportTypes("hsa-miR-155-5p", 7157).isEmpty());
+
+        assertEquals(3, index.getTargetCount("hsa-miR-21-5p"));
+        assertEquals(0, index.getTargetCount("hsa-miR-1-3p"));
+        assertEquals(3, index.getMirnaCount(7157));
+        assertEquals(1, index.getMirnaCount(5728));
+
+        MtiIndex.Degrees targets = index.getTargetDegrees();
+        assertEquals(3, targets.getCount());
+        assertEquals(1, targets.getMin());
+        assertEquals(3, targets.getMax());
+        assertEquals(2.0, targets.getMedian(), 0);
+        assertEquals(2.0, targets.getMean(), 1e-9);
+    }
+
+    @Test
+    public void sameAsConvertedRows() throws IOException {
+        MirtarbaseToBiopaxConverter converter = new MirtarbaseToBiopaxConverter();
+        converter.setIndexBuilder(new MtiIndex.Builder());
+        converter.convert(MtiTestData.tsv(MtiTestData.rows(2000)), MirBase.getDefault());
+        File file = new File(tmp.getRoot(), "mti.idx");
+        converter.getIndexBuilder().write(file);
+
+        MtiIndex index = MtiIndex.open(file);
+        assertEquals(2000, index.getNumberOfInteractions());
+        // every target of a miRNA has the miRNA, and the PMIDs are ascending
+        for (String mirna : index.getMirnas()) {
+            for (int gene : index.getTargets(mirna)) {
+                assertTrue(Arrays.asList(index.getMirnas(gene)).contains(mirna));
+                int[] pmids = index.getPmids(mirna, gene);
+                assertTrue(pmids.length > 0);
+                for (int i = 1; i < pmids.length; i++)
+                    assertTrue(pmids[i - 1] < pmids[i]);
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void notAnIndexFile() throws IOException {
+        File file = tmp.newFile("other.idx");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[64]);
+        out.close();
+        MtiIndex.open(file);
+    }
+}
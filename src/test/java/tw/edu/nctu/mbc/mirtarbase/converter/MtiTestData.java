@@ -0,0 +1,65 @@
+package tw.edu.nctu.mbc.mirtarbase.converter;
+
+import java.io.*;
+
+/**
+ * Small MTI data sets for the tests.
+ */
+final class MtiTestData {
+
+    static final String HEADER = "miRTarBase ID\tmiRNA\tSpecies (miRNA)\tTarget Gene\tTarget Gene (Entrez ID)"
+            + "\tSpecies (Target Gene)\tExperiments\tSupport Type\tReferences (PMID)\n";
+
+    // the MIRT IDs are grouped; MIRT000003's target species is not in organisms.txt
+    static final String ROWS = HEADER
+            + "MIRT000001\thsa-miR-21-5p\tHomo sapiens\tPTEN\t5728\tHomo sapiens\tLuciferase reporter assay//Western blot\tFunctional MTI\t18548003\n"
+            + "MIRT000001\thsa-miR-21-5p\tHomo sapiens\tPTEN\t5728\tHomo sapiens\tqRT-PCR\tFunctional MTI\t19946373\n"
+            + "MIRT000002\thsa-miR-21-5p\tHomo sapiens\tPDCD4\t27250\tHomo sapiens\tLuciferase reporter assay\tFunctional MTI\t18548003\n"
+            + "MIRT000003\thsa-miR-155-5p\tHomo sapiens\tBHRF1\t3783711\tHuman herpesvirus X\tMicroarray\tFunctional MTI (Weak)\t21000001\n"
+            + "MIRT000004\tmmu-let-7a-5p\tMus musculus\tKras\t16653\tMus musculus\tWestern blot;qRT-PCR\tFunctional MTI\t20000002\n"
+            + "MIRT000004\tmmu-let-7a-5p\tMus musculus\tKras\t16653\tMus musculus\tReporter assay\tFunctional MTI\t20000003\n"
+            + "MIRT000005\tmmu-miR-1a-3p\tMus musculus\tHdac4\t208727\tMus musculus\tSequencing\tNon-Functional MTI\t20000004\n";
+
+    private MtiTestData() {
+    }
+
+    /**
+     * @param n number of rows
+     * @return n rows, 1-3 per MIRT ID (grouped), of a few miRNAs, genes, species and experiments
+     */
+    static String rows(int n) {
+        String[] mirnas = {"hsa-miR-21-5p", "hsa-miR-155-5p", "mmu-let-7a-5p", "hsa-let-7b-5p", "mmu-miR-1a-3p"};
+        String[] experiments = {"Luciferase reporter assay//Western blot", "qRT-PCR", "Microarray;pSILAC",
+                "western blott", "Reporter assay", ""};
+        String[] supports = {"Functional MTI", "Functional MTI (Weak)", "Non-Functional MTI"};
+        StringBuilder sb = new StringBuilder(HEADER);
+        for (int i = 0, id = 0; i < n; id++) {
+            String mirna = mirnas[id % mirnas.length];
+            String species = mirna.startsWith("hsa") ? "Homo sapiens" : "Mus musculus";
+            int gene = 1000 + (id * 7) % 500;
+            for (int j = 0; j <= id % 3 && i < n; j++, i++) {
+                sb.append(String.format("MIRT%06d\t%s\t%s\tGENE%d\t%d\t%s\t%s\t%s\t%d\n", id, mirna, species,
+                        gene, gene, species, experiments[i % experiments.length], supports[id % supports.length],
+                        10000000 + (i * 13) % 3000));
+            }
+        }
+        return sb.toString();
+    }
+
+    static MtiRowSource tsv(String text) {
+        return new DelimitedTextRowSource(new StringReader(text), '\t');
+    }
+
+    static String read(File file) throws IOException {
+        Reader in = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        try {
+            StringBuilder sb = new StringBuilder();
+            char[] buffer = new char[8192];
+            for (int n; (n = in.read(buffer)) >= 0; )
+                sb.append(buffer, 0, n);
+            return sb.toString();
+        } finally {
+            in.close();
+        }
+    }
+}
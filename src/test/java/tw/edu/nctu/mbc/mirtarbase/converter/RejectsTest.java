@@ -0,0 +1,110 @@
+package tw.edu.nctu.mbc.mirtarbase.converter;
+
+import org.biopax.paxtools.model.Model;
+import org.biopax.paxtools.model.level3.TemplateReactionRegulation;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+public class RejectsTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final String DIRTY = MtiTestData.HEADER
+            + "MIRT000001\thsa-miR-21-5p\tHomo sapiens\tPTEN\t5728\tHomo sapiens\tqRT-PCR\tFunctional MTI\t18548003\n"
+            + "MIRT000001\thsa-miR-21-5p\tHomo sapiens\tPTEN\t5728\tHomo sapiens\tWestern blot\tFunctional MTI\t18548003\n"
+            + "MIRT000002\thsa-miR-21-5p\n"
+            + "\thsa-miR-21-5p\tHomo sapiens\tPDCD4\t27250\tHomo sapiens\tqRT-PCR\tFunctional MTI\t18548003\n"
+            + "MIRT000003\thsa-miR-21-5p\tHomo sapiens\t \t27250\tHomo sapiens\tqRT-PCR\tFunctional MTI\t18548003\n"
+            + "MIRT000004\thsa-miR-155-5p\tHomo sapiens\tSOCS1\tn/a\tHomo sapiens\tqRT-PCR\tFunctional MTI\tPMID:123\n"
+            + "MIRT000005\thsa-miR-155-5p\tHomo sapiens\tSHIP1\t3635.0\tHomo sapiens\t\t\t 19193853 \n";
+
+    @Test
+    public void badRowsAreRejectedNotThrown() throws IOException {
+        for (int threads = 1; threads <= 2; threads++) {
+            MirtarbaseToBiopaxConverter converter = new MirtarbaseToBiopaxConverter();
+            converter.setThreads(threads);
+            StringWriter rejected = new StringWriter();
+            RejectWriter rejects = new RejectWriter(rejected);
+            converter.setRejects(rejects);
+            Model model = converter.convert(MtiTestData.tsv(DIRTY), MirBase.getDefault());
+            rejects.close();
+
+            assertEquals("row\tmirt_id\treason\tvalue\n"
+                    + "2\tMIRT000001\tEVIDENCE_FAILED\t18548003\n"
+                    + "3\tMIRT000002\tMISSING_CELL\tSpecies (miRNA)\n"
+                    + "4\t\tMISSING_CELL\tmiRTarBase ID\n"
+                    + "5\tMIRT000003\tMISSING_CELL\tTarget Gene\n"
+                    + "6\tMIRT000004\tBAD_GENE_ID\tn/a\n"
+                    + "6\tMIRT000004\tBAD_PMID\tPMID:123\n", rejected.toString());
+            assertEquals(6, rejects.getCount());
+
+            ConversionStats stats = converter.getStats();
+            assertEquals(3, stats.getProblems(ConversionStats.Problem.MISSING_CELL));
+            assertEquals(1, stats.getProblems(ConversionStats.Problem.BAD_GENE_ID));
+            assertEquals(1, stats.getProblems(ConversionStats.Problem.BAD_PMID));
+            assertEquals(1, stats.getProblems(ConversionStats.Problem.EVIDENCE_FAILED));
+            assertEquals(1, stats.getProblems(ConversionStats.Problem.NO_EXPERIMENTS));
+            assertEquals(1, stats.getProblems(ConversionStats.Problem.NO_SUPPORT_TYPE));
+            assertEquals(Long.valueOf(3), stats.getCreated().get("TemplateReactionRegulation"));
+
+            // MIRT000001, 4 and 5 (the decimal gene ID and the padded PMID are fine)
+            assertEquals(3, model.getObjects(TemplateReactionRegulation.class).size());
+            assertNotNull(model.getByID(model.getXmlBase() + "mirtarbase_MIRT000005"));
+        }
+    }
+
+    @Test
+    public void sameRejectsFromColumnarFile() throws IOException {
+        File file = tmp.newFile("mti.bin");
+        MtiRowSource rows = new ColumnarRowWriter(MtiTestData.tsv(DIRTY), file);
+        while (rows.next()) {
+            // saved at the end
+        }
+        rows.close();
+
+        StringWriter fromText = new StringWriter();
+        RejectWriter rejects = new RejectWriter(fromText);
+        MirtarbaseToBiopaxConverter converter = new MirtarbaseToBiopaxConverter();
+        converter.setRejects(rejects);
+        converter.convert(MtiTestData.tsv(DIRTY), MirBase.getDefault());
+        rejects.close();
+
+        StringWriter fromColumnar = new StringWriter();
+        rejects = new RejectWriter(fromColumnar);
+        converter = new MirtarbaseToBiopaxConverter();
+        converter.setRejects(rejects);
+        converter.convert(new ColumnarRowSource(file), MirBase.getDefault());
+        rejects.close();
+
+        assertTrue(fromText.toString().contains("\tBAD_GENE_ID\tn/a\n"));
+        assertTrue(fromText.toString().contains("\tBAD_PMID\tPMID:123\n"));
+        assertEquals(fromText.toString(), fromColumnar.toString());
+    }
+
+    @Test
+    public void integerCells() {
+        assertEquals(5728, IntegerCells.parse(" 5728 "));
+        assertEquals(3635, IntegerCells.parse("3635.0"));
+        assertEquals(-12, IntegerCells.parse("-12"));
+        assertEquals(MtiRowSource.MISSING, IntegerCells.parse("  "));
+        assertEquals(MtiRowSource.MISSING, IntegerCells.parse((String) null));
+        assertEquals(MtiRowSource.NOT_AN_INTEGER, IntegerCells.parse("n/a"));
+        assertEquals(MtiRowSource.NOT_AN_INTEGER, IntegerCells.parse("1e5"));
+        assertEquals(MtiRowSource.NOT_AN_INTEGER, IntegerCells.parse("."));
+        assertEquals(MtiRowSource.NOT_AN_INTEGER, IntegerCells.parse("2147483648"));
+        assertEquals(Integer.MAX_VALUE, IntegerCells.parse("2147483647"));
+        char[] chars = "\t42\t".toCharArray();
+        assertEquals(42, IntegerCells.parse(chars, 0, chars.length));
+        assertEquals(19193853, IntegerCells.fromDouble(19193853.0));
+        assertEquals(MtiRowSource.NOT_AN_INTEGER, IntegerCells.fromDouble(Double.NaN));
+        assertEquals(MtiRowSource.NOT_AN_INTEGER, IntegerCells.fromDouble(1e10));
+    }
+}
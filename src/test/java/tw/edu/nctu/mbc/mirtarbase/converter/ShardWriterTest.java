@@ -0,0 +1,44 @@
+package tw.edu.nctu.mbc.mirtarbase.converter;
+
+import org.biopax.paxtools.model.Model;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ShardWriterTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void sameShardsWithThreads() throws IOException {
+        String rows = MtiTestData.rows(3000);
+        File[] dirs = new File[2];
+        for (int i = 0; i < dirs.length; i++) {
+            MirtarbaseToBiopaxConverter converter = new MirtarbaseToBiopaxConverter();
+            converter.setThreads(1 + 2 * i);
+            converter.setMakePathwayPerOrganism(true);
+            Model model = converter.convert(MtiTestData.tsv(rows), MirBase.getDefault());
+            dirs[i] = tmp.newFolder("shards" + i);
+            converter.writeShards(model, dirs[i], false);
+        }
+
+        String[] names = dirs[0].list();
+        Arrays.sort(names);
+        assertEquals(Arrays.asList(ShardWriter.MANIFEST, "mirtarbase_10090.owl", "mirtarbase_9606.owl"),
+                Arrays.asList(names));
+        for (String name : names)
+            assertEquals(name, MtiTestData.read(new File(dirs[0], name)), MtiTestData.read(new File(dirs[1], name)));
+
+        String human = MtiTestData.read(new File(dirs[0], "mirtarbase_9606.owl"));
+        assertTrue(human.contains("hsa-miR-21-5p"));
+        assertFalse(human.contains("mmu-let-7a-5p"));
+        assertTrue(MtiTestData.read(new File(dirs[0], ShardWriter.MANIFEST)).contains("\"taxon\": \"10090\""));
+    }
+}
@@ -0,0 +1,97 @@
+package tw.edu.nctu.mbc.mirtarbase.converter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class SortedRowSourceTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void mergesSortedRuns() throws IOException {
+        String input = shuffled(MtiTestData.rows(200))
+                + "\thsa-miR-21-5p\tHomo sapiens\tPTEN\t5728\tHomo sapiens\tqRT-PCR\tFunctional MTI\t18548003\n";
+        File runs = tmp.newFolder("runs");
+        List<String> merged = read(new SortedRowSource(MtiTestData.tsv(input), runs, 7), runs);
+        List<String> inMemory = read(new SortedRowSource(MtiTestData.tsv(input), runs, 1000), runs);
+        assertEquals(201, merged.size());
+        assertEquals(inMemory, merged);
+
+        // the row without an ID first, then by ID, and by the input row number
+        assertTrue(merged.get(0).startsWith("201\tnull\t"));
+        String lastId = "";
+        int lastNumber = 0;
+        for (String row : merged.subList(1, merged.size())) {
+            String[] cells = row.split("\t");
+            int number = Integer.parseInt(cells[0]);
+            int c = cells[1].compareTo(lastId);
+            assertTrue(c > 0 || (c == 0 && number > lastNumber));
+            lastId = cells[1];
+            lastNumber = number;
+        }
+    }
+
+    @Test
+    public void keepsTheCells() throws IOException {
+        String input = MtiTestData.HEADER
+                + "MIRT000002\thsa-miR-21-5p\tHomo sapiens\tPDCD4\t27250.0\tHomo sapiens\t\tFunctional MTI\tn/a\n"
+                + " MIRT000001 \thsa-miR-21-5p\tHomo sapiens\tPTEN\t5728\tHomo sapiens\tqRT-PCR\tFunctional MTI\t18548003\n"
+                + "MIRT000001\thsa-miR-21-5p\tHomo sapiens\tPTEN\t5728\tHomo sapiens\tWestern blot\tFunctional MTI\t19946373\n";
+        File runs = tmp.newFolder("runs");
+        SortedRowSource rows = new SortedRowSource(MtiTestData.tsv(input), runs, 1);
+        assertTrue(rows.next());
+        assertEquals(2, rows.getRowNumber());
+        assertEquals(" MIRT000001 ", rows.getString(0));
+        assertTrue(rows.next());
+        assertEquals(3, rows.getRowNumber());
+        assertEquals("Western blot", rows.getString(6));
+        assertTrue(rows.next());
+        assertEquals(1, rows.getRowNumber());
+        assertEquals(27250, rows.getInteger(4));
+        assertNull(rows.getString(6));
+        assertEquals(MtiRowSource.NOT_AN_INTEGER, rows.getInteger(8));
+        assertEquals("n/a", rows.getString(8));
+        assertFalse(rows.next());
+        assertEquals(3, runs.list().length);
+        rows.close();
+        assertEquals(0, runs.list().length);
+    }
+
+    // reads all the rows as "number, trimmed ID, cells" lines, and closes the source
+    private static List<String> read(SortedRowSource rows, File runs) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        try {
+            while (rows.next()) {
+                StringBuilder sb = new StringBuilder().append(rows.getRowNumber());
+                String id = rows.getString(0);
+                sb.append('\t').append((id != null) ? id.trim() : null);
+                for (int c = 1; c < MtiRowSource.COLUMNS; c++)
+                    sb.append('\t').append(rows.getString(c));
+                sb.append('\t').append(rows.getInteger(4)).append('\t').append(rows.getInteger(8));
+                lines.add(sb.toString());
+            }
+        } finally {
+            rows.close();
+        }
+        assertEquals(0, runs.list().length);
+        return lines;
+    }
+
+    private static String shuffled(String text) {
+        List<String> lines = new ArrayList<String>(Arrays.asList(text.split("\n")));
+        String header = lines.remove(0);
+        Collections.shuffle(lines, new Random(1));
+        StringBuilder sb = new StringBuilder(header).append('\n');
+        for (String line : lines)
+            sb.append(line).append('\n');
+        return sb.toString();
+    }
+}